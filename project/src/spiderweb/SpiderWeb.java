@@ -2,31 +2,57 @@ package spiderweb;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+import spiderweb.net.AddressResolver;
 import spiderweb.net.ConnectElement;
 import spiderweb.net.ConnectList;
+import spiderweb.net.ConnectLog;
+import spiderweb.net.ConnectNotify;
+import spiderweb.net.ConnectTree;
 import spiderweb.net.ExistenceIO;
+import spiderweb.net.ExistenceMessage;
+import spiderweb.net.ExistenceMetrics;
+import spiderweb.net.ExistenceReceiveBufferCall;
 import spiderweb.net.ExistenceReceiveCall;
+import spiderweb.net.Gossip;
+import spiderweb.net.MachineNoAllocator;
 import spiderweb.net.NodeGroupList;
 import spiderweb.net.SendBuffer;
+import spiderweb.net.SendScheduler;
 import spiderweb.net.ThisMachineAddress;
 import spiderweb.utils.AtomicNumber;
 import spiderweb.utils.AtomicNumber64;
 import spiderweb.utils.ConvIp4;
-import spiderweb.utils.OsCpuLoad;
+import spiderweb.utils.CpuLoadSampler;
+import spiderweb.utils.VirtualThreads;
 
 /**
  * spiderweb.
  */
 public class SpiderWeb {
 	private static final int TIMEOUT = 250;
+	private static final int RECEIVE_QUEUE = 1024; // 受信ワーカー毎のキュー長.
+	private static final int RECEIVE_APP_RATE = 75; // カスタムデータを受け付ける、受信ワーカーのキュー使用率(%).
 	public static final int TYPE_RECEIVE = 0; // 受信処理用スレッド.
 	public static final int TYPE_CONNECT = 1; // 起動時にNodeGroupListに従い、コネクション情報を送信.
 	public static final int TYPE_SYNC= 2; // ConnectListに対して、接続情報の同期を取る.
@@ -40,6 +66,12 @@ public class SpiderWeb {
 	// コネクション・同期スレッド.
 	private ExecuteThread connectThread = null;
 	
+	// 接続先変更の通知処理.
+	private ConnectNotify connectNotify = null;
+	
+	// アドレス解決のキャッシュ.
+	private AddressResolver resolver = null;
+	
 	// カスタム送信用、UDP送信処理.
 	private ExistenceIO customSend = null;
 	private SendBuffer customSendBuffer = null;
@@ -50,20 +82,69 @@ public class SpiderWeb {
 	// このマシンのCPU情報(平均).
 	private final AtomicNumber machineCpuLoad = new AtomicNumber();
 	
+	// このマシンのCPU情報の定期取得.
+	private CpuLoadSampler cpuLoadSampler = null;
+	
+	// このマシンの拡張負荷情報.
+	// 送信しない場合は[null].
+	private final AtomicReference<SpiderWebLoad> machineLoad = new AtomicReference<SpiderWebLoad>();
+	
+	// 拡張負荷情報を送信するか.
+	private boolean loadVector = false;
+	
+	// アプリケーションが設定する、処理中の要求数と処理能力の重み.
+	private final AtomicNumber machineInflight = new AtomicNumber(SpiderWebLoad.NONE);
+	private final AtomicNumber machineWeight = new AtomicNumber(SpiderWebLoad.NONE);
+	
+	// 通信ヘッダに付加するクラスタID.
+	private int cluster = 0;
+	
+	// 送受信メトリクス.
+	private final ExistenceMetrics existenceMetrics = new ExistenceMetrics();
+	
+	// メトリクスの参照と、JMXへの公開.
+	private SpiderWebMetrics metrics = null;
+	
 	// このマシンの番号.
 	private final AtomicNumber machineNo = new AtomicNumber();
 	
 	// このマシンの番号が決定した日時.
 	private final AtomicNumber64 machineNoTime = new AtomicNumber64();
 	
+	// このマシンの番号の割り当て.
+	private MachineNoAllocator machineNoAllocator = null;
+	
 	private final SpiderWebElement machineElement() {
-		return new SpiderWebElement(machineStatus.get(), machineCpuLoad.get(), machineNo.get(), machineNoTime.get());
+		return new SpiderWebElement(machineStatus.get(), machineCpuLoad.get(), machineNo.get(), machineNoTime.get(),
+			machineLoad.get());
+	}
+	
+	// 拡張負荷情報を作り直す.
+	// 取得していない情報は送信しない.
+	private final void updateLoad() {
+		if(!loadVector) {
+			return;
+		}
+		// 取得スレッドとアプリケーションの更新が前後しないように排他する.
+		synchronized(machineLoad) {
+			final CpuLoadSampler s = cpuLoadSampler;
+			final SpiderWebLoad n = new SpiderWebLoad(
+				s == null ? SpiderWebLoad.NONE : s.getLoadAverage(),
+				s == null ? SpiderWebLoad.NONE : s.getHeapUsed(),
+				s == null ? SpiderWebLoad.NONE : s.getGcPause(),
+				machineInflight.get(), machineWeight.get());
+			if(!SpiderWebLoad.equals(machineLoad.get(), n)) {
+				machineLoad.set(n);
+			}
+		}
 	}
 	
-	// 実行スレッド.
+	// 実行処理.
+	// 専用スレッドか、呼び出し元が指定したExecutorで実行する.
+	// ScheduledExecutorServiceの場合、コネクション、同期処理は待機せずに再実行を登録する.
 	@SuppressWarnings("unused")
-	private static final class ExecuteThread extends Thread {
-		private boolean startFlag = false;
+	private static final class ExecuteThread implements Runnable, SpiderWebTransport.Receiver {
+		private volatile boolean startFlag = false;
 		private volatile boolean stopFlag = false;
 		protected volatile int type = -1;
 		protected SpiderWebConfig config = null;
@@ -77,21 +158,68 @@ public class SpiderWeb {
 		protected AtomicNumber machineCpuLoad = null;
 		protected AtomicNumber machineNo = null;
 		protected AtomicNumber64 machineNoTime = null;
+		protected ReceiveWorker[] workers = null;
+		protected SendScheduler scheduler = null;
+		protected volatile boolean sendBottleneck = false;
+		protected Gossip gossip = null;
+		protected ConnectNotify connectNotify = null;
+		protected AddressResolver resolver = null;
+		protected MachineNoAllocator machineNoAllocator = null;
+		protected AtomicReference<SpiderWebLoad> machineLoad = null;
+		protected long nextProbeTime = -1L;
+		protected Executor executor = null;
+		protected ThreadFactory threadFactory = null;
+		protected CountDownLatch workerLatch = null;
+		protected long idleTime = -1L;
+		protected SpiderWebTransport transport = null;
+		protected ReceiveHandler receiveHandler = null;
+		
+		// 送信ペースの制御で中断した処理.
+		// スケジュール実行の場合のみ設定され、次回の実行で続きから処理する.
+		private ConnectRound connectRound = null;
+		private SyncRound syncRound = null;
+		private GossipRound gossipRound = null;
+		
+		// 受信ワーカーへの受け渡し件数、破棄件数、キュー長の最大値.
+		protected final AtomicNumber64 receiveEnqueued = new AtomicNumber64();
+		protected final AtomicNumber64 receiveDropped = new AtomicNumber64();
+		protected final AtomicNumber64 receiveAppDropped = new AtomicNumber64();
+		protected final AtomicNumber64 receiveHighWater = new AtomicNumber64();
+		
+		// 同期処理の実行回数、処理時間の合計、最大値、前回値(ナノ秒).
+		protected final AtomicNumber64 syncCount = new AtomicNumber64();
+		protected final AtomicNumber64 syncTotalTime = new AtomicNumber64();
+		protected final AtomicNumber64 syncMaxTime = new AtomicNumber64();
+		protected final AtomicNumber64 syncLastTime = new AtomicNumber64();
 		
 		// 受信スレッドを作成.
+		// 受信ワーカー数が1以上の場合は、受信スレッドは検証とワーカーへの受け渡しのみ行い、
+		// 受信データの反映とカスタム受信処理の呼び出しをワーカースレッドで行う.
 		public ExecuteThread(SpiderWebConfig cg, Map<String, ConnectList> c,
 				AtomicNumber ms, AtomicNumber cpu, AtomicNumber mNo, AtomicNumber64 mTime,
-				long etm, int pt, InetAddress bindAddr)
+				long etm, int pt, InetAddress bindAddr, int rth, int rqs)
 			throws IOException {
 			this(TYPE_RECEIVE, cg, c, ms, cpu, mNo, mTime, etm, -1L, pt, bindAddr);
+			if(rth > 0) {
+				if(rqs <= 0) {
+					rqs = RECEIVE_QUEUE;
+				}
+				final ReceiveWorker[] ws = new ReceiveWorker[rth];
+				for(int i = 0; i < rth; i ++) {
+					ws[i] = new ReceiveWorker(rqs);
+				}
+				workers = ws;
+				existenceIO.setDeferCall(true);
+			}
 		}
 		
 		// コネクションスレッドを作成.
 		public ExecuteThread(SpiderWebConfig cg, Map<String, ConnectList> c,
 			AtomicNumber ms, AtomicNumber cpu, AtomicNumber mNo, AtomicNumber64 mTime,
-			long etm, long stm, int pt, InetAddress bindAddr)
+			long etm, long stm, int pt, InetAddress bindAddr, SendScheduler sc)
 			throws IOException {
 			this(TYPE_CONNECT, cg, c, ms, cpu, mNo, mTime, etm, stm, pt, bindAddr);
+			scheduler = sc;
 		}
 		
 		// 実行スレッド.
@@ -106,8 +234,9 @@ public class SpiderWeb {
 			}
 			switch(t) {
 			case TYPE_RECEIVE:
-				b = new SendBuffer(SendBuffer.TYPE_SEND);
-				e.bind(pt, bindAddr);
+				// 返信用の送信バッファは、ReceiveHandler毎に保持する.
+				// バインドは、共有トランスポートの設定後に open で行う.
+				e.setPort(pt, bindAddr);
 				break;
 			case TYPE_CONNECT:
 				b = new SendBuffer(SendBuffer.TYPE_ALL);
@@ -134,18 +263,118 @@ public class SpiderWeb {
 		}
 		
 		private final SpiderWebElement machineElement() {
-			return new SpiderWebElement(machineStatus.get(), machineCpuLoad.get(), machineNo.get(), machineNoTime.get());
+			return new SpiderWebElement(machineStatus.get(), machineCpuLoad.get(), machineNo.get(), machineNoTime.get(),
+				machineLoad == null ? null : machineLoad.get());
 		}
 		
 		public final void startThread() {
 			this.startFlag = true;
 			this.stopFlag = false;
-			this.setDaemon(true);
-			this.start();
+			if(workers != null) {
+				final int len = workers.length;
+				workerLatch = new CountDownLatch(len);
+				for(int i = 0; i < len; i ++) {
+					workers[i].thread = launch(workers[i], "spiderweb-worker");
+				}
+			}
+			// 共有トランスポートの場合は、トランスポートの受信処理から反映する.
+			if(type == TYPE_RECEIVE && transport != null) {
+				return;
+			}
+			// 受信処理は受信待ちを行うので、スケジュール実行しない.
+			if(type != TYPE_RECEIVE && executor instanceof ScheduledExecutorService) {
+				schedule(0L);
+			} else {
+				launch(this, type == TYPE_RECEIVE ? "spiderweb-receive" : "spiderweb-connect");
+			}
+		}
+		
+		// 実行処理を開始.
+		// Executorが設定されていない場合は、スレッドを作成して開始する.
+		private final Thread launch(Runnable r, String name) {
+			if(executor != null) {
+				executor.execute(r);
+				return null;
+			}
+			final Thread t = threadFactory != null ? threadFactory.newThread(r) : new Thread(r);
+			t.setName(name);
+			t.setDaemon(true);
+			t.start();
+			return t;
+		}
+		
+		// スケジュール実行を登録.
+		private final void schedule(long delay) {
+			try {
+				((ScheduledExecutorService)executor).schedule(new Runnable() {
+					@Override
+					public void run() {
+						tick();
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			} catch(RejectedExecutionException re) {
+				// Executorが終了している場合は、実行処理を終了する.
+				finish();
+			}
+		}
+		
+		// スケジュール実行の1回分の処理.
+		// 待機が必要な場合は、待機せずにその時間後の再実行を登録する.
+		private final void tick() {
+			if(stopFlag) {
+				finish();
+				return;
+			}
+			idleTime = 0L;
+			step();
+			if(stopFlag) {
+				finish();
+			} else {
+				schedule(idleTime);
+			}
+		}
+		
+		// 実行処理の実行方法を設定.
+		public final void setExecutor(Executor e, ThreadFactory f) {
+			executor = e;
+			threadFactory = f;
+		}
+		
+		// 共有トランスポートを設定.
+		public final void setTransport(SpiderWebTransport t) {
+			transport = t;
+		}
+		
+		// クラスタIDを設定.
+		public final void setCluster(int cluster) {
+			existenceIO.setCluster(cluster);
+		}
+		
+		// 送受信の準備.
+		// 共有トランスポートが設定されている場合は、受信処理はトランスポートに登録し、送信はその送信チャネルを共有する.
+		// 設定されていない場合は、受信処理のみバインドする.
+		public final void open() throws IOException {
+			if(transport != null) {
+				if(type == TYPE_RECEIVE) {
+					transport.attach(existenceIO, this);
+				} else {
+					transport.share(existenceIO);
+				}
+			} else if(type == TYPE_RECEIVE) {
+				existenceIO.bind(existenceIO.getPort(), existenceIO.getBindAddress());
+			}
 		}
 		
 		public final void stopThread() {
 			this.stopFlag = true;
+			// 共有トランスポートの場合は受信スレッドが無いので、登録を解除して終了する.
+			if(type == TYPE_RECEIVE && transport != null) {
+				transport.detach(existenceIO);
+				finish();
+				return;
+			}
+			// 受信待ちの場合は、即時に復帰させる.
+			existenceIO.wakeup();
 		}
 		
 		public final boolean isStartThread() {
@@ -160,151 +389,1096 @@ public class SpiderWeb {
 			return this.type;
 		}
 		
+		public final SendScheduler getSendScheduler() {
+			return this.scheduler;
+		}
+		
+		public final boolean isSendBottleneck() {
+			return this.sendBottleneck;
+		}
+		
 		public final void setExistenceReceiveCall(ExistenceReceiveCall call) {
 			existenceIO.setExistenceReceiveCall(call);
 		}
 		
+		public final void setExistenceReceiveBufferCall(ExistenceReceiveBufferCall call) {
+			existenceIO.setExistenceReceiveBufferCall(call);
+		}
+		
+		public final void setMtu(int mtu) {
+			existenceIO.setMtu(mtu);
+		}
+		
+		// 送受信メトリクスを設定.
+		public final void setMetrics(ExistenceMetrics m) {
+			existenceIO.setMetrics(m);
+		}
+		
+		// ゴシップモードを設定.
+		public final void setGossip(Gossip g) {
+			gossip = g;
+		}
+		
+		public final Gossip getGossip() {
+			return gossip;
+		}
+		
+		// 接続先変更の通知処理を設定.
+		public final void setNotify(ConnectNotify n) {
+			connectNotify = n;
+		}
+		
+		// アドレス解決のキャッシュを設定.
+		public final void setResolver(AddressResolver r) {
+			resolver = r;
+		}
+		
+		// マシンNoの割り当てを設定.
+		public final void setMachineNoAllocator(MachineNoAllocator a) {
+			machineNoAllocator = a;
+		}
+		
+		// このマシンの拡張負荷情報を設定.
+		public final void setMachineLoad(AtomicReference<SpiderWebLoad> l) {
+			machineLoad = l;
+		}
+		
 		public final void run() {
 			try {
 				while(!stopFlag) {
-					try {
-						while(!stopFlag) {
-							switch(type) {
-							case TYPE_RECEIVE:
-								executeReceive();
-								break;
-							case TYPE_CONNECT:
-								executeConnect();
-								break;
-							case TYPE_SYNC:
-								executeSync();
-								break;
-							}
-						}
-					} catch(Throwable t) {
-						if(t instanceof ThreadDeath) {
-							throw (ThreadDeath)t;
-						}
-						if(SpiderWebConstants.DEBUG_FLAG) {
-							t.printStackTrace();
-							System.out.println();
-						}
-					}
+					step();
 				}
 			} finally {
-				this.startFlag = false;
+				finish();
+			}
+		}
+		
+		// 1回分の処理.
+		private final void step() {
+			try {
+				// コネクション・同期スレッドで、参照用スナップショットのCPU負荷情報と存在確認最終時間を更新.
+				if(type != TYPE_RECEIVE) {
+					refreshSnapshot();
+				}
+				switch(type) {
+				case TYPE_RECEIVE:
+					executeReceive();
+					break;
+				case TYPE_CONNECT:
+					executeConnect();
+					break;
+				case TYPE_SYNC:
+					if(machineNoAllocator != null) {
+						machineNoAllocator.execute(connectNodeGroup, System.currentTimeMillis());
+					}
+					if(gossip != null) {
+						executeGossip();
+					} else {
+						executeSync();
+					}
+					break;
+				}
+			} catch(Throwable t) {
+				if(t instanceof ThreadDeath) {
+					throw (ThreadDeath)t;
+				}
+				if(SpiderWebConstants.DEBUG_FLAG) {
+					t.printStackTrace();
+					System.out.println();
+				}
+			}
+		}
+		
+		// 終了処理.
+		private final void finish() {
+			stopWorkers();
+			existenceIO.close();
+			this.startFlag = false;
+		}
+		
+		// 待機.
+		// スケジュール実行の場合は待機せず、再実行までの時間とする.
+		private final void idle(long time) {
+			if(idleTime >= 0L) {
+				idleTime = time;
+			} else {
+				sleepTime(time);
 			}
 		}
 		
 		// 受信監視.
 		private final void executeReceive() throws IOException {
-			int cpu;
-			final InetAddress[] addr = new InetAddress[1];
-			final int[] port = new int[1];
-			final int[] type = new int[1];
-			final String[] nodeGroupName = new String[1];
-			final SpiderWebElement em = new SpiderWebElement();
-			final Object[] data = new Object[1];
+			final ExistenceMessage msg = new ExistenceMessage();
 			while(!stopFlag) {
-				// CPU平均を取得.
-				cpu = OsCpuLoad.get();
-				machineCpuLoad.set((machineCpuLoad.get() + cpu) >> 1);
-				
 				// 受信処理.
-				if(!existenceIO.receive(addr, port, type, nodeGroupName, em, data)) {
-					continue;
+				if(existenceIO.receive(msg)) {
+					receive(msg, existenceIO.isReceiveRemaining());
+				}
+			}
+		}
+		
+		// 受信メッセージを反映.
+		// 共有トランスポートの場合は、トランスポートの受信処理から呼び出される.
+		public final void receive(ExistenceMessage msg, boolean remaining) throws IOException {
+			if(stopFlag || !startFlag) {
+				return;
+			}
+			final ReceiveWorker[] ws = workers;
+			// ワーカーが存在しない場合は、受信スレッドで反映.
+			if(ws == null) {
+				if(receiveHandler == null) {
+					receiveHandler = new ReceiveHandler();
+				}
+				final ReceiveHandler handler = receiveHandler;
+				try {
+					handler.execute(msg, -1);
+				} finally {
+					// 受信パケット内のメッセージを全て反映した場合は、返信を送信.
+					if(!remaining) {
+						handler.flush();
+					}
+				}
+			} else {
+				dispatch(ws, msg);
+			}
+		}
+		
+		// 受信データをワーカーに振り分ける.
+		// ノードグループ単位でワーカーを固定し、同一ConnectListへの反映順を保証する.
+		// 受信メッセージは受信バッファを参照しているので、ワーカーの受信スロットにバイナリを複製してから渡す.
+		// キューが一杯の場合は受信スレッドを待機させずに破棄し、
+		// カスタムデータは接続情報より先に破棄する.
+		private final void dispatch(ReceiveWorker[] ws, ExistenceMessage msg) throws IOException {
+			final int t = msg.getType();
+			switch(t) {
+			case ExistenceIO.TYPE_CONNECT:
+				// コネクションパケットは、ノードグループ毎に分割して振り分ける.
+				final int len = msg.getListCount();
+				for(int i = 0; !stopFlag && i < len; i ++) {
+					offer(ws[workerNo(ws, msg.getNodeGroupNameList(i))], msg, i, false);
+				}
+				break;
+			case ExistenceIO.TYPE_IPLIST:
+			case ExistenceIO.TYPE_MACHINE_LIST:
+			case ExistenceIO.TYPE_IPLIST_PAGE:
+			case ExistenceIO.TYPE_MACHINE_LIST_PAGE:
+			case ExistenceIO.TYPE_DELTA:
+			case ExistenceIO.TYPE_TREE:
+			case ExistenceIO.TYPE_PING:
+			case ExistenceIO.TYPE_ACK:
+			case ExistenceIO.TYPE_CHECKSUM:
+			case ExistenceIO.TYPE_SUCCESS:
+				offer(ws[workerNo(ws, msg.getNodeGroupName())], msg, -1, false);
+				break;
+			default:
+				if(t > ExistenceIO.TYPE_APPS) {
+					offer(ws[workerNo(ws, msg.getNodeGroupName())], msg, -1, true);
+				}
+				break;
+			}
+		}
+		
+		// 受信データをワーカーに渡して、件数を集計.
+		private final void offer(ReceiveWorker w, ExistenceMessage msg, int connectNo, boolean app) {
+			final int depth = w.offer(msg, connectNo, app);
+			if(depth < 0) {
+				receiveDropped.inc();
+				if(app) {
+					receiveAppDropped.inc();
+				}
+			} else {
+				receiveEnqueued.inc();
+				receiveHighWater.max(depth);
+			}
+		}
+		
+		// 受信ワーカーのキューに残っている受信データ数を取得.
+		public final int getReceiveQueueDepth() {
+			final ReceiveWorker[] ws = workers;
+			int ret = 0;
+			if(ws != null) {
+				final int len = ws.length;
+				for(int i = 0; i < len; i ++) {
+					ret += ws[i].ready.size();
+				}
+			}
+			return ret;
+		}
+		
+		// ノードグループ名から、処理対象のワーカー項番を取得.
+		private static final int workerNo(ReceiveWorker[] ws, String nodeGroupName) {
+			return (nodeGroupName.hashCode() & 0x7fffffff) % ws.length;
+		}
+		
+		// ワーカーの停止.
+		// Executorで実行している場合は、受信データの取得待ちの時間内に終了する.
+		private final void stopWorkers() {
+			final ReceiveWorker[] ws = workers;
+			if(ws == null) {
+				return;
+			}
+			final int len = ws.length;
+			for(int i = 0; i < len; i ++) {
+				if(ws[i].thread != null) {
+					ws[i].thread.interrupt();
 				}
-				switch(type[0]) {
+			}
+			try {
+				workerLatch.await(TIMEOUT << 1, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException e) {}
+		}
+		
+		// 受信ワーカーの受信スロット.
+		// ワーカーの作成時にキュー長分を確保し、反映後に再利用するので、受信毎にオブジェクトを生成しない.
+		private static final class ReceiveSlot {
+			byte[] buf = new byte[ExistenceIO.DEF_MTU];
+			int off;
+			int end;
+			int packetLength;
+			int cluster;
+			int connectNo;
+			InetSocketAddress from;
+			
+			// 受信メッセージのバイナリを複製.
+			// packetが[true]の場合は受信パケット全体、それ以外はメッセージのみ複製する.
+			final void set(ExistenceMessage msg, int connectNo, boolean packet) {
+				final int start = packet ? 0 : msg.getFrameOffset();
+				final int len = (packet ? msg.getPacketLength() : msg.getFrameEnd()) - start;
+				if(buf.length < len) {
+					buf = new byte[len];
+				}
+				System.arraycopy(msg.getBuffer(), start, buf, 0, len);
+				this.off = msg.getFrameOffset() - start;
+				this.end = msg.getFrameEnd() - start;
+				this.packetLength = packet ? len : end;
+				this.cluster = msg.getCluster();
+				this.connectNo = connectNo;
+				this.from = msg.getSocketAddress();
+			}
+		}
+		
+		// 受信データの反映用ワーカー.
+		// 受信スロットを空きキューと処理待ちキューで受け渡し、受信スレッドは空きスロットが無い場合に破棄する.
+		// 受信スロットの解析は、ワーカー毎の受信メッセージで行う.
+		private final class ReceiveWorker implements Runnable {
+			private final BlockingQueue<ReceiveSlot> free;
+			private final BlockingQueue<ReceiveSlot> ready;
+			private final int appLimit;
+			private final ExistenceMessage msg = new ExistenceMessage();
+			private final ReceiveHandler handler = new ReceiveHandler();
+			// 専用スレッドで実行している場合のスレッド.
+			Thread thread = null;
+			
+			ReceiveWorker(int queueSize) {
+				this.free = new ArrayBlockingQueue<ReceiveSlot>(queueSize);
+				this.ready = new ArrayBlockingQueue<ReceiveSlot>(queueSize);
+				for(int i = 0; i < queueSize; i ++) {
+					free.offer(new ReceiveSlot());
+				}
+				this.appLimit = Math.max(1, (int)((long)queueSize * RECEIVE_APP_RATE / 100L));
+			}
+			
+			// 受信データを追加.
+			// 空きスロットが無い場合は、受信スレッドを待機させずに破棄する.
+			// カスタムデータは、接続情報の反映用に空きを残すため、キュー使用率が一定以上の場合に破棄する.
+			// ExistenceReceiveCallには受信パケット全体を渡すので、カスタムデータはパケット全体を複製する.
+			// 追加後のキュー長を返却し、破棄した場合は[-1]を返却する.
+			final int offer(ExistenceMessage m, int connectNo, boolean app) {
+				if(app && ready.size() >= appLimit) {
+					return -1;
+				}
+				final ReceiveSlot s = free.poll();
+				if(s == null) {
+					return -1;
+				}
+				s.set(m, connectNo, app && existenceIO.getExistenceReceiveBufferCall() == null);
+				ready.offer(s);
+				return ready.size();
+			}
+			
+			// 処理待ちの受信スロットを、全て空きスロットに戻す.
+			final void drain() {
+				ReceiveSlot s;
+				while((s = ready.poll()) != null) {
+					free.offer(s);
+				}
+			}
+			
+			public final void run() {
+				ReceiveSlot s;
+				try {
+					while(!stopFlag) {
+						try {
+							if((s = ready.poll(TIMEOUT, TimeUnit.MILLISECONDS)) != null) {
+								try {
+									if(existenceIO.decode(msg, s.buf, s.off, s.end, s.packetLength, s.from, s.cluster)) {
+										handler.execute(msg, s.connectNo);
+									}
+								} finally {
+									free.offer(s);
+									// 処理待ちの受信データが無い場合は、返信を送信.
+									if(ready.isEmpty()) {
+										handler.flush();
+									}
+								}
+							}
+						} catch(InterruptedException ie) {
+						} catch(Throwable t) {
+							if(t instanceof ThreadDeath) {
+								throw (ThreadDeath)t;
+							}
+							if(SpiderWebConstants.DEBUG_FLAG) {
+								t.printStackTrace();
+								System.out.println();
+							}
+						}
+					}
+				} finally {
+					// 停止時は処理待ちの受信データを破棄して空きスロットに戻し、
+					// 受信スレッドが受け渡しで止まらず、再開時に古い受信データを反映しないようにする.
+					drain();
+					workerLatch.countDown();
+				}
+			}
+		}
+		
+		// 受信データの反映処理.
+		// 返信用の送信バッファは、実行するスレッド毎に保持する.
+		private final class ReceiveHandler {
+			private final SendBuffer sendBuf = new SendBuffer(SendBuffer.TYPE_SEND);
+			private final SpiderWebElement deltaElement = new SpiderWebElement();
+			
+			// 返信はpackでまとめているので、受信データの反映が一区切りついた時点で送信する.
+			final void flush() throws IOException {
+				existenceIO.flush(sendBuf);
+			}
+			
+			// 受信データを反映.
+			// connectNoが0以上の場合は、コネクションパケットの指定項番のノードグループのみ反映する.
+			final void execute(ExistenceMessage msg, int connectNo)
+				throws IOException {
+				final InetAddress addr = msg.getAddress();
+				final SpiderWebElement em = msg.getElement();
+				switch(msg.getType()) {
 				case ExistenceIO.TYPE_CONNECT:
-					executeReceiveConnect(addr[0], em, (String[])data[0]);
+					if(connectNo >= 0) {
+						executeReceiveConnect(addr, em, msg.getNodeGroupNameList(connectNo));
+					} else {
+						final int len = msg.getListCount();
+						for(int i = 0; !stopFlag && i < len; i ++) {
+							executeReceiveConnect(addr, em, msg.getNodeGroupNameList(i));
+						}
+					}
 					break;
 				case ExistenceIO.TYPE_IPLIST:
-					executeReceiveIpList(addr[0], nodeGroupName[0], em, (int[])data[0]);
+				case ExistenceIO.TYPE_IPLIST_PAGE:
+					executeReceiveIpList(addr, msg.getNodeGroupName(), em, msg);
 					break;
 				case ExistenceIO.TYPE_MACHINE_LIST:
-					executeReceiveMachineList(addr[0], nodeGroupName[0], em, (String[])data[0]);
+				case ExistenceIO.TYPE_MACHINE_LIST_PAGE:
+					executeReceiveMachineList(addr, msg.getNodeGroupName(), em, msg);
 					break;
 				case ExistenceIO.TYPE_CHECKSUM:
-					executeReceiveChecksum(addr[0], nodeGroupName[0], em, (Long)data[0]);
+					executeReceiveChecksum(addr, msg.getNodeGroupName(), em, msg);
+					break;
+				case ExistenceIO.TYPE_DELTA:
+					executeReceiveDelta(addr, msg.getNodeGroupName(), em, msg);
+					break;
+				case ExistenceIO.TYPE_TREE:
+					executeReceiveTree(addr, msg.getNodeGroupName(), em, msg);
+					break;
+				case ExistenceIO.TYPE_PING:
+					executeReceivePing(addr, msg.getNodeGroupName(), em, msg);
+					break;
+				case ExistenceIO.TYPE_ACK:
+					executeReceiveAck(addr, msg.getNodeGroupName(), em, msg);
 					break;
 				case ExistenceIO.TYPE_SUCCESS:
-					executeReceiveSuccess(addr[0], nodeGroupName[0], em);
+					executeReceiveSuccess(addr, msg.getNodeGroupName(), em);
+					break;
+				default:
+					// カスタムデータは、受信時に呼び出していない場合のみ呼び出す.
+					if(msg.getType() > ExistenceIO.TYPE_APPS && existenceIO.isDeferCall()) {
+						existenceIO.receiveCall(msg);
+					}
 					break;
 				}
 			}
+			
+			// 他のマシンからのコネクション情報を受信.
+			private final void executeReceiveConnect(InetAddress addr, SpiderWebElement em, String nodeGroupName)
+				throws IOException {
+				// 現在のnodeGroupNameのコネクションリストを取得して、
+				// 現在接続中の「IPリスト」や「マシン名」を返却.
+				// ノードグループアドレスの更新.
+				updateNodeGroupAddress(nodeGroupName, addr, em);
+				// 現在保持しているノードグループの接続管理一覧を送信する.
+				if(!sendConnectList(addr, nodeGroupName)) {
+					// 接続管理一覧の件数が0件の場合は、success送信する.
+					// ただし自マシンには送信しない.
+					if(!ThisMachineAddress.eq(addr)) {
+						existenceIO.sendSuccess(sendBuf, nodeGroupName, machineElement())
+							.pack(sendBuf, addr);
+					}
+				}
+			}
+		
+			// IPリストを受信.
+			private final void executeReceiveIpList(InetAddress addr, String nodeGroupName, SpiderWebElement em, ExistenceMessage msg)
+				throws IOException {
+				// ページ分割されている場合は、受信したページ毎に反映する.
+				final boolean first = msg.getPageNo() == 0;
+				ConnectList conn = connectNodeGroup.get(nodeGroupName);
+				if(conn == null) {
+					conn = createConnectList(nodeGroupName);
+				} else if(first) {
+					// 期限の過ぎた接続情報を削除.
+					conn.removeExpire();
+				}
+				// ローカルIPの場合は、IPアドレスで保持.
+				// グローバルIPの場合は、マシン名で保持.
+				// マシン名が解決されていない場合は、解決されるまでIPアドレスで保持.
+				// スナップショットは、ページの反映後にまとめて作成する.
+				int ip;
+				final int len = msg.getIpCount();
+				conn.beginUpdate();
+				try {
+					for(int i = 0; !stopFlag && i < len; i ++) {
+						if(ConvIp4.isLocalIp(ip = msg.getIp(i))) {
+							conn.putToNoUpdate(ip, em);
+						} else {
+							putAddress(conn, ConvIp4.ipToString(ip), em, false);
+						}
+					}
+				} finally {
+					conn.endUpdate();
+				}
+				// 送信先の情報が存在しない場合は、その接続先の情報も登録.
+				if(first && !conn.isInetAddressByUpdate(addr, em)) {
+					putAddress(conn, addr, em);
+				}
+			}
+		
+			// マシン名リストを受信.
+			private void executeReceiveMachineList(InetAddress addr, String nodeGroupName, SpiderWebElement em, ExistenceMessage msg)
+				throws IOException {
+				// ページ分割されている場合は、受信したページ毎に反映する.
+				final boolean first = msg.getPageNo() == 0;
+				ConnectList conn = connectNodeGroup.get(nodeGroupName);
+				if(conn == null) {
+					conn = createConnectList(nodeGroupName);
+				} else if(first) {
+					// 期限の過ぎた接続情報を削除.
+					conn.removeExpire();
+				}
+				// ローカルIPの場合は、IPアドレスで保持.
+				// グローバルIPの場合は、マシン名で保持.
+				// IPアドレスが解決されていない場合は、解決されるまでマシン名で保持.
+				// スナップショットは、ページの反映後にまとめて作成する.
+				String s, ip;
+				final int len = msg.getListCount();
+				conn.beginUpdate();
+				try {
+					for(int i = 0; !stopFlag && i < len; i ++) {
+						ip = resolver.getHostAddress(s = msg.getList(i));
+						if(ip != null && ConvIp4.isLocalIp(ip)) {
+							conn.putToNoUpdate(ip, em);
+						} else {
+							conn.putToNoUpdate(s, em);
+						}
+					}
+				} finally {
+					conn.endUpdate();
+				}
+				// 送信先の情報が存在しない場合は、その接続先の情報も登録.
+				if(first && !conn.isInetAddressByUpdate(addr, em)) {
+					putAddress(conn, addr, em);
+				}
+			}
+		
+			// ノードの接続先同期チェックサムをチェック.
+			// 一致しない場合は、接続元の接続情報群を問い合わせする.
+			private void executeReceiveChecksum(InetAddress addr, String nodeGroupName, SpiderWebElement em,
+				ExistenceMessage msg) throws IOException {
+				// ノードグループアドレスの更新.
+				updateNodeGroupAddress(nodeGroupName, addr, em);
+				// コネクション情報が存在しない場合は、接続元の接続情報群を問合せ.
+				ConnectList conn = connectNodeGroup.get(nodeGroupName);
+				if(conn == null) {
+					// 自マシンには送信しない.
+					if(!ThisMachineAddress.eq(addr)) {
+						// 受信元に、コネクションデータの送信.
+						existenceIO.connectData(sendBuf, machineElement(), nodeGroupName)
+							.pack(sendBuf, addr);
+					}
+					return;
+				} else {
+					// 期限の過ぎた接続情報を削除.
+					conn.removeExpire();
+				}
+				// 通常のチェックサムの場合は、返信後に変更履歴のバージョンを通知する.
+				if(!msg.isChecksumVersion() && !ThisMachineAddress.eq(addr)) {
+					final long version = conn.getLogVersion();
+					sendChecksumReply(addr, nodeGroupName, conn, msg);
+					// 変更履歴に対応していない接続先は、複数メッセージも未対応のため単独で送信する.
+					// 対応していない接続先では、未対応のメッセージタイプとして破棄される.
+					existenceIO.flush(sendBuf);
+					existenceIO.packDelta(sendBuf, nodeGroupName, machineElement(), conn.getLogEpoch(),
+						-1L, version, null, addr);
+					existenceIO.flush(sendBuf);
+					return;
+				}
+				sendChecksumReply(addr, nodeGroupName, conn, msg);
+			}
+			
+			// チェックサムの比較結果を返信.
+			private void sendChecksumReply(InetAddress addr, String nodeGroupName, ConnectList conn,
+				ExistenceMessage msg) throws IOException {
+				// チェックサムが一致しない場合は、変更差分か、ノードグループの接続管理一覧を送信.
+				if(!conn.isConnectChecksum(msg.getChecksum())) {
+					// 自マシンには送信しない.
+					if(ThisMachineAddress.eq(addr)) {
+						return;
+					}
+					if(msg.isChecksumVersion() && !conn.isEmpty()) {
+						// 接続元が反映済みのバージョン以降の変更差分が取得できる場合は、差分を送信.
+						final List<ConnectLog.Entry> delta = conn.getDelta(msg.getChecksumEpoch(),
+							msg.getChecksumVersion());
+						if(delta != null && !delta.isEmpty()) {
+							existenceIO.packDelta(sendBuf, nodeGroupName, machineElement(), conn.getLogEpoch(),
+								msg.getChecksumVersion(), delta.get(delta.size() - 1).getVersion(), delta, addr);
+						} else {
+							// 差分で同期できない場合は、階層チェックサムを送信して差分のあるバケットを特定する.
+							existenceIO.sendTreeData(sendBuf, nodeGroupName, machineElement(),
+								conn.getConnectTree(), 1, 0).pack(sendBuf, addr);
+						}
+					// ノードグループの接続管理一覧を送信.
+					} else if(!sendConnectList(addr, nodeGroupName)) {
+						// 送るデータが存在しない場合は、success送信処理する.
+						existenceIO.sendSuccess(sendBuf, nodeGroupName, machineElement())
+							.pack(sendBuf, addr);
+					}
+				// チェックサムが一致する場合は、successを返信.
+				// 自マシンには送信しない.
+				} else if(!ThisMachineAddress.eq(addr)) {
+					existenceIO.sendSuccess(sendBuf, nodeGroupName, machineElement())
+						.pack(sendBuf, addr);
+				}
+			}
+		
+			// 階層チェックサムを受信.
+			// ノードのチェックサムを受信した場合は、一致しないノードのバケットのチェックサムを返信する.
+			// バケットのチェックサムを受信した場合は、一致しないバケットの接続先のみを返信する.
+			private void executeReceiveTree(InetAddress addr, String nodeGroupName, SpiderWebElement em,
+				ExistenceMessage msg) throws IOException {
+				// ノードグループアドレスの更新.
+				updateNodeGroupAddress(nodeGroupName, addr, em);
+				// 自マシンには送信しない.
+				final ConnectList conn = connectNodeGroup.get(nodeGroupName);
+				if(conn == null || ThisMachineAddress.eq(addr)) {
+					return;
+				}
+				if(msg.getTreeLevel() == 1) {
+					final ConnectTree tree = conn.getConnectTree();
+					for(int i = 0; i < ConnectTree.NODES; i ++) {
+						if(tree.getNode(i) != msg.getTreeHash(i)) {
+							existenceIO.sendTreeData(sendBuf, nodeGroupName, machineElement(), tree, 2, i)
+								.pack(sendBuf, addr);
+						}
+					}
+					return;
+				}
+				// 一致しないバケットの接続先を集計.
+				final long version = conn.getLogVersion();
+				final ConnectTree tree = conn.getConnectTree();
+				final List<String> list = new ArrayList<String>();
+				final int base = msg.getTreeIndex() * ConnectTree.WIDTH;
+				for(int i = 0; i < ConnectTree.WIDTH; i ++) {
+					if(tree.getLeaf(base + i) != msg.getTreeHash(i)) {
+						final int len = tree.getBucketSize(base + i);
+						for(int j = 0; j < len; j ++) {
+							list.add(tree.getBucket(base + i, j));
+						}
+					}
+				}
+				// 差分のある接続先と、送信時点の変更履歴のバージョンを送信.
+				if(!list.isEmpty()) {
+					sendAddressList(addr, nodeGroupName, list.toArray(new String[list.size()]));
+					existenceIO.packDelta(sendBuf, nodeGroupName, machineElement(), conn.getLogEpoch(),
+						-1L, version, null, addr);
+				}
+			}
+			
+			// 接続情報の変更差分を受信.
+			// 接続元から前回反映したバージョンからの差分のみ反映し、
+			// 一致しない場合は次回の同期で再送させる.
+			private void executeReceiveDelta(InetAddress addr, String nodeGroupName, SpiderWebElement em,
+				ExistenceMessage msg) throws IOException {
+				if(msg.getPageNo() == 0) {
+					updateNodeGroupAddress(nodeGroupName, addr, em);
+				}
+				final ConnectList conn = connectNodeGroup.get(nodeGroupName);
+				final ConnectElement pe;
+				if(conn == null || (pe = conn.getElement(addr)) == null) {
+					return;
+				}
+				final long epoch = msg.getDeltaEpoch();
+				final long from = msg.getDeltaFrom();
+				if(from != -1L && (pe.getLogEpoch() != epoch || pe.getLogVersion() != from)) {
+					return;
+				}
+				applyDelta(conn, msg);
+				// 最終ページを反映した時点で、反映済みのバージョンを更新.
+				if(msg.getPageNo() + 1 >= msg.getPageCount()) {
+					pe.setLogVersion(epoch, msg.getDeltaTo());
+				}
+			}
+			
+			// ゴシップの探査を受信.
+			// 直接探査の場合は探査応答を返信し、間接探査の場合は探査先に中継する.
+			private void executeReceivePing(InetAddress addr, String nodeGroupName, SpiderWebElement em,
+				ExistenceMessage msg) throws IOException {
+				final Gossip g = gossip;
+				updateNodeGroupAddress(nodeGroupName, addr, em);
+				final ConnectList conn = connectNodeGroup.get(nodeGroupName);
+				if(g == null || conn == null) {
+					return;
+				}
+				applyDelta(conn, msg);
+				final String target = msg.getGossipTarget();
+				if(target == null) {
+					packGossip(conn, ExistenceIO.TYPE_ACK, msg.getGossipSeq(), null, addr);
+				} else {
+					packGossip(conn, ExistenceIO.TYPE_PING,
+						g.relay(addr, msg.getGossipSeq(), System.currentTimeMillis()), null, target);
+				}
+			}
+			
+			// ゴシップの探査応答を受信.
+			// 間接探査の中継の場合は、依頼元に探査応答を返信する.
+			private void executeReceiveAck(InetAddress addr, String nodeGroupName, SpiderWebElement em,
+				ExistenceMessage msg) throws IOException {
+				final Gossip g = gossip;
+				updateNodeGroupAddress(nodeGroupName, addr, em);
+				final ConnectList conn = connectNodeGroup.get(nodeGroupName);
+				if(g == null || conn == null) {
+					return;
+				}
+				applyDelta(conn, msg);
+				final Gossip.Relay r = g.removeRelay(msg.getGossipSeq());
+				if(r != null) {
+					packGossip(conn, ExistenceIO.TYPE_ACK, r.getSeq(), null, r.getFrom());
+				} else {
+					g.ack(msg.getGossipSeq());
+				}
+			}
+			
+			// 受信した変更を反映.
+			// 自マシンの削除を受信した場合は、存在を変更履歴に追加して否定する.
+			// ただし、マシン名に置き換えられたグローバルIPの削除は否定しない.
+			private final void applyDelta(ConnectList conn, ExistenceMessage msg) throws IOException {
+				String a;
+				byte op;
+				final int len = msg.getDeltaCount();
+				if(len == 0) {
+					return;
+				}
+				// スナップショットは、全ての変更の反映後にまとめて作成する.
+				conn.beginUpdate();
+				try {
+					for(int i = 0; !stopFlag && i < len; i ++) {
+						op = msg.getDeltaOp(i);
+						a = msg.getDeltaAddress(i);
+						if(op == ConnectLog.OP_LEAVE && ThisMachineAddress.eq(a) &&
+							(!ConvIp4.isIp(a) || ConvIp4.isLocalIp(a) || resolver.getHostName(a) == null)) {
+							conn.rejoin(a, machineElement());
+						} else {
+							conn.apply(op, a, msg.getDeltaElement(i, deltaElement));
+						}
+					}
+				} finally {
+					conn.endUpdate();
+				}
+			}
+			
+			// ゴシップの探査、探査応答を送信.
+			private final void packGossip(ConnectList conn, byte type, int seq, String target, Object addr)
+				throws IOException {
+				final List<ConnectLog.Entry> pb = conn.getPiggyback(Gossip.PIGGYBACK);
+				conn.sentPiggyback(pb, existenceIO.packGossip(sendBuf, type, conn.getNodeGroupName(),
+					machineElement(), seq, target, pb, addr));
+			}
+			
+			// 正常を示す情報を受信.
+			private void executeReceiveSuccess(InetAddress addr, String nodeGroupName, SpiderWebElement em) throws IOException {
+				updateNodeGroupAddress(nodeGroupName, addr, em);
+			}
+		
+			// 指定Nodeの現在の接続情報を送信.
+			private final boolean sendConnectList(InetAddress addr, String nodeGroupName)
+				throws IOException {
+				// この処理は自マシンには送信しない.
+				if(ThisMachineAddress.eq(addr)) {
+					return true;
+				}
+				final ConnectList conn = connectNodeGroup.get(nodeGroupName);
+				if(conn == null || conn.isEmpty()) {
+					// 対象のノードグループに対する接続管理一覧が存在しない場合は
+					// falseを返却する.
+					return false;
+				}
+				conn.countFullList();
+				sendAddressList(addr, nodeGroupName, conn.getConnectIps(), conn.getConnectNames());
+				return true;
+			}
+			
+			// 指定Nodeの接続先群を、IPリストとマシン名リストに分けて送信.
+			private final void sendAddressList(InetAddress addr, String nodeGroupName, String[] connAddrs)
+				throws IOException {
+				int ipCnt = 0;
+				final int len = connAddrs.length;
+				final int[] ipList = new int[len];
+				final List<String> machineList = new ArrayList<String>();
+				// このマシンが保持する、指定Nodeグループの接続情報群の送信準備をする.
+				for(int i = 0; !stopFlag && i < len; i ++) {
+					if(ConvIp4.isIp(connAddrs[i])) {
+						ipList[ipCnt ++] = ConvIp4.ipToInt(connAddrs[i]);
+					} else {
+						machineList.add(connAddrs[i]);
+					}
+				}
+				sendAddressList(addr, nodeGroupName, Arrays.copyOf(ipList, ipCnt),
+					machineList.toArray(new String[machineList.size()]));
+			}
+			
+			// 指定Nodeの接続先群を、IPリストとマシン名リストで送信.
+			private final void sendAddressList(InetAddress addr, String nodeGroupName, int[] ipList, String[] machineList)
+				throws IOException {
+				// このマシンが保持する、指定NodeグループのローカルIPアドレス群の送信.
+				// 1パケットに収まらない場合は、ページ分割して送信される.
+				if(ipList.length != 0) {
+					existenceIO.packIPList(sendBuf, nodeGroupName, machineElement(), ipList, addr);
+				}
+				// このマシンが保持する、指定Nodeのマシン名群の送信.
+				if(machineList.length != 0) {
+					existenceIO.packMachineList(sendBuf, nodeGroupName, machineElement(), Arrays.asList(machineList), addr);
+				}
+			}
+		}
+		
+		// 送信ペースの制御で中断したコネクション処理.
+		private static final class ConnectRound {
+			final String[] names;
+			final NodeGroupList[] lists;
+			// 次に送信するノードグループの位置と、現在の周回で送信した件数.
+			int pos = 0;
+			int count = 0;
+			// 最後にコネクションデータを設定したノードグループの位置.
+			int last = -1;
+			ConnectRound(String[] names, NodeGroupList[] lists) {
+				this.names = names;
+				this.lists = lists;
+			}
+		}
+		
+		// 送信ペースの制御で中断した同期処理.
+		private static final class SyncRound {
+			final String[] names;
+			final ConnectList[] conns;
+			final long[] checksums;
+			final SpiderWebElement element;
+			// 未送信の接続先と、送信対象のノードグループの項番.
+			final Iterator<Entry<String, List<Integer>>> peers;
+			final long startNano;
+			final long startTime;
+			final long startWait;
+			SyncRound(String[] names, ConnectList[] conns, long[] checksums, SpiderWebElement element,
+				Iterator<Entry<String, List<Integer>>> peers, long startNano, long startTime, long startWait) {
+				this.names = names;
+				this.conns = conns;
+				this.checksums = checksums;
+				this.element = element;
+				this.peers = peers;
+				this.startNano = startNano;
+				this.startTime = startTime;
+				this.startWait = startWait;
+			}
+		}
+		
+		// ゴシップ処理の送信内容.
+		private static final class GossipSend {
+			// 間接探査の依頼、探査、チェックサム.
+			static final int RELAY = 0;
+			static final int PROBE = 1;
+			static final int CHECKSUM = 2;
+			final int type;
+			final String nodeGroupName;
+			final ConnectList conn;
+			final int seq;
+			final String target;
+			final String addr;
+			GossipSend(int type, String nodeGroupName, ConnectList conn, int seq, String target, String addr) {
+				this.type = type;
+				this.nodeGroupName = nodeGroupName;
+				this.conn = conn;
+				this.seq = seq;
+				this.target = target;
+				this.addr = addr;
+			}
+		}
+		
+		// 送信ペースの制御で中断したゴシップ処理.
+		private static final class GossipRound {
+			final List<GossipSend> sends;
+			final SpiderWebElement element;
+			final long now;
+			final long startNano;
+			// 次に送信する位置.
+			int pos = 0;
+			GossipRound(List<GossipSend> sends, SpiderWebElement element, long now, long startNano) {
+				this.sends = sends;
+				this.element = element;
+				this.now = now;
+				this.startNano = startNano;
+			}
+		}
+		
+		// 送信ペースの制御.
+		// スケジュール実行の場合は待機せず、送信可能になるまでの時間を再実行までの時間として[false]を返却する.
+		private final boolean pace() {
+			if(idleTime < 0L) {
+				scheduler.acquire();
+				return true;
+			}
+			final long w = scheduler.tryAcquire();
+			if(w == 0L) {
+				return true;
+			}
+			idle(w);
+			return false;
 		}
 		
 		// コネクション処理.
 		// 1度コネクション処理が終わった場合は、同期処理に移行.
+		// 送信ペースの制御で中断した場合は、次回の実行で続きから送信する.
 		private final void executeConnect() throws IOException {
-			String nodeGroupName, addr;
-			NodeGroupList nodeGroupList;
-			Entry<String, NodeGroupList> e;
-			final Map<String, NodeGroupList> nodeGroupMap = loadNodeGroupMap(config);
-			final Iterator<Entry<String, NodeGroupList>> it = nodeGroupMap.entrySet().iterator();
-			while(!stopFlag && it.hasNext()) {
-				e = it.next();
-				nodeGroupName = e.getKey();
-				nodeGroupList = e.getValue();
-				nodeGroupList.reset();
-				existenceIO.connectData(sendBuf, machineElement(), nodeGroupName);
-				while(!stopFlag && nodeGroupList.hasNext()) {
-					addr = nodeGroupList.next();
+			ConnectRound r = connectRound;
+			if(r == null) {
+				final Map<String, NodeGroupList> nodeGroupMap = loadNodeGroupMap(config);
+				final int len = nodeGroupMap.size();
+				final String[] names = new String[len];
+				final NodeGroupList[] lists = new NodeGroupList[len];
+				final Iterator<Entry<String, NodeGroupList>> it = nodeGroupMap.entrySet().iterator();
+				for(int i = 0; it.hasNext(); i ++) {
+					final Entry<String, NodeGroupList> e = it.next();
+					names[i] = e.getKey();
+					lists[i] = e.getValue();
+					lists[i].reset();
+				}
+				connectRound = r = new ConnectRound(names, lists);
+			}
+			// 各ノードグループから1件ずつ順番に送信して、
+			// 大きなIP範囲のノードグループが他のノードグループを待たせないようにする.
+			final int len = r.names.length;
+			while(!stopFlag) {
+				if(r.pos == len) {
+					// 1周して送信対象が無い場合は終了.
+					if(r.count == 0) {
+						break;
+					}
+					r.pos = 0;
+					r.count = 0;
+				}
+				if(r.lists[r.pos].hasNext()) {
+					// 送信ペースの制御.
+					if(!pace()) {
+						return;
+					}
+					r.count ++;
+					if(r.last != r.pos) {
+						existenceIO.connectData(sendBuf, machineElement(), r.names[r.pos]);
+						r.last = r.pos;
+					}
 					// コネクション処理だけは、自マシンにも送信する.
-					existenceIO.connect(sendBuf, addr);
-					// タイミングを入れる.
-					sleepTime(5L);
+					existenceIO.connect(sendBuf, r.lists[r.pos].next());
 				}
+				r.pos ++;
 			}
 			// コネクション処理が全部終わった場合は、同期処理に変更する.
+			connectRound = null;
 			type = TYPE_SYNC;
 			nextTime = System.currentTimeMillis() + syncTime;
 		}
 		
 		// 同期処理.
+		// 送信ペースの制御で中断した場合は、次回の実行で続きの接続先から送信する.
 		private final void executeSync() throws IOException {
-			// 再実行時間に達してない場合は処理しない.
-			if(System.currentTimeMillis() <= nextTime) {
-				// configが更新されている場合は、connect処理を実行.
-				if(config.isUpdate()) {
-					type = TYPE_CONNECT;
-				} else {
-					sleepTime(TIMEOUT);
+			SyncRound r = syncRound;
+			if(r == null) {
+				// 再実行時間に達してない場合は処理しない.
+				if(System.currentTimeMillis() <= nextTime) {
+					// configが更新されている場合は、connect処理を実行.
+					if(config.isUpdate()) {
+						type = TYPE_CONNECT;
+					} else {
+						idle(TIMEOUT);
+					}
+					return;
 				}
-				return;
+				syncRound = r = createSyncRound();
 			}
+			
+			// 接続先毎に、各ノードグループのチェックサムをまとめて送信.
+			// チェックサムには、接続先の変更履歴で反映済みのバージョンを付加する.
+			int i, j, cnt;
+			String peer;
+			List<Integer> groups;
+			while(!stopFlag && r.peers.hasNext()) {
+				// 送信ペースの制御.
+				if(!pace()) {
+					return;
+				}
+				final Entry<String, List<Integer>> pe = r.peers.next();
+				peer = pe.getKey();
+				groups = pe.getValue();
+				cnt = groups.size();
+				for(j = 0; j < cnt; j ++) {
+					i = groups.get(j);
+					packChecksum(r.names[i], r.element, r.checksums[i], r.conns[i].getElement(peer), peer);
+				}
+				existenceIO.flush(sendBuf);
+			}
+			syncRound = null;
+			
+			// 送信ペースの制御で待機が発生し、同期間隔内に処理が終わらなかった場合は
+			// 送信パケット数の上限がボトルネックとなっている.
+			final long endTime = System.currentTimeMillis();
+			sendBottleneck = (scheduler.getWaitTime() > r.startWait && endTime - r.startTime > syncTime);
+			if(sendBottleneck && SpiderWebConstants.DEBUG_FLAG) {
+				System.out.println("sync round took " + (endTime - r.startTime) +
+					" msec (waiting for send rate: " + (scheduler.getWaitTime() - r.startWait) + " msec)");
+			}
+			countSync(r.startNano);
+			
+			// configが更新されている場合は、connect処理を実行.
+			if(config.isUpdate()) {
+				type = TYPE_CONNECT;
+			}
+		}
+		
+		// 同期処理の送信対象を集計.
+		private final SyncRound createSyncRound() throws IOException {
 			// 次の実行時間をセット.
-			nextTime = System.currentTimeMillis() + syncTime;
+			final long startNano = System.nanoTime();
+			final long startTime = System.currentTimeMillis();
+			final long startWait = scheduler.getWaitTime();
+			nextTime = startTime + syncTime;
 			
 			// connectNodeGroupのchecksumを送信.
-			int i, len;
-			String nodeGroupName;
-			long checksum;
+			int i, j, cnt;
 			ConnectList conn;
-			String[] addrs;
+			List<Integer> groups;
 			Entry<String, ConnectList> e;
-			Iterator<Entry<String, ConnectList>> it = connectNodeGroup.entrySet().iterator();
-			while(!stopFlag && it.hasNext()) {
+			final SpiderWebElement em = machineElement();
+			final int len = connectNodeGroup.size();
+			final String[] names = new String[len];
+			final ConnectList[] conns = new ConnectList[len];
+			final String[][] addrs = new String[len][];
+			final long[] checksums = new long[len];
+			final Iterator<Entry<String, ConnectList>> it = connectNodeGroup.entrySet().iterator();
+			for(i = 0; i < len && it.hasNext(); i ++) {
 				e = it.next();
-				nodeGroupName = e.getKey();
 				conn = e.getValue();
 				conn.removeExpire();
-				addrs = conn.getConnectAddress();
-				len = addrs.length;
-				checksum = conn.getConnectChecksum();
-				existenceIO.sendChecksumData(sendBuf, nodeGroupName, machineElement(), checksum);
-				for(i = 0; i < len; i ++) {
+				names[i] = e.getKey();
+				conns[i] = conn;
+				addrs[i] = conn.getConnectAddress();
+				checksums[i] = conn.getConnectChecksum();
+			}
+			final int groupLen = i;
+			// 接続先毎に、送信対象のノードグループを集計する.
+			// 各ノードグループから1件ずつ順番に集計して、送信順を偏らせないようにする.
+			final Map<String, List<Integer>> peers = new LinkedHashMap<String, List<Integer>>();
+			cnt = groupLen;
+			for(j = 0; !stopFlag && cnt > 0; j ++) {
+				cnt = 0;
+				for(i = 0; !stopFlag && i < groupLen; i ++) {
+					if(j >= addrs[i].length) {
+						continue;
+					}
+					cnt ++;
 					// 自マシンには送信しない.
-					if(!ThisMachineAddress.eq(addrs[i])) {
-						existenceIO.send(sendBuf, addrs[i]);
-						// タイミングを入れる.
-						sleepTime(5L);
+					if(!ThisMachineAddress.eq(addrs[i][j])) {
+						if((groups = peers.get(addrs[i][j])) == null) {
+							groups = new ArrayList<Integer>();
+							peers.put(addrs[i][j], groups);
+						}
+						groups.add(i);
 					} else {
 						// 自マシンの場合は、時間を更新.
-						updateNodeGroupAddress(nodeGroupName, InetAddress.getByName(addrs[i]),machineElement());
+						updateNodeGroupAddress(names[i], InetAddress.getByName(addrs[i][j]), em);
 					}
 				}
 			}
+			return new SyncRound(names, conns, checksums, em, peers.entrySet().iterator(),
+				startNano, startTime, startWait);
+		}
+		
+		// ゴシップ処理.
+		// 探査周期毎に、ノードグループ毎に一定数のランダムな接続先へ探査を送信する.
+		// 同期周期毎に、ノードグループ毎に1件のランダムな接続先とチェックサムで同期する.
+		// 送信ペースの制御で中断した場合は、次回の実行で続きから送信する.
+		private final void executeGossip() throws IOException {
+			final Gossip g = gossip;
+			GossipRound r = gossipRound;
+			if(r == null) {
+				final long now = System.currentTimeMillis();
+				if(now <= nextProbeTime) {
+					// configが更新されている場合は、connect処理を実行.
+					if(config.isUpdate()) {
+						type = TYPE_CONNECT;
+					} else {
+						idle(Math.min(TIMEOUT, nextProbeTime - now + 1L));
+					}
+					return;
+				}
+				gossipRound = r = createGossipRound(g, now);
+			}
+			
+			// 集計した送信内容を順番に送信.
+			// 探査は送信時に登録して、送信ペースの制御で遅れた分だけ早く期限切れとならないようにする.
+			GossipSend s;
+			final int len = r.sends.size();
+			while(!stopFlag && r.pos < len) {
+				s = r.sends.get(r.pos);
+				if(s.type == GossipSend.PROBE && g.isProbe(s.nodeGroupName, s.addr)) {
+					r.pos ++;
+					continue;
+				}
+				// 送信ペースの制御.
+				// 中断する場合は、送信待ちのデータを送信しておく.
+				if(!pace()) {
+					existenceIO.flush(sendBuf);
+					return;
+				}
+				switch(s.type) {
+				case GossipSend.RELAY:
+					packGossip(s.conn, ExistenceIO.TYPE_PING, s.seq, s.target, s.addr);
+					break;
+				case GossipSend.PROBE:
+					packGossip(s.conn, ExistenceIO.TYPE_PING,
+						g.probe(s.nodeGroupName, s.addr, System.currentTimeMillis()), null, s.addr);
+					break;
+				case GossipSend.CHECKSUM:
+					packChecksum(s.nodeGroupName, r.element, s.conn.getConnectChecksum(), s.conn.getElement(s.addr), s.addr);
+					break;
+				}
+				r.pos ++;
+			}
+			gossipRound = null;
+			existenceIO.flush(sendBuf);
+			g.removeExpireRelay(r.now);
+			countSync(r.startNano);
 			
 			// configが更新されている場合は、connect処理を実行.
 			if(config.isUpdate()) {
@@ -312,178 +1486,100 @@ public class SpiderWeb {
 			}
 		}
 		
-		// 他のマシンからのコネクション情報を受信.
-		private final void executeReceiveConnect(InetAddress addr, SpiderWebElement em, String[] nodeGroupNames)
-			throws IOException {
-			// 現在のnodeGroupNamesのコネクションリストを取得して、
-			// 現在接続中の「IPリスト」や「マシン名」を返却.
-			final int len = nodeGroupNames.length;
-			for(int i = 0; !stopFlag && i < len; i ++) {
-				// ノードグループアドレスの更新.
-				updateNodeGroupAddress(nodeGroupNames[i], addr, em);
-				// 現在保持しているノードグループの接続管理一覧を送信する.
-				if(!sendConnectList(addr, nodeGroupNames[i])) {
-					// 接続管理一覧の件数が0件の場合は、success送信する.
-					// ただし自マシンには送信しない.
-					if(!ThisMachineAddress.eq(addr)) {
-						existenceIO.sendSuccess(sendBuf, nodeGroupNames[i], machineElement())
-							.send(sendBuf, addr);
+		// ゴシップ処理の送信内容を集計.
+		private final GossipRound createGossipRound(Gossip g, long now) throws IOException {
+			nextProbeTime = now + g.getProbeTime();
+			final long startNano = System.nanoTime();
+			final boolean sync = now > nextTime;
+			if(sync) {
+				nextTime = now + syncTime;
+			}
+			final List<GossipSend> sends = new ArrayList<GossipSend>();
+			
+			// 応答の無い探査は、他の接続先経由で間接探査を行う.
+			// 間接探査でも応答が無い場合は、接続先を削除して変更をゴシップで伝える.
+			final List<Gossip.Probe> timeout = g.timeout(now);
+			if(timeout != null) {
+				final int len = timeout.size();
+				for(int i = 0; !stopFlag && i < len; i ++) {
+					final Gossip.Probe p = timeout.get(i);
+					final ConnectList conn = connectNodeGroup.get(p.getNodeGroupName());
+					if(conn == null) {
+						continue;
+					}
+					if(p.isIndirect() && !g.isProbe(p.getNodeGroupName(), p.getAddress())) {
+						conn.remove(p.getAddress());
+						continue;
+					}
+					final List<String> relays = g.select(conn.getConnectAddress(), g.getFanout(), p.getAddress());
+					final int rlen = relays.size();
+					for(int j = 0; j < rlen; j ++) {
+						sends.add(new GossipSend(GossipSend.RELAY, p.getNodeGroupName(), conn, p.getSeq(),
+							p.getAddress(), relays.get(j)));
 					}
 				}
 			}
-		}
-		
-		// IPリストを受信.
-		private final void executeReceiveIpList(InetAddress addr, String nodeGroupName, SpiderWebElement em, int[] data)
-			throws IOException {
-			ConnectList conn = connectNodeGroup.get(nodeGroupName);
-			if(conn == null) {
-				conn = new ConnectList(nodeGroupName, expireTime);
-				connectNodeGroup.put(nodeGroupName, conn);
-			} else {
-				// 期限の過ぎた接続情報を削除.
+			
+			// ノードグループ毎に、ランダムな接続先へ探査を送信.
+			ConnectList conn;
+			String[] addrs;
+			List<String> targets;
+			final Iterator<Entry<String, ConnectList>> it = connectNodeGroup.entrySet().iterator();
+			while(!stopFlag && it.hasNext()) {
+				final Entry<String, ConnectList> e = it.next();
+				conn = e.getValue();
 				conn.removeExpire();
-			}
-			// ローカルIPの場合は、IPアドレスで保持.
-			// グローバルIPの場合は、マシン名で保持.
-			String s;
-			final int len = data.length;
-			for(int i = 0; !stopFlag && i < len; i ++) {
-				if(ConvIp4.isLocalIp(s = ConvIp4.ipToString(data[i]))) {
-					conn.putToNoUpdate(s, em);
-				} else {
-					conn.putToNoUpdate(InetAddress.getByName(s).getHostName(), em);
+				addrs = conn.getConnectAddress();
+				targets = g.select(addrs, g.getFanout(), null);
+				final int len = targets.size();
+				for(int i = 0; i < len; i ++) {
+					sends.add(new GossipSend(GossipSend.PROBE, e.getKey(), conn, 0, null, targets.get(i)));
 				}
-			}
-			// 送信先の情報が存在しない場合は、その接続先の情報も登録.
-			if(!conn.isInetAddressByUpdate(addr, em)) {
-				if(ConvIp4.isLocalIp(addr.getHostAddress())) {
-					conn.put(addr.getHostAddress(), em);
-				} else {
-					conn.put(addr.getHostName(), em);
+				// 取りこぼした変更を補うため、同期周期毎に1件の接続先とチェックサムで同期する.
+				if(sync && (targets = g.select(addrs, 1, null)).size() == 1) {
+					sends.add(new GossipSend(GossipSend.CHECKSUM, e.getKey(), conn, 0, null, targets.get(0)));
 				}
 			}
+			return new GossipRound(sends, machineElement(), now, startNano);
 		}
 		
-		// マシン名リストを受信.
-		private void executeReceiveMachineList(InetAddress addr, String nodeGroupName, SpiderWebElement em, String[] data)
-			throws IOException {
-			ConnectList conn = connectNodeGroup.get(nodeGroupName);
-			if(conn == null) {
-				conn = new ConnectList(nodeGroupName, expireTime);
-				connectNodeGroup.put(nodeGroupName, conn);
-			} else {
-				// 期限の過ぎた接続情報を削除.
-				conn.removeExpire();
-			}
-			// ローカルIPの場合は、IPアドレスで保持.
-			// グローバルIPの場合は、マシン名で保持.
-			InetAddress ia;
-			final int len = data.length;
-			for(int i = 0; !stopFlag && i < len; i ++) {
-				ia = InetAddress.getByName(data[i]);
-				if(ConvIp4.isLocalIp(ia.getHostAddress())) {
-					conn.putToNoUpdate(ia.getHostAddress(), em);
-				} else {
-					conn.putToNoUpdate(data[i], em);
-				}
-			}
-			// 送信先の情報が存在しない場合は、その接続先の情報も登録.
-			if(!conn.isInetAddressByUpdate(addr, em)) {
-				if(ConvIp4.isLocalIp(addr.getHostAddress())) {
-					conn.put(addr.getHostAddress(), em);
-				} else {
-					conn.put(addr.getHostName(), em);
-				}
+		// 各ノードグループの参照用スナップショットを、一定間隔で作り直す.
+		private final void refreshSnapshot() {
+			final long now = System.currentTimeMillis();
+			final Iterator<ConnectList> it = connectNodeGroup.values().iterator();
+			while(it.hasNext()) {
+				it.next().refreshSnapshot(now);
 			}
 		}
 		
-		// ノードの接続先同期チェックサムをチェック.
-		// 一致しない場合は、接続元の接続情報群を問い合わせする.
-		private void executeReceiveChecksum(InetAddress addr, String nodeGroupName, SpiderWebElement em, long data)
-			throws IOException {
-			// ノードグループアドレスの更新.
-			updateNodeGroupAddress(nodeGroupName, addr, em);
-			// コネクション情報が存在しない場合は、接続元の接続情報群を問合せ.
-			ConnectList conn = connectNodeGroup.get(nodeGroupName);
-			if(conn == null) {
-				// 自マシンには送信しない.
-				if(!ThisMachineAddress.eq(addr)) {
-					// 受信元に、コネクションデータの送信.
-					existenceIO.connectData(sendBuf, machineElement(), nodeGroupName)
-						.connect(sendBuf, addr);
-				}
-				return;
+		// チェックサムを送信.
+		// 接続先の変更履歴のバージョンを受け取っている場合のみ、バージョン付きチェックサムを送信する.
+		// 変更履歴に対応していない接続先は、バージョン付きチェックサムを破棄するので通常のチェックサムを送る.
+		private final void packChecksum(String nodeGroupName, SpiderWebElement em, long checksum,
+			ConnectElement ce, Object addr) throws IOException {
+			if(ce == null || ce.getLogVersion() == -1L) {
+				existenceIO.sendChecksumData(sendBuf, nodeGroupName, em, checksum).pack(sendBuf, addr);
 			} else {
-				// 期限の過ぎた接続情報を削除.
-				conn.removeExpire();
-			}
-			// チェックサムが一致しない場合は、ノードグループの接続管理一覧を送信.
-			if(conn.getConnectChecksum() != data) {
-				// ノードグループの接続管理一覧を送信.
-				if(!sendConnectList(addr, nodeGroupName)) {
-					// 送るデータが存在しない場合は、success送信処理する.
-					// ただし自マシンには送信しない.
-					if(!ThisMachineAddress.eq(addr)) {
-						existenceIO.sendSuccess(sendBuf, nodeGroupName, machineElement())
-							.send(sendBuf, addr);
-					}
-				}
-			// チェックサムが一致する場合は、successを返信.
-			// 自マシンには送信しない.
-			} else if(!ThisMachineAddress.eq(addr)) {
-				existenceIO.sendSuccess(sendBuf, nodeGroupName, machineElement())
-					.send(sendBuf, addr);
+				existenceIO.sendChecksumData(sendBuf, nodeGroupName, em, checksum,
+					ce.getLogEpoch(), ce.getLogVersion()).pack(sendBuf, addr);
 			}
 		}
 		
-		// 正常を示す情報を受信.
-		private void executeReceiveSuccess(InetAddress addr, String nodeGroupName, SpiderWebElement em) throws IOException {
-			updateNodeGroupAddress(nodeGroupName, addr, em);
+		// 同期処理の処理時間を集計.
+		private final void countSync(long startNano) {
+			final long time = System.nanoTime() - startNano;
+			syncCount.inc();
+			syncTotalTime.add(time);
+			syncMaxTime.max(time);
+			syncLastTime.set(time);
 		}
 		
-		// 指定Nodeの現在の接続情報を送信.
-		private final boolean sendConnectList(InetAddress addr, String nodeGroupName)
+		// ゴシップの探査、探査応答を送信.
+		private final void packGossip(ConnectList conn, byte type, int seq, String target, Object addr)
 			throws IOException {
-			// この処理は自マシンには送信しない.
-			if(ThisMachineAddress.eq(addr)) {
-				return true;
-			}
-			final ConnectList conn = connectNodeGroup.get(nodeGroupName);
-			if(conn == null || conn.isEmpty()) {
-				// 対象のノードグループに対する接続管理一覧が存在しない場合は
-				// falseを返却する.
-				return false;
-			}
-			List<Integer> ipList = null;
-			List<String> machineList = null;
-			final String[] connAddrs = conn.getConnectAddress();
-			final int len = connAddrs.length;
-			// このマシンが保持する、指定Nodeグループの接続情報群の送信準備をする.
-			for(int i = 0; !stopFlag && i < len; i ++) {
-				if(ConvIp4.isIp(connAddrs[i])) {
-					if(ipList == null) {
-						ipList = new ArrayList<Integer>();
-					}
-					ipList.add(ConvIp4.ipToInt(connAddrs[i]));
-				} else {
-					if(machineList == null) {
-						machineList = new ArrayList<String>();
-					}
-					machineList.add(connAddrs[i]);
-				}
-			}
-			// このマシンが保持する、指定NodeグループのローカルIPアドレス群の送信.
-			if(ipList != null) {
-				existenceIO.sendIPListData(sendBuf, nodeGroupName, machineElement(), ipList)
-					.send(sendBuf, addr);
-			}
-			// このマシンが保持する、指定Nodeのマシン名群の送信.
-			if(machineList != null) {
-				existenceIO.sendMachineListData(sendBuf, nodeGroupName, machineElement(), machineList)
-					.send(sendBuf, addr);
-			}
-			return true;
+			final List<ConnectLog.Entry> pb = conn.getPiggyback(Gossip.PIGGYBACK);
+			conn.sentPiggyback(pb, existenceIO.packGossip(sendBuf, type, conn.getNodeGroupName(),
+				machineElement(), seq, target, pb, addr));
 		}
 		
 		// 指定ノードグループのアドレスのコネクトリストを更新.
@@ -491,22 +1587,52 @@ public class SpiderWeb {
 			throws IOException {
 			ConnectList conn = connectNodeGroup.get(nodeGroupName);
 			if(conn == null) {
-				conn = new ConnectList(nodeGroupName, expireTime);
-				connectNodeGroup.put(nodeGroupName, conn);
+				conn = createConnectList(nodeGroupName);
 			} else {
 				// 期限の過ぎた接続情報を削除.
 				conn.removeExpire();
 			}
 			// 送信先の情報が存在しない場合は、その接続先の情報も登録.
 			if(!conn.isInetAddressByUpdate(addr, em)) {
-				if(ConvIp4.isLocalIp(addr.getHostAddress())) {
-					conn.put(addr.getHostAddress(), em);
-				} else {
-					conn.put(addr.getHostName(), em);
-				}
+				putAddress(conn, addr, em);
+			}
+		}
+		
+		// 送信先の情報を登録.
+		private final void putAddress(ConnectList conn, InetAddress addr, SpiderWebElement em) {
+			putAddress(conn, addr.getHostAddress(), em, true);
+		}
+		
+		// IPアドレスの接続先を登録.
+		// ローカルIPの場合はIPアドレス、グローバルIPの場合はマシン名で保持するが、
+		// マシン名が解決されていない場合は、解決されるまでIPアドレスで保持する.
+		private final void putAddress(ConnectList conn, String ip, SpiderWebElement em, boolean update) {
+			final boolean local = ConvIp4.isLocalIp(ip);
+			String name = local ? null : resolver.getHostName(ip);
+			if(name != null) {
+				ip = name;
+			}
+			if(update) {
+				conn.put(ip, em);
+			} else {
+				conn.putToNoUpdate(ip, em);
+			}
+			// 登録前に解決が完了していた場合は、ここで置き換える.
+			if(!local && name == null && (name = resolver.getHostName(ip)) != null) {
+				conn.rename(ip, name);
 			}
 		}
 		
+		// ノードグループのコネクトリストを作成.
+		// 他のスレッドで既に作成されている場合は、そちらを返却する.
+		private final ConnectList createConnectList(String nodeGroupName) {
+			final ConnectList conn = new ConnectList(nodeGroupName, expireTime, gossip != null);
+			conn.setNotify(connectNotify);
+			conn.setResolver(resolver);
+			final ConnectList ret = connectNodeGroup.putIfAbsent(nodeGroupName, conn);
+			return ret == null ? conn : ret;
+		}
+		
 		//  スリープ実行.
 		private static final void sleepTime(long time) {
 			try { Thread.sleep(time); } catch(Exception e) {}
@@ -615,6 +1741,35 @@ public class SpiderWeb {
 			}
 			return list.size();
 		}
+		
+		@Override
+		public SpiderWebSnapshot getSnapshot() {
+			if(list == null) {
+				return SpiderWebSnapshot.empty(nodeGroupName);
+			}
+			return list.getSnapshot();
+		}
+		
+		@Override
+		public String selectLeastLoaded(int status) {
+			final SpiderWebSnapshot s = getSnapshot();
+			final int no = s.selectLeastLoaded(status);
+			return no == -1 ? null : s.getAddress(no);
+		}
+		
+		@Override
+		public String selectTwoChoices(int status) {
+			final SpiderWebSnapshot s = getSnapshot();
+			final int no = s.selectTwoChoices(status);
+			return no == -1 ? null : s.getAddress(no);
+		}
+		
+		@Override
+		public String selectWeighted(int status) {
+			final SpiderWebSnapshot s = getSnapshot();
+			final int no = s.selectWeighted(status);
+			return no == -1 ? null : s.getAddress(no);
+		}
 	}
 	
 	// 文字列からlong変換.
@@ -693,34 +1848,173 @@ public class SpiderWeb {
 		final long expire = parseLong(""+opt.get("expire")); // 一定時間接続されていない場合の削除時間(ミリ秒単位).
 		final long sync = parseLong(""+opt.get("sync")); // 全ノードの同期を行う時間(ミリ秒単位).
 		final int port = parseInt(""+opt.get("port")); // バインドポート.
+		int receiveThreads = parseInt(""+opt.get("receiveThreads")); // 受信データの反映を行うワーカー数.
+		final int receiveQueue = parseInt(""+opt.get("receiveQueue")); // 受信ワーカー毎のキュー長.
+		final int sendRate = parseInt(""+opt.get("sendRate")); // 1秒間の送信パケット数.
+		final int sendBurst = parseInt(""+opt.get("sendBurst")); // 連続で送信可能なパケット数.
+		final int mtu = parseInt(""+opt.get("mtu")); // 複数メッセージをまとめる場合の1パケットの最大長.
+		final int fanout = parseInt(""+opt.get("fanout")); // ゴシップモードの1周期あたりの探査数.
+		final long probe = parseLong(""+opt.get("probe")); // ゴシップモードの探査周期(ミリ秒単位).
+		final int cpuThreshold = parseInt(""+opt.get("cpuThreshold")); // CPU利用率の変化を通知する閾値.
+		final int dnsCacheSize = parseInt(""+opt.get("dnsCacheSize")); // アドレス解決のキャッシュ数.
+		final long dnsTtl = parseLong(""+opt.get("dnsTtl")); // アドレス解決結果の保持時間(ミリ秒単位).
+		final long dnsNegativeTtl = parseLong(""+opt.get("dnsNegativeTtl")); // アドレス解決失敗の保持時間(ミリ秒単位).
+		final int machineNoMax = parseInt(""+opt.get("machineNoMax")); // 割り当てるマシンNoの最大値.
+		final long machineNoSettle = parseLong(""+opt.get("machineNoSettle")); // マシンNoの要求から確定までの時間(ミリ秒単位).
+		final long cpuSample = parseLong(""+opt.get("cpuSample")); // CPU負荷率の取得間隔(ミリ秒単位).
+		final int cluster = parseInt(""+opt.get("cluster")); // 通信ヘッダに付加するクラスタID.
+		
+		// 共有トランスポート.
+		// 設定されている場合は、バインドポートとアドレスの代わりに、共有トランスポートで送受信する.
+		final Object transportObject = opt.get("transport");
+		final SpiderWebTransport transport = (transportObject instanceof SpiderWebTransport) ?
+			(SpiderWebTransport)transportObject : null;
+		this.cluster = cluster < 0 ? 0 : cluster;
+		
+		// 拡張負荷情報の送信.
+		// "true"の場合は、CPU負荷情報に加えて、システム負荷平均、ヒープ使用率、GC停止時間、
+		// アプリケーションが設定した処理中の要求数、処理能力の重みを送信する.
+		this.loadVector = "true".equals(""+opt.get("loadVector"));
+		
+		// 接続情報の管理モード.
+		// "gossip"の場合は、全接続先と同期せずにゴシップで変更を伝える.
+		final Gossip gossip = "gossip".equals(opt.get("mode")) ? new Gossip(fanout, probe) : null;
+		
+		// 接続先変更の通知を実行する処理.
+		// 設定されていない場合は、通知先の登録時に専用スレッドを作成する.
+		final Object executorObject = opt.get("listenerExecutor");
+		connectNotify = new ConnectNotify((executorObject instanceof Executor) ? (Executor)executorObject : null,
+			cpuThreshold);
+		
+		// アドレス解決のキャッシュ.
+		// 解決された場合は、解決前のアドレスで登録されていた接続先を置き換える.
+		resolver = new AddressResolver(dnsCacheSize, dnsTtl, dnsNegativeTtl, new AddressResolver.Call() {
+			@Override
+			public void resolved(String addr, String result) {
+				// グローバルIPはマシン名に、マシン名はローカルIPの場合のみIPアドレスに置き換える.
+				if(ConvIp4.isIp(addr) ? ConvIp4.isLocalIp(addr) : !ConvIp4.isLocalIp(result)) {
+					return;
+				}
+				final Iterator<ConnectList> it = connectNodeGroup.values().iterator();
+				while(it.hasNext()) {
+					it.next().rename(addr, result);
+				}
+			}
+		});
+		
+		// マシンNoの割り当て.
+		// 接続先を取得するまで同期間隔分待ってから要求し、同期間隔の2倍の間競合が無ければ確定する.
+		final long syncTime = sync <= 0L ? SpiderWebConstants.SYNC_TIME : sync;
+		machineNoAllocator = new MachineNoAllocator(machineNo, machineNoTime, machineNoMax,
+			syncTime, machineNoSettle <= 0L ? syncTime << 1 : machineNoSettle, resolver);
 		
 		// バインドアドレス.
 		final String addr = opt.get("addr") == null ? null : "" + opt.get("addr");
 		
 		// カスタム受信実行処理.
-		final ExistenceReceiveCall call = opt.get("call") == null ? null : (ExistenceReceiveCall)opt.get("call");
+		// ExistenceReceiveBufferCallの場合は、受信バッファを直接参照して処理する.
+		final Object callObject = opt.get("call");
+		final ExistenceReceiveCall call = (callObject instanceof ExistenceReceiveCall) ?
+			(ExistenceReceiveCall)callObject : null;
+		final ExistenceReceiveBufferCall bufferCall = (callObject instanceof ExistenceReceiveBufferCall) ?
+			(ExistenceReceiveBufferCall)callObject : null;
 		
 		// 受信スレッド.
+		// 受信ワーカー数が設定されていない場合、または0の場合は、受信スレッドで反映する.
+		if(receiveThreads < 0) {
+			receiveThreads = 0;
+		}
 		final ExecuteThread r = new ExecuteThread(config, connectNodeGroup,
 				machineStatus, machineCpuLoad, machineNo, machineNoTime,
-				expire, port, addr == null ? null : InetAddress.getByName(addr));
+				expire, port, addr == null ? null : InetAddress.getByName(addr),
+				receiveThreads, receiveQueue);
 		
 		// コネクションスレッド.
 		final ExecuteThread c = new ExecuteThread(config, connectNodeGroup,
 				machineStatus, machineCpuLoad, machineNo, machineNoTime,
-				expire, sync, port, addr == null ? null : InetAddress.getByName(addr));
+				expire, sync, port, addr == null ? null : InetAddress.getByName(addr),
+				new SendScheduler(sendRate, sendBurst));
 		
 		// 受信スレッドにカスタム受信処理をセット.
 		// カスタム受信が存在する場合は、カスタム送信も有効にする.
 		r.setExistenceReceiveCall(call);
-		if(call != null) {
+		r.setExistenceReceiveBufferCall(bufferCall);
+		r.setMtu(mtu);
+		c.setMtu(mtu);
+		r.setGossip(gossip);
+		c.setGossip(gossip);
+		r.setNotify(connectNotify);
+		c.setNotify(connectNotify);
+		r.setResolver(resolver);
+		c.setResolver(resolver);
+		c.setMachineNoAllocator(machineNoAllocator);
+		r.setMachineLoad(machineLoad);
+		c.setMachineLoad(machineLoad);
+		r.setCluster(this.cluster);
+		c.setCluster(this.cluster);
+		r.setTransport(transport);
+		c.setTransport(transport);
+		r.setMetrics(existenceMetrics);
+		c.setMetrics(existenceMetrics);
+		
+		// 実行処理の実行方法.
+		// Executorが設定されている場合はそのExecutorで実行し、設定されていない場合は専用スレッドで実行する.
+		// ScheduledExecutorServiceの場合、コネクション、同期処理は待機中にスレッドを占有しない.
+		// 受信処理と受信ワーカーは実行中のスレッドを占有するので、Executorはその数以上のスレッドが必要.
+		// 専用スレッドは、"virtualThreads"が"true"で仮想スレッドが利用できる場合は仮想スレッドで作成する.
+		final Object runExecutor = opt.get("executor");
+		final ThreadFactory factory = "true".equals(""+opt.get("virtualThreads")) ?
+			VirtualThreads.factory("spiderweb-") : null;
+		r.setExecutor((runExecutor instanceof Executor) ? (Executor)runExecutor : null, factory);
+		c.setExecutor((runExecutor instanceof Executor) ? (Executor)runExecutor : null, factory);
+		
+		// CPU負荷率の定期取得.
+		// 10秒の移動平均を、このマシンのCPU情報とする.
+		// 拡張負荷情報を送信する場合は、取得毎に拡張負荷情報を作り直す.
+		cpuLoadSampler = new CpuLoadSampler(cpuSample, machineCpuLoad, loadVector, loadVector ? new Runnable() {
+			@Override
+			public void run() {
+				updateLoad();
+			}
+		} : null);
+		cpuLoadSampler.start((runExecutor instanceof ScheduledExecutorService) ?
+			(ScheduledExecutorService)runExecutor : null, factory);
+		if(call != null || bufferCall != null) {
 			customSend = new ExistenceIO();
 			customSend.setPort(port, addr == null ? null : InetAddress.getByName(addr));
+			customSend.setCluster(this.cluster);
+			customSend.setMetrics(existenceMetrics);
+			if(transport != null) {
+				transport.share(customSend);
+			}
 			customSendBuffer = new SendBuffer(SendBuffer.TYPE_SEND);
 		}
 		
+		// 受信処理のバインド、または共有トランスポートへの登録.
+		try {
+			r.open();
+			c.open();
+		} catch(IOException e) {
+			cpuLoadSampler.close();
+			resolver.close();
+			connectNotify.close();
+			if(customSend != null) {
+				customSend.close();
+			}
+			throw e;
+		}
+		
 		this.recvThread = r;
 		this.connectThread = c;
+		
+		// メトリクスのJMXへの公開.
+		// "jmx"が"false"の場合は公開しない.
+		metrics = new SpiderWebMetrics(this, transport != null ? transport.getPort() :
+			(port <= 0 ? SpiderWebConstants.PORT : port), existenceMetrics, connectNodeGroup, resolver);
+		if(!"false".equals(""+opt.get("jmx"))) {
+			metrics.register();
+		}
+		
 		if(!recvThread.isStartThread() && !connectThread.isStartThread()) {
 			recvThread.startThread();
 			connectThread.startThread();
@@ -733,7 +2027,14 @@ public class SpiderWeb {
 	public void close() {
 		recvThread.stopThread();
 		connectThread.stopThread();
+		metrics.unregister();
 		connectNodeGroup.clear();
+		connectNotify.close();
+		resolver.close();
+		cpuLoadSampler.close();
+		if(customSend != null) {
+			customSend.close();
+		}
 		customSend = null;
 		customSendBuffer = null;
 	}
@@ -750,6 +2051,67 @@ public class SpiderWeb {
 		return new SpiderWebListImpl(nodeGroupName);
 	}
 	
+	/**
+	 * 接続先変更の通知先を追加.
+	 * 接続先の追加、期限切れ、削除、ステータス変更、一定以上のCPU利用率の変化が、
+	 * ノードグループ、接続先単位で通知されます.
+	 * @param l
+	 */
+	public void addListener(SpiderWebListener l) {
+		connectNotify.addListener(l);
+	}
+	
+	/**
+	 * 接続先変更の通知先を削除.
+	 * @param l
+	 */
+	public void removeListener(SpiderWebListener l) {
+		connectNotify.removeListener(l);
+	}
+	
+	/**
+	 * 指定Nodeグループ名の接続先一覧のスナップショットを取得.
+	 * @param nodeGroupName
+	 * @return
+	 */
+	public SpiderWebSnapshot getSnapshot(String nodeGroupName) {
+		final ConnectList list = connectNodeGroup.get(nodeGroupName);
+		if(list == null) {
+			return SpiderWebSnapshot.empty(nodeGroupName);
+		}
+		return list.getSnapshot();
+	}
+	
+	/**
+	 * 指定Nodeグループで、キーを担当する接続先を取得.
+	 * 担当先はコンシステントハッシュで求めるので、接続先の増減で担当が変わるキーは一部のみとなります.
+	 * @param nodeGroupName
+	 * @param key
+	 * @return String 接続先が存在しない場合は[null]が返却されます.
+	 */
+	public String owner(String nodeGroupName, String key) {
+		final ConnectList list = connectNodeGroup.get(nodeGroupName);
+		if(list == null) {
+			return null;
+		}
+		return list.owner(key);
+	}
+	
+	/**
+	 * 指定Nodeグループで、キーを担当する接続先を優先順に指定数取得.
+	 * @param nodeGroupName
+	 * @param key
+	 * @param n
+	 * @return String[] 接続先数が指定数より少ない場合は、全接続先が返却されます.
+	 */
+	public String[] owners(String nodeGroupName, String key, int n) {
+		final ConnectList list = connectNodeGroup.get(nodeGroupName);
+		if(list == null) {
+			return new String[0];
+		}
+		return list.owners(key, n);
+	}
+	
 	/**
 	 * 指定Nodeグループ名が存在するかチェック.
 	 * @param nodeGroupName
@@ -787,6 +2149,25 @@ public class SpiderWeb {
 		return connectThread.getType();
 	}
 	
+	/**
+	 * 送信ペース制御を取得.
+	 * 送信待ちの回数や時間を確認できます.
+	 * @return
+	 */
+	public SendScheduler getSendScheduler() {
+		return connectThread.getSendScheduler();
+	}
+	
+	/**
+	 * 送信パケット数の上限がボトルネックかチェック.
+	 * 直近の同期処理が、送信待ちにより同期間隔内に終わらなかった場合は[true]が返却されます.
+	 * この場合は[sendRate]オプションの値を大きくする事を検討してください.
+	 * @return
+	 */
+	public boolean isSendBottleneck() {
+		return connectThread.isSendBottleneck();
+	}
+	
 	/**
 	 * このマシンのステータスを設定.
 	 * @param status
@@ -804,13 +2185,210 @@ public class SpiderWeb {
 	}
 	
 	/**
-	 * 現在のCPU平均を取得.
+	 * 現在のCPU平均(10秒の移動平均)を取得.
 	 * @return int cpu負荷率の平均が返却されます.
 	 */
 	public int getCpuLoad() {
 		return this.machineCpuLoad.get();
 	}
 	
+	/**
+	 * CPU負荷率の1秒の移動平均を取得.
+	 * @return double 取得していない場合は[-1]が返却されます.
+	 */
+	public double getCpuLoad1() {
+		return cpuLoadSampler.getLoad1();
+	}
+	
+	/**
+	 * CPU負荷率の10秒の移動平均を取得.
+	 * getCpuLoad() と同じ値を、小数で返却します.
+	 * @return double 取得していない場合は[-1]が返却されます.
+	 */
+	public double getCpuLoad10() {
+		return cpuLoadSampler.getLoad10();
+	}
+	
+	/**
+	 * CPU負荷率の60秒の移動平均を取得.
+	 * @return double 取得していない場合は[-1]が返却されます.
+	 */
+	public double getCpuLoad60() {
+		return cpuLoadSampler.getLoad60();
+	}
+	
+	/**
+	 * このマシンの拡張負荷情報を取得.
+	 * @return SpiderWebLoad "loadVector"が"true"でない場合は[null]が返却されます.
+	 */
+	public SpiderWebLoad getLoad() {
+		return machineLoad.get();
+	}
+	
+	/**
+	 * このマシンの処理中の要求数を設定.
+	 * 拡張負荷情報で送信され、接続先の選択で負荷が同じ場合の優先順に利用されます.
+	 * @param inflight 処理中の要求数を設定します. 0未満の場合は送信しません.
+	 */
+	public void setInflight(int inflight) {
+		machineInflight.set(inflight < 0 ? SpiderWebLoad.NONE : inflight);
+		updateLoad();
+	}
+	
+	/**
+	 * このマシンの処理中の要求数を取得.
+	 * @return int 設定されていない場合は[-1]が返却されます.
+	 */
+	public int getInflight() {
+		return machineInflight.get();
+	}
+	
+	/**
+	 * このマシンの処理能力の重みを設定.
+	 * 拡張負荷情報で送信され、接続先の重み付き選択に利用されます.
+	 * @param weight 処理能力の重み(100が標準)を設定します. 0未満の場合は送信しません.
+	 */
+	public void setCapacityWeight(int weight) {
+		machineWeight.set(weight < 0 ? SpiderWebLoad.NONE : weight);
+		updateLoad();
+	}
+	
+	/**
+	 * このマシンの処理能力の重みを取得.
+	 * @return int 設定されていない場合は[-1]が返却されます.
+	 */
+	public int getCapacityWeight() {
+		return machineWeight.get();
+	}
+	
+	/**
+	 * 受信ワーカーに渡した受信データ数を取得.
+	 * @return
+	 */
+	public long getReceiveEnqueued() {
+		return recvThread.receiveEnqueued.get();
+	}
+	
+	/**
+	 * 受信ワーカーのキューが一杯で破棄した受信データ数を取得.
+	 * カスタムデータの破棄数も含まれます.
+	 * @return
+	 */
+	public long getReceiveDropped() {
+		return recvThread.receiveDropped.get();
+	}
+	
+	/**
+	 * 受信ワーカーのキューが一杯で破棄したカスタムデータ数を取得.
+	 * @return
+	 */
+	public long getReceiveAppDropped() {
+		return recvThread.receiveAppDropped.get();
+	}
+	
+	/**
+	 * 受信ワーカーのキュー長の最大値を取得.
+	 * @return
+	 */
+	public long getReceiveQueueHighWater() {
+		return recvThread.receiveHighWater.get();
+	}
+	
+	/**
+	 * 受信ワーカーのキューに残っている受信データ数を取得.
+	 * @return
+	 */
+	public int getReceiveQueueDepth() {
+		return recvThread.getReceiveQueueDepth();
+	}
+	
+	/**
+	 * 同期処理の実行回数を取得.
+	 * ゴシップモードの場合は、探査周期毎の処理の実行回数となります.
+	 * @return
+	 */
+	public long getSyncCount() {
+		return connectThread.syncCount.get();
+	}
+	
+	/**
+	 * 同期処理の処理時間の合計をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getSyncTime() {
+		return connectThread.syncTotalTime.get() / 1000000L;
+	}
+	
+	/**
+	 * 同期処理の処理時間の最大値をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getSyncMaxTime() {
+		return connectThread.syncMaxTime.get() / 1000000L;
+	}
+	
+	/**
+	 * 直近の同期処理の処理時間をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getSyncLastTime() {
+		return connectThread.syncLastTime.get() / 1000000L;
+	}
+	
+	/**
+	 * メトリクスを取得.
+	 * 送受信数、同期処理時間、ノードグループ毎のチェックサム不一致数などを参照できます.
+	 * 同じ内容は、JMXの[spiderweb:type=SpiderWeb,port=ポート,cluster=クラスタID]でも公開されます.
+	 * @return
+	 */
+	public SpiderWebMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * 通信ヘッダに付加するクラスタIDを取得.
+	 * @return int クラスタIDを付加しない場合は[0]が返却されます.
+	 */
+	public int getCluster() {
+		return cluster;
+	}
+	
+	/**
+	 * このマシンのマシンNoを取得.
+	 * @return int マシンNoが確定していない場合は[-1]が返却されます.
+	 */
+	public int getMachineNo() {
+		return machineNoAllocator.getMachineNo();
+	}
+	
+	/**
+	 * このマシンのマシンNoの時間を取得.
+	 * 同じマシンNoが競合した場合は、この時間が早いマシンが優先されます.
+	 * @return long マシンNoを要求していない場合は[-1]が返却されます.
+	 */
+	public long getMachineNoTime() {
+		return machineNoTime.get();
+	}
+	
+	/**
+	 * このマシンのマシンNoが確定するまで待機.
+	 * @param timeout 待機時間をミリ秒単位で設定します. 0以下の場合は確定するまで待機します.
+	 * @return int 時間内に確定しなかった場合は[-1]が返却されます.
+	 * @exception InterruptedException
+	 */
+	public int awaitMachineNo(long timeout) throws InterruptedException {
+		return machineNoAllocator.await(timeout);
+	}
+	
+	/**
+	 * このマシンのマシンNoの確定を通知するFutureを取得.
+	 * 確定後に他マシンとの競合で解放された場合は、次の確定を通知するFutureに切り替わります.
+	 * @return
+	 */
+	public CompletableFuture<Integer> getMachineNoFuture() {
+		return machineNoAllocator.getFuture();
+	}
+	
 	/**
 	 * このマシンのアドレスかチェック.
 	 * @param addr 対象のアドレスを設定します.
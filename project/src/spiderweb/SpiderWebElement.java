@@ -14,6 +14,14 @@ public class SpiderWebElement {
 	private int machineNo;
 	// この情報のマシンNoが確定した時の時間.
 	private long machineNoTime;
+	// この情報の拡張負荷情報.
+	private SpiderWebLoad load;
+	
+	// 拡張負荷情報が付加されていることを示す、CPU負荷情報のビット.
+	// CPU負荷情報が未設定(0xff)の場合は、付加されていない.
+	private static final int LOAD_FLAG = 0x80;
+	private static final int CPU_MASK = 0x7f;
+	private static final int CPU_NONE = 0xff;
 	
 	/**
 	 * コンストラクタ.
@@ -36,6 +44,19 @@ public class SpiderWebElement {
 		this.machineNoTime = machineNoTime;
 	}
 	
+	/**
+	 * コンストラクタ.
+	 * @param status ステータス情報.
+	 * @param cpuLoad CPU負荷情報.
+	 * @param machineNo マシンNo.
+	 * @param machineNoTime マシンNoが確定した時の時間.
+	 * @param load 拡張負荷情報.
+	 */
+	public SpiderWebElement(int status, int cpuLoad, int machineNo, long machineNoTime, SpiderWebLoad load) {
+		this(status, cpuLoad, machineNo, machineNoTime);
+		this.load = load;
+	}
+	
 	/**
 	 * 情報クリア.
 	 * @return
@@ -45,11 +66,13 @@ public class SpiderWebElement {
 		this.cpuLoad = -1;
 		this.machineNo = -1;
 		this.machineNoTime = -1L;
+		this.load = null;
 		return this;
 	}
 	
 	/**
 	 * 情報設定.
+	 * 拡張負荷情報はクリアされます.
 	 * @param status ステータス情報.
 	 * @param cpuLoad CPU負荷情報.
 	 * @param machineNo マシンNo.
@@ -57,10 +80,24 @@ public class SpiderWebElement {
 	 * @return
 	 */
 	public SpiderWebElement set(int status, int cpuLoad, int machineNo, long machineNoTime) {
+		return set(status, cpuLoad, machineNo, machineNoTime, null);
+	}
+	
+	/**
+	 * 情報設定.
+	 * @param status ステータス情報.
+	 * @param cpuLoad CPU負荷情報.
+	 * @param machineNo マシンNo.
+	 * @param machineNoTime マシンNoが確定した時の時間.
+	 * @param load 拡張負荷情報.
+	 * @return
+	 */
+	public SpiderWebElement set(int status, int cpuLoad, int machineNo, long machineNoTime, SpiderWebLoad load) {
 		this.status = status;
 		this.cpuLoad = cpuLoad;
 		this.machineNo = machineNo;
 		this.machineNoTime = machineNoTime;
+		this.load = load;
 		return this;
 	}
 	
@@ -136,8 +173,27 @@ public class SpiderWebElement {
 		return this;
 	}
 	
+	/**
+	 * 拡張負荷情報を取得.
+	 * @return SpiderWebLoad 付加されていない場合は[null]が返却されます.
+	 */
+	public SpiderWebLoad getLoad() {
+		return load;
+	}
+	
+	/**
+	 * 拡張負荷情報を設定.
+	 * @param load
+	 * @return
+	 */
+	public SpiderWebElement setLoad(SpiderWebLoad load) {
+		this.load = load;
+		return this;
+	}
+	
 	/**
 	 * SpiderWebElementをバイナリに変換.
+	 * 拡張負荷情報が付加されている場合は、CPU負荷情報の上位ビットを立てて末尾に付加します.
 	 * @param out 出力先のバイナリを設定します.
 	 * @param off オフセット値を設定します.
 	 * @param e SpiderWebElementを設定します.
@@ -146,9 +202,17 @@ public class SpiderWebElement {
 	public static final int encodeBinary(byte[] out, int off, SpiderWebElement e) {
 		int o = off;
 		o = BinaryEd.setInt(out, o, e.status);
-		o = BinaryEd.setByte(out, o, e.cpuLoad);
+		if(e.load == null) {
+			o = BinaryEd.setByte(out, o, e.cpuLoad);
+		} else {
+			// 未設定と区別するため、付加する場合のCPU負荷情報は0から126とする.
+			o = BinaryEd.setByte(out, o, LOAD_FLAG | Math.max(0, Math.min(CPU_MASK - 1, e.cpuLoad)));
+		}
 		o = BinaryEd.setInt(out, o, e.machineNo);
 		o = BinaryEd.setLong(out, o, e.machineNoTime);
+		if(e.load != null) {
+			o += SpiderWebLoad.encodeBinary(out, o, e.load);
+		}
 		return o - off;
 	}
 	
@@ -162,9 +226,12 @@ public class SpiderWebElement {
 	public static final int decodeBinary(SpiderWebElement out, byte[] bin, int[] off) {
 		int o = off[0];
 		out.status = BinaryEd.getInt(bin, off);
-		out.cpuLoad = BinaryEd.getByte(bin, off);
+		final int cpu = BinaryEd.getByte(bin, off);
+		final boolean load = cpu != CPU_NONE && (cpu & LOAD_FLAG) != 0;
+		out.cpuLoad = load ? (cpu & CPU_MASK) : cpu;
 		out.machineNo = BinaryEd.getInt(bin, off);
 		out.machineNoTime = BinaryEd.getLong(bin, off);
+		out.load = load ? SpiderWebLoad.decodeBinary(bin, off) : null;
 		return off[0] - o;
 	}
 }
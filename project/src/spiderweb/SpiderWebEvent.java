@@ -0,0 +1,125 @@
+package spiderweb;
+
+/**
+ * spiderweb用接続先変更イベント.
+ */
+public final class SpiderWebEvent {
+	/** 接続先が追加された. **/
+	public static final int TYPE_JOIN = 1;
+	
+	/** 接続先が一定時間接続されず、期限切れとなった. **/
+	public static final int TYPE_EXPIRE = 2;
+	
+	/** 接続先が削除された. **/
+	public static final int TYPE_REMOVE = 3;
+	
+	/** 接続先のステータス、マシンNoが変更された. **/
+	public static final int TYPE_STATUS = 4;
+	
+	/** 接続先のCPU利用率が一定以上変化した. **/
+	public static final int TYPE_CPU = 5;
+	
+	private final int type;
+	private final String nodeGroupName;
+	private final String addr;
+	private final int status;
+	private final int cpuLoad;
+	private final int machineNo;
+	private final long machineNoTime;
+	private final long time;
+	
+	/**
+	 * コンストラクタ.
+	 * @param type イベントタイプ.
+	 * @param nodeGroupName ノードグループ名.
+	 * @param addr 接続先アドレス.
+	 * @param status ステータス情報.
+	 * @param cpuLoad CPU負荷情報.
+	 * @param machineNo マシンNo.
+	 * @param machineNoTime マシンNoが確定した時の時間.
+	 * @param time イベント発生時間.
+	 */
+	public SpiderWebEvent(int type, String nodeGroupName, String addr, int status, int cpuLoad,
+		int machineNo, long machineNoTime, long time) {
+		this.type = type;
+		this.nodeGroupName = nodeGroupName;
+		this.addr = addr;
+		this.status = status;
+		this.cpuLoad = cpuLoad;
+		this.machineNo = machineNo;
+		this.machineNoTime = machineNoTime;
+		this.time = time;
+	}
+	
+	/**
+	 * イベントタイプを取得.
+	 * @return
+	 */
+	public int getType() {
+		return type;
+	}
+	
+	/**
+	 * 追加、期限切れ、削除のいずれかかチェック.
+	 * @return
+	 */
+	public boolean isMembership() {
+		return type == TYPE_JOIN || type == TYPE_EXPIRE || type == TYPE_REMOVE;
+	}
+	
+	/**
+	 * ノードグループ名を取得.
+	 * @return
+	 */
+	public String getNodeGroupName() {
+		return nodeGroupName;
+	}
+	
+	/**
+	 * 接続先アドレスを取得.
+	 * @return
+	 */
+	public String getAddress() {
+		return addr;
+	}
+	
+	/**
+	 * ステータス情報を取得.
+	 * @return
+	 */
+	public int getStatus() {
+		return status;
+	}
+	
+	/**
+	 * CPU負荷情報を取得.
+	 * @return
+	 */
+	public int getCpuLoad() {
+		return cpuLoad;
+	}
+	
+	/**
+	 * マシンNoを取得.
+	 * @return
+	 */
+	public int getMachineNo() {
+		return machineNo;
+	}
+	
+	/**
+	 * マシンNoが確定した時の時間を取得.
+	 * @return
+	 */
+	public long getMachineNoTime() {
+		return machineNoTime;
+	}
+	
+	/**
+	 * イベント発生時間を取得.
+	 * @return
+	 */
+	public long getTime() {
+		return time;
+	}
+}
@@ -77,4 +77,31 @@ public interface SpiderWebList {
 	 * @return
 	 */
 	public boolean isEmpty();
+	
+	/**
+	 * 現状の接続先一覧のスナップショットを取得.
+	 * @return
+	 */
+	public SpiderWebSnapshot getSnapshot();
+	
+	/**
+	 * CPU利用率が最も低い接続先を選択.
+	 * @param status 対象のステータスを設定します. [SpiderWebSnapshot.ANY_STATUS]の場合は全接続先が対象となります.
+	 * @return String 対象の接続先が存在しない場合は[null]が返却されます.
+	 */
+	public String selectLeastLoaded(int status);
+	
+	/**
+	 * ランダムに2件選択し、CPU利用率が低い方の接続先を選択.
+	 * @param status 対象のステータスを設定します. [SpiderWebSnapshot.ANY_STATUS]の場合は全接続先が対象となります.
+	 * @return String 対象の接続先が存在しない場合は[null]が返却されます.
+	 */
+	public String selectTwoChoices(int status);
+	
+	/**
+	 * CPU利用率が低いほど選ばれやすい重み付けで、ランダムに接続先を選択.
+	 * @param status 対象のステータスを設定します. [SpiderWebSnapshot.ANY_STATUS]の場合は全接続先が対象となります.
+	 * @return String 対象の接続先が存在しない場合は[null]が返却されます.
+	 */
+	public String selectWeighted(int status);
 }
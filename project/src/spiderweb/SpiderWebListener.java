@@ -0,0 +1,15 @@
+package spiderweb;
+
+/**
+ * spiderweb用接続先変更通知.
+ */
+public interface SpiderWebListener {
+	
+	/**
+	 * 接続先の変更を通知.
+	 * 通知は登録時に指定した実行処理で呼び出されます.
+	 * 短時間に同一接続先の変更が続いた場合は、最新の状態にまとめて通知されます.
+	 * @param event
+	 */
+	public void onEvent(SpiderWebEvent event);
+}
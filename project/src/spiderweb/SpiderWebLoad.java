@@ -0,0 +1,183 @@
+package spiderweb;
+
+import spiderweb.utils.BinaryEd;
+
+/**
+ * spiderweb要素の拡張負荷情報.
+ * CPU負荷情報以外の負荷情報を保持し、作成後は変更されません.
+ * 各情報は設定されている場合のみ、可変長で送信されます.
+ * バイナリは[設定ビット][情報長][情報...]の形式で、未知の情報は情報長で読み飛ばします.
+ */
+public final class SpiderWebLoad {
+	/** 情報が設定されていない. **/
+	public static final int NONE = -1;
+
+	// 設定されている情報のビット.
+	private static final int BIT_LOAD_AVERAGE = 0x01;
+	private static final int BIT_HEAP_USED = 0x02;
+	private static final int BIT_GC_PAUSE = 0x04;
+	private static final int BIT_INFLIGHT = 0x08;
+	private static final int BIT_WEIGHT = 0x10;
+
+	// 負荷率の最大値.
+	private static final int MAX_LOAD = 100;
+
+	// CPU1個あたりのシステム負荷平均(100倍値).
+	private final int loadAverage;
+	// ヒープの使用率.
+	private final int heapUsed;
+	// 直近1秒あたりのGC停止時間(ミリ秒).
+	private final int gcPause;
+	// アプリケーションが設定した処理中の要求数.
+	private final int inflight;
+	// アプリケーションが設定した処理能力の重み(100が標準).
+	private final int weight;
+
+	/**
+	 * コンストラクタ.
+	 * 設定しない情報は[NONE]を設定します.
+	 * @param loadAverage CPU1個あたりのシステム負荷平均(100倍値).
+	 * @param heapUsed ヒープの使用率.
+	 * @param gcPause 直近1秒あたりのGC停止時間(ミリ秒).
+	 * @param inflight 処理中の要求数.
+	 * @param weight 処理能力の重み(100が標準).
+	 */
+	public SpiderWebLoad(int loadAverage, int heapUsed, int gcPause, int inflight, int weight) {
+		this.loadAverage = loadAverage < 0 ? NONE : loadAverage;
+		this.heapUsed = heapUsed < 0 ? NONE : heapUsed;
+		this.gcPause = gcPause < 0 ? NONE : gcPause;
+		this.inflight = inflight < 0 ? NONE : inflight;
+		this.weight = weight < 0 ? NONE : weight;
+	}
+
+	/**
+	 * CPU1個あたりのシステム負荷平均(100倍値)を取得.
+	 * @return int 設定されていない場合は[NONE]が返却されます.
+	 */
+	public int getLoadAverage() {
+		return loadAverage;
+	}
+
+	/**
+	 * ヒープの使用率を取得.
+	 * @return int 設定されていない場合は[NONE]が返却されます.
+	 */
+	public int getHeapUsed() {
+		return heapUsed;
+	}
+
+	/**
+	 * 直近1秒あたりのGC停止時間(ミリ秒)を取得.
+	 * @return int 設定されていない場合は[NONE]が返却されます.
+	 */
+	public int getGcPause() {
+		return gcPause;
+	}
+
+	/**
+	 * 処理中の要求数を取得.
+	 * @return int 設定されていない場合は[NONE]が返却されます.
+	 */
+	public int getInflight() {
+		return inflight;
+	}
+
+	/**
+	 * 処理能力の重みを取得.
+	 * @return int 設定されていない場合は[NONE]が返却されます.
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * CPU負荷情報と合わせた、実効負荷率を取得.
+	 * CPU負荷率、CPU1個あたりのシステム負荷平均、ヒープ使用率、GC停止時間の割合の最大値となります.
+	 * @param cpuLoad CPU負荷情報を設定します.
+	 * @return int 0から100の値が返却されます.
+	 */
+	public int getEffectiveLoad(int cpuLoad) {
+		int ret = cpuLoad;
+		ret = Math.max(ret, loadAverage);
+		ret = Math.max(ret, heapUsed);
+		if(gcPause != NONE) {
+			// 1秒あたりの停止時間を割合とする.
+			ret = Math.max(ret, gcPause / 10);
+		}
+		return Math.max(0, Math.min(MAX_LOAD, ret));
+	}
+
+	/**
+	 * 内容が同じかチェック.
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static final boolean equals(SpiderWebLoad a, SpiderWebLoad b) {
+		if(a == b) {
+			return true;
+		} else if(a == null || b == null) {
+			return false;
+		}
+		return a.loadAverage == b.loadAverage && a.heapUsed == b.heapUsed && a.gcPause == b.gcPause &&
+			a.inflight == b.inflight && a.weight == b.weight;
+	}
+
+	/** 最大のバイナリ長(設定ビット + 情報長 + 5バイト * 5項目). **/
+	public static final int MAX_LENGTH = 27;
+
+	/**
+	 * SpiderWebLoadをバイナリに変換.
+	 * @param out 出力先のバイナリを設定します.
+	 * @param off オフセット値を設定します.
+	 * @param l SpiderWebLoadを設定します.
+	 * @return int 書き込まれたバイナリ長が返却されます.
+	 */
+	public static final int encodeBinary(byte[] out, int off, SpiderWebLoad l) {
+		int o = off;
+		final int bits = (l.loadAverage == NONE ? 0 : BIT_LOAD_AVERAGE) |
+			(l.heapUsed == NONE ? 0 : BIT_HEAP_USED) |
+			(l.gcPause == NONE ? 0 : BIT_GC_PAUSE) |
+			(l.inflight == NONE ? 0 : BIT_INFLIGHT) |
+			(l.weight == NONE ? 0 : BIT_WEIGHT);
+		o = BinaryEd.setByte(out, o, bits);
+		final int lenPos = o ++;
+		if((bits & BIT_LOAD_AVERAGE) != 0) {
+			o = BinaryEd.setInt(out, o, l.loadAverage);
+		}
+		if((bits & BIT_HEAP_USED) != 0) {
+			o = BinaryEd.setInt(out, o, l.heapUsed);
+		}
+		if((bits & BIT_GC_PAUSE) != 0) {
+			o = BinaryEd.setInt(out, o, l.gcPause);
+		}
+		if((bits & BIT_INFLIGHT) != 0) {
+			o = BinaryEd.setInt(out, o, l.inflight);
+		}
+		if((bits & BIT_WEIGHT) != 0) {
+			o = BinaryEd.setInt(out, o, l.weight);
+		}
+		BinaryEd.setByte(out, lenPos, o - lenPos - 1);
+		return o - off;
+	}
+
+	/**
+	 * バイナリからSpiderWebLoadをデコード.
+	 * @param bin 対象のバイナリを設定します.
+	 * @param off オフセット値を設定します.
+	 * @return SpiderWebLoad
+	 */
+	public static final SpiderWebLoad decodeBinary(byte[] bin, int[] off) {
+		final int bits = BinaryEd.getByte(bin, off);
+		final int len = BinaryEd.getByte(bin, off);
+		final int end = off[0] + len;
+		final int loadAverage = (bits & BIT_LOAD_AVERAGE) != 0 ? BinaryEd.getInt(bin, off) : NONE;
+		final int heapUsed = (bits & BIT_HEAP_USED) != 0 ? BinaryEd.getInt(bin, off) : NONE;
+		final int gcPause = (bits & BIT_GC_PAUSE) != 0 ? BinaryEd.getInt(bin, off) : NONE;
+		final int inflight = (bits & BIT_INFLIGHT) != 0 ? BinaryEd.getInt(bin, off) : NONE;
+		final int weight = (bits & BIT_WEIGHT) != 0 ? BinaryEd.getInt(bin, off) : NONE;
+		// 未知の情報は読み飛ばす.
+		off[0] = end;
+		return new SpiderWebLoad(loadAverage, heapUsed, gcPause, inflight, weight);
+	}
+}
@@ -0,0 +1,285 @@
+package spiderweb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import spiderweb.net.AddressResolver;
+import spiderweb.net.ConnectList;
+import spiderweb.net.ExistenceMetrics;
+
+/**
+ * spiderwebのメトリクス.
+ * 送受信、受信ワーカー、同期処理、ノードグループ、アドレス解決の集計値をまとめて参照します.
+ * 集計は各処理で行われているので、参照時に集計値を読み出すだけで処理には影響しません.
+ * 共有トランスポートを利用している場合、パケット単位の受信数と受信エラーは
+ * SpiderWebTransport.getMetrics で参照します.
+ */
+public class SpiderWebMetrics implements SpiderWebMetricsMXBean {
+	private final SpiderWeb web;
+	private final int port;
+	private final ExistenceMetrics existence;
+	private final Map<String, ConnectList> connectNodeGroup;
+	private final AddressResolver resolver;
+
+	// JMXの登録名.
+	// 登録していない場合は[null].
+	private ObjectName name = null;
+
+	// ノードグループ毎の集計値の取得.
+	private static interface GroupValue {
+		long get(ConnectList list);
+	}
+
+	// コンストラクタ.
+	SpiderWebMetrics(SpiderWeb web, int port, ExistenceMetrics existence,
+		Map<String, ConnectList> connectNodeGroup, AddressResolver resolver) {
+		this.web = web;
+		this.port = port;
+		this.existence = existence;
+		this.connectNodeGroup = connectNodeGroup;
+		this.resolver = resolver;
+	}
+
+	// プラットフォームのMBeanServerに登録.
+	// 登録できない場合は、JMXで公開しない.
+	final synchronized void register() {
+		if(name != null) {
+			return;
+		}
+		try {
+			final ObjectName n = new ObjectName("spiderweb:type=SpiderWeb,port=" + port +
+				",cluster=" + web.getCluster());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, n);
+			name = n;
+		} catch(Exception e) {
+			if(SpiderWebConstants.DEBUG_FLAG) {
+				e.printStackTrace();
+				System.out.println();
+			}
+		}
+	}
+
+	// MBeanServerの登録を解除.
+	final synchronized void unregister() {
+		if(name == null) {
+			return;
+		}
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch(Exception e) {
+			if(SpiderWebConstants.DEBUG_FLAG) {
+				e.printStackTrace();
+				System.out.println();
+			}
+		}
+		name = null;
+	}
+
+	/**
+	 * JMXの登録名を取得.
+	 * @return ObjectName JMXで公開していない場合は[null]が返却されます.
+	 */
+	public synchronized ObjectName getObjectName() {
+		return name;
+	}
+
+	// ノードグループ毎の集計値を取得.
+	private final Map<String, Long> toMap(GroupValue v) {
+		final Map<String, Long> ret = new TreeMap<String, Long>();
+		final Iterator<Entry<String, ConnectList>> it = connectNodeGroup.entrySet().iterator();
+		while(it.hasNext()) {
+			final Entry<String, ConnectList> e = it.next();
+			ret.put(e.getKey(), v.get(e.getValue()));
+		}
+		return ret;
+	}
+
+	@Override
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public int getCluster() {
+		return web.getCluster();
+	}
+
+	@Override
+	public Map<String, Long> getSentMessages() {
+		return existence.getSentMessages();
+	}
+
+	@Override
+	public Map<String, Long> getSentBytes() {
+		return existence.getSentBytes();
+	}
+
+	@Override
+	public Map<String, Long> getReceivedMessages() {
+		return existence.getReceivedMessages();
+	}
+
+	@Override
+	public Map<String, Long> getReceivedBytes() {
+		return existence.getReceivedBytes();
+	}
+
+	@Override
+	public long getSentPackets() {
+		return existence.getSentPackets();
+	}
+
+	@Override
+	public long getSentPacketBytes() {
+		return existence.getSentPacketBytes();
+	}
+
+	@Override
+	public long getSendErrors() {
+		return existence.getSendErrors();
+	}
+
+	@Override
+	public long getReceivedPackets() {
+		return existence.getReceivedPackets();
+	}
+
+	@Override
+	public long getReceivedPacketBytes() {
+		return existence.getReceivedPacketBytes();
+	}
+
+	@Override
+	public long getBadHeaders() {
+		return existence.getBadHeaders();
+	}
+
+	@Override
+	public long getBadCheckCodes() {
+		return existence.getBadCheckCodes();
+	}
+
+	@Override
+	public long getDecodeErrors() {
+		return existence.getDecodeErrors();
+	}
+
+	@Override
+	public long getUnknownClusters() {
+		return existence.getUnknownClusters();
+	}
+
+	@Override
+	public long getReceiveEnqueued() {
+		return web.getReceiveEnqueued();
+	}
+
+	@Override
+	public long getReceiveDropped() {
+		return web.getReceiveDropped();
+	}
+
+	@Override
+	public long getReceiveQueueHighWater() {
+		return web.getReceiveQueueHighWater();
+	}
+
+	@Override
+	public int getReceiveQueueDepth() {
+		return web.getReceiveQueueDepth();
+	}
+
+	@Override
+	public long getSyncCount() {
+		return web.getSyncCount();
+	}
+
+	@Override
+	public long getSyncTime() {
+		return web.getSyncTime();
+	}
+
+	@Override
+	public long getSyncMaxTime() {
+		return web.getSyncMaxTime();
+	}
+
+	@Override
+	public long getSyncLastTime() {
+		return web.getSyncLastTime();
+	}
+
+	@Override
+	public boolean isSendBottleneck() {
+		return web.isSendBottleneck();
+	}
+
+	@Override
+	public Map<String, Long> getMembers() {
+		return toMap(new GroupValue() {
+			@Override
+			public long get(ConnectList list) {
+				return list.getSnapshot().size();
+			}
+		});
+	}
+
+	@Override
+	public Map<String, Long> getChecksumMismatches() {
+		return toMap(new GroupValue() {
+			@Override
+			public long get(ConnectList list) {
+				return list.getChecksumMismatchCount();
+			}
+		});
+	}
+
+	@Override
+	public Map<String, Long> getFullLists() {
+		return toMap(new GroupValue() {
+			@Override
+			public long get(ConnectList list) {
+				return list.getFullListCount();
+			}
+		});
+	}
+
+	@Override
+	public Map<String, Long> getExpires() {
+		return toMap(new GroupValue() {
+			@Override
+			public long get(ConnectList list) {
+				return list.getExpireCount();
+			}
+		});
+	}
+
+	@Override
+	public long getDnsLookups() {
+		return resolver.getLookupCount();
+	}
+
+	@Override
+	public long getDnsLookupFailures() {
+		return resolver.getLookupFailureCount();
+	}
+
+	@Override
+	public long getDnsLookupTime() {
+		return resolver.getLookupTime();
+	}
+
+	@Override
+	public long getDnsLookupMaxTime() {
+		return resolver.getLookupMaxTime();
+	}
+}
@@ -0,0 +1,201 @@
+package spiderweb;
+
+import java.util.Map;
+
+/**
+ * spiderwebのメトリクスをJMXで公開するインターフェイス.
+ * メッセージタイプ毎、ノードグループ毎の値は、名前をキーとしたMapで公開します.
+ */
+public interface SpiderWebMetricsMXBean {
+	/**
+	 * バインドポートを取得.
+	 * @return
+	 */
+	public int getPort();
+
+	/**
+	 * 通信ヘッダに付加するクラスタIDを取得.
+	 * @return
+	 */
+	public int getCluster();
+
+	/**
+	 * メッセージタイプ毎の送信メッセージ数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getSentMessages();
+
+	/**
+	 * メッセージタイプ毎の送信バイト数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getSentBytes();
+
+	/**
+	 * メッセージタイプ毎の受信メッセージ数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getReceivedMessages();
+
+	/**
+	 * メッセージタイプ毎の受信バイト数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getReceivedBytes();
+
+	/**
+	 * 送信パケット数を取得.
+	 * @return
+	 */
+	public long getSentPackets();
+
+	/**
+	 * 送信パケットのバイト数を取得.
+	 * @return
+	 */
+	public long getSentPacketBytes();
+
+	/**
+	 * 送信失敗数を取得.
+	 * @return
+	 */
+	public long getSendErrors();
+
+	/**
+	 * 受信パケット数を取得.
+	 * @return
+	 */
+	public long getReceivedPackets();
+
+	/**
+	 * 受信パケットのバイト数を取得.
+	 * @return
+	 */
+	public long getReceivedPacketBytes();
+
+	/**
+	 * spiderweb通信ヘッダでないパケット数を取得.
+	 * @return
+	 */
+	public long getBadHeaders();
+
+	/**
+	 * チェックコードが一致しないパケット数を取得.
+	 * @return
+	 */
+	public long getBadCheckCodes();
+
+	/**
+	 * 解析に失敗したメッセージ数を取得.
+	 * @return
+	 */
+	public long getDecodeErrors();
+
+	/**
+	 * 受信先の存在しないクラスタIDのパケット数を取得.
+	 * @return
+	 */
+	public long getUnknownClusters();
+
+	/**
+	 * 受信ワーカーに渡した受信データ数を取得.
+	 * @return
+	 */
+	public long getReceiveEnqueued();
+
+	/**
+	 * 受信ワーカーのキューが一杯で破棄した受信データ数を取得.
+	 * @return
+	 */
+	public long getReceiveDropped();
+
+	/**
+	 * 受信ワーカーのキュー長の最大値を取得.
+	 * @return
+	 */
+	public long getReceiveQueueHighWater();
+
+	/**
+	 * 受信ワーカーのキューに残っている受信データ数を取得.
+	 * @return
+	 */
+	public int getReceiveQueueDepth();
+
+	/**
+	 * 同期処理の実行回数を取得.
+	 * @return
+	 */
+	public long getSyncCount();
+
+	/**
+	 * 同期処理の処理時間の合計をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getSyncTime();
+
+	/**
+	 * 同期処理の処理時間の最大値をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getSyncMaxTime();
+
+	/**
+	 * 直近の同期処理の処理時間をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getSyncLastTime();
+
+	/**
+	 * 送信パケット数の上限がボトルネックかチェック.
+	 * @return
+	 */
+	public boolean isSendBottleneck();
+
+	/**
+	 * ノードグループ毎の接続先数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getMembers();
+
+	/**
+	 * ノードグループ毎のチェックサム不一致数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getChecksumMismatches();
+
+	/**
+	 * ノードグループ毎の接続管理一覧の送信数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getFullLists();
+
+	/**
+	 * ノードグループ毎の、期限切れで非表示になった接続先数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getExpires();
+
+	/**
+	 * アドレス解決数を取得.
+	 * @return
+	 */
+	public long getDnsLookups();
+
+	/**
+	 * アドレス解決の失敗数を取得.
+	 * @return
+	 */
+	public long getDnsLookupFailures();
+
+	/**
+	 * アドレス解決時間の合計をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getDnsLookupTime();
+
+	/**
+	 * アドレス解決時間の最大値をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getDnsLookupMaxTime();
+}
@@ -0,0 +1,402 @@
+package spiderweb;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * spiderweb用マシン接続リストの、ある時点のスナップショット.
+ * 接続先毎の情報を項目毎の配列で保持し、作成後は変更されません.
+ * 参照はロックやオブジェクト生成を行わずに行えます.
+ * また、CPU利用率とステータスを元にした接続先の選択を行えます.
+ * 拡張負荷情報が付加されている接続先は、実効負荷率と処理中の要求数、処理能力の重みを元に選択します.
+ */
+public final class SpiderWebSnapshot {
+	/** 選択時に、ステータスで絞り込まない. **/
+	public static final int ANY_STATUS = Integer.MIN_VALUE;
+	
+	// CPU利用率の最大値.
+	private static final int MAX_CPU_LOAD = 100;
+	
+	// 処理能力の重みの標準値.
+	private static final int DEF_WEIGHT = 100;
+	
+	// 選択時の並び順で、同じ負荷率の場合に比較する処理中の要求数の最大値.
+	private static final long MAX_INFLIGHT = 0x00000000000fffffL;
+	
+	private final String nodeGroupName;
+	private final long checksum;
+	private final long createTime;
+	// アドレス順にソートされた接続先情報.
+	private final String[] addrs;
+	private final int[] status;
+	private final int[] cpuLoad;
+	private final int[] machineNo;
+	private final long[] machineNoTime;
+	private final long[] updateTime;
+	private final SpiderWebLoad[] load;
+	
+	// 全接続先の選択情報.
+	private final Choice any;
+	// ステータス毎の選択情報.
+	// ステータスの昇順に並べ、二分探索で取得する.
+	private final int[] choiceStatus;
+	private final Choice[] choices;
+	
+	// 対象の接続先が存在しない選択情報.
+	private static final Choice EMPTY_CHOICE = new Choice(new int[0], new long[0]);
+	
+	// 接続先の選択情報.
+	// 実効負荷率の昇順に並べた項番と、実効負荷率が低いほど大きくなる重みの累積値を保持する.
+	private static final class Choice {
+		final int[] order;
+		final long[] weights;
+		
+		Choice(int[] order, long[] weights) {
+			this.order = order;
+			this.weights = weights;
+		}
+	}
+
+	/**
+	 * コンストラクタ.
+	 * 各配列は、ソート済みのアドレス順で同じ長さである必要があります.
+	 * 渡された配列はコピーせずに保持するので、作成後に変更しないでください.
+	 * @param nodeGroupName ノードグループ名.
+	 * @param checksum コネクションアドレスのチェックサム.
+	 * @param createTime 作成時間.
+	 * @param addrs ソート済みのアドレス一覧.
+	 * @param status ステータス情報.
+	 * @param cpuLoad CPU負荷情報.
+	 * @param machineNo マシンNo.
+	 * @param machineNoTime マシンNoが確定した時の時間.
+	 * @param updateTime 存在確認最終時間.
+	 */
+	public SpiderWebSnapshot(String nodeGroupName, long checksum, long createTime, String[] addrs,
+		int[] status, int[] cpuLoad, int[] machineNo, long[] machineNoTime, long[] updateTime) {
+		this(nodeGroupName, checksum, createTime, addrs, status, cpuLoad, machineNo, machineNoTime, updateTime,
+			new SpiderWebLoad[addrs.length]);
+	}
+	
+	/**
+	 * コンストラクタ.
+	 * 各配列は、ソート済みのアドレス順で同じ長さである必要があります.
+	 * 渡された配列はコピーせずに保持するので、作成後に変更しないでください.
+	 * @param nodeGroupName ノードグループ名.
+	 * @param checksum コネクションアドレスのチェックサム.
+	 * @param createTime 作成時間.
+	 * @param addrs ソート済みのアドレス一覧.
+	 * @param status ステータス情報.
+	 * @param cpuLoad CPU負荷情報.
+	 * @param machineNo マシンNo.
+	 * @param machineNoTime マシンNoが確定した時の時間.
+	 * @param updateTime 存在確認最終時間.
+	 * @param load 拡張負荷情報(付加されていない接続先は[null]).
+	 */
+	public SpiderWebSnapshot(String nodeGroupName, long checksum, long createTime, String[] addrs,
+		int[] status, int[] cpuLoad, int[] machineNo, long[] machineNoTime, long[] updateTime,
+		SpiderWebLoad[] load) {
+		this.nodeGroupName = nodeGroupName;
+		this.checksum = checksum;
+		this.createTime = createTime;
+		this.addrs = addrs;
+		this.status = status;
+		this.cpuLoad = cpuLoad;
+		this.machineNo = machineNo;
+		this.machineNoTime = machineNoTime;
+		this.updateTime = updateTime;
+		this.load = load;
+		
+		// 選択情報は作成時に全て作成し、選択時は参照のみとする.
+		this.any = createChoice();
+		final int[] st = distinctStatus(status);
+		final Choice[] list = new Choice[st.length];
+		createChoices(st, list);
+		this.choiceStatus = st;
+		this.choices = list;
+	}
+
+	/**
+	 * 空のスナップショットを作成.
+	 * @param nodeGroupName
+	 * @return
+	 */
+	public static final SpiderWebSnapshot empty(String nodeGroupName) {
+		return new SpiderWebSnapshot(nodeGroupName, 0L, System.currentTimeMillis(), new String[0],
+			new int[0], new int[0], new int[0], new long[0], new long[0]);
+	}
+
+	/**
+	 * ノードグループ名を取得.
+	 * @return
+	 */
+	public String getNodeGroupName() {
+		return nodeGroupName;
+	}
+
+	/**
+	 * コネクションアドレスのチェックサムを取得.
+	 * @return
+	 */
+	public long getConnectChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * スナップショットの作成時間を取得.
+	 * @return
+	 */
+	public long getCreateTime() {
+		return createTime;
+	}
+
+	/**
+	 * 接続先数を取得.
+	 * @return
+	 */
+	public int size() {
+		return addrs.length;
+	}
+
+	/**
+	 * 空かチェック.
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return addrs.length == 0;
+	}
+
+	/**
+	 * 指定アドレスの項番を取得.
+	 * @param addr
+	 * @return int 存在しない場合は[-1]が返却されます.
+	 */
+	public int indexOf(String addr) {
+		final int ret = Arrays.binarySearch(addrs, addr);
+		return ret < 0 ? -1 : ret;
+	}
+
+	/**
+	 * 項番を指定してアドレスを取得.
+	 * @param no
+	 * @return
+	 */
+	public String getAddress(int no) {
+		return addrs[no];
+	}
+
+	/**
+	 * 項番を指定してステータス情報を取得.
+	 * @param no
+	 * @return
+	 */
+	public int getStatus(int no) {
+		return status[no];
+	}
+
+	/**
+	 * 項番を指定してCPU利用率を取得.
+	 * @param no
+	 * @return
+	 */
+	public int getCpuLoad(int no) {
+		return cpuLoad[no];
+	}
+
+	/**
+	 * 項番を指定してマシンNoを取得.
+	 * @param no
+	 * @return
+	 */
+	public int getMachineNo(int no) {
+		return machineNo[no];
+	}
+
+	/**
+	 * 項番を指定してマシンNoが確定した時の時間を取得.
+	 * @param no
+	 * @return
+	 */
+	public long getMachineNoTime(int no) {
+		return machineNoTime[no];
+	}
+
+	/**
+	 * 項番を指定して存在確認最終時間を取得.
+	 * @param no
+	 * @return
+	 */
+	public long getUpdateTime(int no) {
+		return updateTime[no];
+	}
+	
+	/**
+	 * 項番を指定して拡張負荷情報を取得.
+	 * @param no
+	 * @return SpiderWebLoad 付加されていない場合は[null]が返却されます.
+	 */
+	public SpiderWebLoad getLoad(int no) {
+		return load[no];
+	}
+	
+	/**
+	 * 項番を指定して実効負荷率を取得.
+	 * 拡張負荷情報が付加されていない場合は、CPU利用率となります.
+	 * @param no
+	 * @return int 0から100の値が返却されます.
+	 */
+	public int getEffectiveLoad(int no) {
+		final SpiderWebLoad l = load[no];
+		return l == null ? Math.max(0, Math.min(MAX_CPU_LOAD, cpuLoad[no])) : l.getEffectiveLoad(cpuLoad[no]);
+	}
+	
+	/**
+	 * 実効負荷率が最も低い接続先を選択.
+	 * 実効負荷率が同じ場合は、処理中の要求数が少ない接続先を選択します.
+	 * @param status 対象のステータスを設定します. [ANY_STATUS]の場合は全接続先が対象となります.
+	 * @return int 対象の接続先が存在しない場合は[-1]が返却されます.
+	 */
+	public int selectLeastLoaded(int status) {
+		final Choice c = choice(status);
+		return c.order.length == 0 ? -1 : c.order[0];
+	}
+	
+	/**
+	 * ランダムに2件選択し、実効負荷率が低い方の接続先を選択.
+	 * @param status 対象のステータスを設定します. [ANY_STATUS]の場合は全接続先が対象となります.
+	 * @return int 対象の接続先が存在しない場合は[-1]が返却されます.
+	 */
+	public int selectTwoChoices(int status) {
+		final int[] order = choice(status).order;
+		final int len = order.length;
+		if(len <= 1) {
+			return len == 0 ? -1 : order[0];
+		}
+		// 昇順に並んでいるので、項番の小さい方が実効負荷率の低い接続先となる.
+		final ThreadLocalRandom r = ThreadLocalRandom.current();
+		final int a = r.nextInt(len);
+		int b = r.nextInt(len - 1);
+		if(b >= a) {
+			b ++;
+		}
+		return order[Math.min(a, b)];
+	}
+	
+	/**
+	 * 実効負荷率が低いほど、また処理能力の重みが大きいほど選ばれやすい重み付けで、ランダムに接続先を選択.
+	 * @param status 対象のステータスを設定します. [ANY_STATUS]の場合は全接続先が対象となります.
+	 * @return int 対象の接続先が存在しない場合は[-1]が返却されます.
+	 */
+	public int selectWeighted(int status) {
+		final Choice c = choice(status);
+		final int len = c.order.length;
+		if(len == 0) {
+			return -1;
+		} else if(c.weights[len - 1] == 0L) {
+			// 全接続先の重みが0の場合は、最も負荷の低い接続先とする.
+			return c.order[0];
+		}
+		// 重みが0の接続先は累積値が直前と同じになるので、
+		// [n+1]以上となる最初の位置を探索して、重みが0の接続先を選ばないようにする.
+		final long n = ThreadLocalRandom.current().nextLong(c.weights[len - 1]) + 1L;
+		int low = 0, high = len - 1, mid;
+		while(low < high) {
+			mid = (low + high) >>> 1;
+			if(c.weights[mid] < n) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return c.order[low];
+	}
+	
+	// 指定ステータスの選択情報を取得.
+	private final Choice choice(int status) {
+		if(status == ANY_STATUS) {
+			return any;
+		}
+		final int p = Arrays.binarySearch(choiceStatus, status);
+		return p < 0 ? EMPTY_CHOICE : choices[p];
+	}
+	
+	// 重複を除いたステータスを昇順で取得.
+	private static final int[] distinctStatus(int[] status) {
+		final int len = status.length;
+		if(len == 0) {
+			return new int[0];
+		}
+		final int[] ret = status.clone();
+		Arrays.sort(ret);
+		int cnt = 1;
+		for(int i = 1; i < len; i ++) {
+			if(ret[i] != ret[cnt - 1]) {
+				ret[cnt ++] = ret[i];
+			}
+		}
+		return cnt == len ? ret : Arrays.copyOf(ret, cnt);
+	}
+	
+	// 接続先の重みを取得.
+	// 実効負荷率が低いほど、処理能力の重みが大きいほど大きくなる.
+	private final long weight(int no) {
+		final SpiderWebLoad l = load[no];
+		return (long)(MAX_CPU_LOAD + 1 - getEffectiveLoad(no)) *
+			(l == null || l.getWeight() < 0 ? DEF_WEIGHT : l.getWeight());
+	}
+	
+	// 全接続先の選択情報を作成.
+	private final Choice createChoice() {
+		final int len = addrs.length;
+		if(len == 0) {
+			return EMPTY_CHOICE;
+		}
+		final long[] keys = new long[len];
+		SpiderWebLoad l;
+		for(int i = 0; i < len; i ++) {
+			// 上位から実効負荷率、処理中の要求数、項番としてソートする.
+			l = load[i];
+			keys[i] = ((long)getEffectiveLoad(i) << 52L) |
+				((l == null || l.getInflight() < 0 ? 0L : Math.min(MAX_INFLIGHT, l.getInflight())) << 32L) | i;
+		}
+		Arrays.sort(keys);
+		long total = 0L;
+		int no;
+		final int[] order = new int[len];
+		final long[] weights = new long[len];
+		for(int i = 0; i < len; i ++) {
+			order[i] = no = (int)(keys[i] & 0x00000000ffffffffL);
+			total += weight(no);
+			weights[i] = total;
+		}
+		return new Choice(order, weights);
+	}
+	
+	// ステータス毎の選択情報を作成.
+	// 全接続先の並び順からステータス毎に振り分けるので、並び順は全接続先と同じになる.
+	private final void createChoices(int[] st, Choice[] out) {
+		final int len = st.length;
+		if(len == 0) {
+			return;
+		}
+		final int[] cnt = new int[len];
+		final int[] order = any.order;
+		final int orderLen = order.length;
+		for(int i = 0; i < orderLen; i ++) {
+			cnt[Arrays.binarySearch(st, status[order[i]])] ++;
+		}
+		for(int i = 0; i < len; i ++) {
+			out[i] = new Choice(new int[cnt[i]], new long[cnt[i]]);
+			cnt[i] = 0;
+		}
+		int p, no;
+		Choice c;
+		for(int i = 0; i < orderLen; i ++) {
+			no = order[i];
+			p = Arrays.binarySearch(st, status[no]);
+			c = out[p];
+			c.order[cnt[p]] = no;
+			c.weights[cnt[p]] = (cnt[p] == 0 ? 0L : c.weights[cnt[p] - 1]) + weight(no);
+			cnt[p] ++;
+		}
+	}
+}
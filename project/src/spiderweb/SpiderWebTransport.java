@@ -0,0 +1,184 @@
+package spiderweb;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import spiderweb.net.ExistenceIO;
+import spiderweb.net.ExistenceMessage;
+import spiderweb.net.ExistenceMetrics;
+import spiderweb.utils.VirtualThreads;
+
+/**
+ * 複数のSpiderWebで共有するUDPトランスポート.
+ * 1つのポートで受信し、1つの受信処理でヘッダのクラスタID毎に各SpiderWebへ振り分けます.
+ * 送信も、共有する全SpiderWebで1つの送信チャネルを利用します.
+ * 共有するSpiderWebは、オプション"transport"にこのオブジェクトを、"cluster"に重複しないクラスタIDを設定します.
+ * SpiderWebをクローズしても、このオブジェクトはクローズされないので、最後に close を呼び出します.
+ */
+public class SpiderWebTransport implements Runnable {
+	// 受信メッセージの反映先.
+	static interface Receiver {
+		// 受信メッセージを反映.
+		// remainingが[true]の場合は、同じパケット内に続くメッセージが存在する.
+		void receive(ExistenceMessage msg, boolean remaining) throws IOException;
+	}
+
+	// 受信処理.
+	private final ExistenceIO existenceIO;
+
+	// パケット単位の受信メトリクス.
+	private final ExistenceMetrics metrics = new ExistenceMetrics();
+
+	// クラスタID毎の反映先.
+	private final Map<Integer, Receiver> receivers = new ConcurrentHashMap<Integer, Receiver>();
+
+	private volatile boolean stopFlag = false;
+
+	/**
+	 * コンストラクタ.
+	 * @throws IOException
+	 */
+	public SpiderWebTransport() throws IOException {
+		this(null);
+	}
+
+	/**
+	 * コンストラクタ.
+	 * [opt]
+	 * port: バインドポート.
+	 * addr: バインドアドレス.
+	 * executor: 受信処理を実行するExecutor. 設定されていない場合は専用スレッドで実行します.
+	 * virtualThreads: "true"で仮想スレッドが利用できる場合は、専用スレッドを仮想スレッドで作成します.
+	 * @param opt
+	 * @throws IOException
+	 */
+	public SpiderWebTransport(Map<String, Object> opt) throws IOException {
+		if(opt == null) {
+			opt = new HashMap<String, Object>();
+		}
+		int port;
+		try {
+			port = Integer.parseInt(""+opt.get("port"));
+		} catch(Exception e) {
+			port = -1;
+		}
+		if(port <= 0) {
+			port = SpiderWebConstants.PORT;
+		}
+		final String addr = opt.get("addr") == null ? null : "" + opt.get("addr");
+		existenceIO = new ExistenceIO();
+		existenceIO.setMetrics(metrics);
+		existenceIO.bind(port, addr == null ? null : InetAddress.getByName(addr));
+
+		// 受信処理の開始.
+		final Object executor = opt.get("executor");
+		if(executor instanceof Executor) {
+			((Executor)executor).execute(this);
+		} else {
+			final ThreadFactory factory = "true".equals(""+opt.get("virtualThreads")) ?
+				VirtualThreads.factory("spiderweb-") : null;
+			final Thread t = factory != null ? factory.newThread(this) : new Thread(this);
+			t.setName("spiderweb-transport");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * クローズ処理.
+	 */
+	public void close() {
+		stopFlag = true;
+		existenceIO.wakeup();
+	}
+
+	/**
+	 * クローズ済みかチェック.
+	 * @return
+	 */
+	public boolean isClose() {
+		return stopFlag;
+	}
+
+	/**
+	 * バインドポートを取得.
+	 * @return
+	 */
+	public int getPort() {
+		return existenceIO.getPort();
+	}
+
+	/**
+	 * パケット単位の受信メトリクスを取得.
+	 * 受信パケット数と、ヘッダ、チェックコード、クラスタIDの不正による破棄数を参照できます.
+	 * メッセージ単位の送受信数は、共有する各SpiderWebのメトリクスで参照します.
+	 * @return
+	 */
+	public ExistenceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * 共有しているSpiderWeb数を取得.
+	 * @return
+	 */
+	public int size() {
+		return receivers.size();
+	}
+
+	// クラスタIDの反映先を登録.
+	// 受信先は、共有トランスポートの送信チャネルを共有する.
+	final void attach(ExistenceIO io, Receiver r) throws IOException {
+		if(stopFlag) {
+			throw new IOException("transport is closed");
+		}
+		if(!existenceIO.attach(io)) {
+			throw new IOException("cluster " + io.getCluster() + " is already attached");
+		}
+		receivers.put(io.getCluster(), r);
+	}
+
+	// クラスタIDの反映先の登録を解除.
+	final void detach(ExistenceIO io) {
+		receivers.remove(io.getCluster());
+		existenceIO.detach(io);
+	}
+
+	// 送信チャネルを共有.
+	final void share(ExistenceIO io) {
+		io.share(existenceIO);
+	}
+
+	/**
+	 * 受信処理.
+	 */
+	public final void run() {
+		final ExistenceMessage msg = new ExistenceMessage();
+		Receiver r;
+		try {
+			while(!stopFlag) {
+				try {
+					if(!existenceIO.receive(msg) || (r = receivers.get(msg.getCluster())) == null) {
+						continue;
+					}
+					r.receive(msg, existenceIO.isReceiveRemaining());
+				} catch(Throwable t) {
+					if(t instanceof ThreadDeath) {
+						throw (ThreadDeath)t;
+					}
+					if(SpiderWebConstants.DEBUG_FLAG) {
+						t.printStackTrace();
+						System.out.println();
+					}
+				}
+			}
+		} finally {
+			existenceIO.close();
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package spiderweb.net;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import spiderweb.SpiderWebConstants;
+import spiderweb.utils.AtomicNumber64;
+import spiderweb.utils.ConvIp4;
+
+/**
+ * アドレス解決のキャッシュ.
+ * IPアドレスからマシン名、マシン名からIPアドレスの解決を別スレッドで行い、
+ * 解決結果を一定時間保持します.
+ * 解決されていない場合は[null]を返却するので、呼び出し元は解決されるまで元のアドレスで処理します.
+ */
+public class AddressResolver {
+	/** デフォルトのキャッシュ数. **/
+	public static final int DEF_SIZE = 4096;
+
+	/** デフォルトの解決結果の保持時間(ミリ秒). **/
+	public static final long DEF_TTL = 300000L;
+
+	/** デフォルトの解決失敗の保持時間(ミリ秒). **/
+	public static final long DEF_NEGATIVE_TTL = 30000L;
+
+	// 解決待ちの最大数.
+	private static final int QUEUE_SIZE = 1024;
+
+	// 解決スレッドを終了するまでの待機時間(ミリ秒).
+	private static final long IDLE_TIME = 60000L;
+
+	// 逆引き、正引きのキャッシュキーの接頭語.
+	private static final char REVERSE = 'r';
+	private static final char FORWARD = 'f';
+
+	/**
+	 * 解決結果の通知.
+	 */
+	public static interface Call {
+		/**
+		 * アドレスが解決された.
+		 * @param addr 解決元のIPアドレス、またはマシン名.
+		 * @param result 解決されたマシン名、またはIPアドレス.
+		 */
+		public void resolved(String addr, String result);
+	}
+
+	// キャッシュ要素.
+	// 解決結果が[null]の場合は、解決失敗を示す.
+	private static final class Entry {
+		final String value;
+		final long expire;
+
+		Entry(String value, long expire) {
+			this.value = value;
+			this.expire = expire;
+		}
+	}
+
+	private final int size;
+	private final long ttl;
+	private final long negativeTtl;
+	private final Call call;
+	private final Map<String, Entry> cache;
+	private final Set<String> running = ConcurrentHashMap.newKeySet();
+	private final ThreadPoolExecutor executor;
+
+	// 解決数、解決失敗数、解決時間の合計と最大値(ナノ秒).
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder lookupFailures = new LongAdder();
+	private final LongAdder lookupTime = new LongAdder();
+	private final AtomicNumber64 lookupMaxTime = new AtomicNumber64(0L);
+
+	/**
+	 * コンストラクタ.
+	 * @param size キャッシュ数を設定します.
+	 * @param ttl 解決結果の保持時間をミリ秒単位で設定します.
+	 * @param negativeTtl 解決失敗の保持時間をミリ秒単位で設定します.
+	 * @param call 解決結果の通知先を設定します.
+	 */
+	public AddressResolver(int size, long ttl, long negativeTtl, Call call) {
+		if(size <= 0) {
+			size = DEF_SIZE;
+		}
+		if(ttl <= 0L) {
+			ttl = DEF_TTL;
+		}
+		if(negativeTtl <= 0L) {
+			negativeTtl = DEF_NEGATIVE_TTL;
+		}
+		this.size = size;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+		this.call = call;
+		// アクセス順で保持し、キャッシュ数を超えた場合は最も古い要素を削除する.
+		final int max = size;
+		this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> e) {
+				return size() > max;
+			}
+		};
+		// 解決待ちが無い間は、スレッドを保持しない.
+		this.executor = new ThreadPoolExecutor(1, 1, IDLE_TIME, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "spiderweb-resolver");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * キャッシュ数を取得.
+	 * @return
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * 解決数を取得.
+	 * @return
+	 */
+	public long getLookupCount() {
+		return lookups.sum();
+	}
+
+	/**
+	 * 解決失敗数を取得.
+	 * @return
+	 */
+	public long getLookupFailureCount() {
+		return lookupFailures.sum();
+	}
+
+	/**
+	 * 解決時間の合計をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getLookupTime() {
+		return lookupTime.sum() / 1000000L;
+	}
+
+	/**
+	 * 解決時間の最大値をミリ秒単位で取得.
+	 * @return
+	 */
+	public long getLookupMaxTime() {
+		return lookupMaxTime.get() / 1000000L;
+	}
+
+	/**
+	 * IPアドレスのマシン名を取得.
+	 * キャッシュに存在しない場合は、別スレッドで解決を開始します.
+	 * @param ip
+	 * @return String 解決されていない、または解決できない場合は[null]が返却されます.
+	 */
+	public String getHostName(String ip) {
+		return get(REVERSE, ip);
+	}
+
+	/**
+	 * マシン名のIPアドレスを取得.
+	 * キャッシュに存在しない場合は、別スレッドで解決を開始します.
+	 * @param name
+	 * @return String 解決されていない、または解決できない場合は[null]が返却されます.
+	 */
+	public String getHostAddress(String name) {
+		if(ConvIp4.isIp(name)) {
+			return name;
+		}
+		return get(FORWARD, name);
+	}
+
+	/**
+	 * クローズ処理.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	// キャッシュから取得.
+	private final String get(char type, final String addr) {
+		final String key = type + addr;
+		final Entry e;
+		synchronized(cache) {
+			e = cache.get(key);
+		}
+		if(e != null && e.expire > System.currentTimeMillis()) {
+			return e.value;
+		}
+		// 同じアドレスの解決は、同時に1件のみ実行する.
+		if(running.add(key)) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							resolve(type, key, addr);
+						} finally {
+							running.remove(key);
+						}
+					}
+				});
+			} catch(RejectedExecutionException re) {
+				// 解決待ちが多い場合は、次回の取得時に解決する.
+				running.remove(key);
+			}
+		}
+		// 期限切れの解決結果は、解決されるまで利用する.
+		return e == null ? null : e.value;
+	}
+
+	// アドレスを解決して、キャッシュに設定.
+	private final void resolve(char type, String key, String addr) {
+		String ret = null;
+		final long start = System.nanoTime();
+		try {
+			if(type == REVERSE) {
+				// 逆引きできない場合は、IPアドレスがそのまま返却される.
+				ret = InetAddress.getByName(addr).getHostName();
+				if(addr.equals(ret)) {
+					ret = null;
+				}
+			} else {
+				ret = InetAddress.getByName(addr).getHostAddress();
+			}
+		} catch(Exception ex) {
+			if(SpiderWebConstants.DEBUG_FLAG) {
+				ex.printStackTrace();
+				System.out.println();
+			}
+		}
+		final long time = System.nanoTime() - start;
+		lookups.increment();
+		lookupTime.add(time);
+		lookupMaxTime.max(time);
+		if(ret == null) {
+			lookupFailures.increment();
+		}
+		final Entry old;
+		final long now = System.currentTimeMillis();
+		synchronized(cache) {
+			old = cache.put(key, new Entry(ret, now + (ret == null ? negativeTtl : ttl)));
+		}
+		if(ret != null && call != null && (old == null || !ret.equals(old.value))) {
+			call.resolved(addr, ret);
+		}
+	}
+}
@@ -1,24 +1,44 @@
 package spiderweb.net;
 
 import spiderweb.SpiderWebElement;
+import spiderweb.SpiderWebLoad;
 
 /**
  * コネクション要素.
  */
 public class ConnectElement {
 	// この情報の最終更新時間.
-	private long time;
+	private volatile long time;
 	// この情報の現在のステータス情報.
-	private int status;
+	private volatile int status;
 	// この情報の現在のCPU負荷情報.
-	private int cpuLoad;
+	private volatile int cpuLoad;
 	// この情報のマシンNo.
-	private int machineNo;
+	private volatile int machineNo;
 	// この情報のマシンNoが確定した時の時間.
-	private long machineNoTime;
+	private volatile long machineNoTime;
+	// この情報の拡張負荷情報.
+	private volatile SpiderWebLoad load;
+	// 削除された時間(削除されていない場合は0).
+	private volatile long leaveTime = 0L;
+	// この接続先から差分同期で反映済みの、変更履歴の世代とバージョン.
+	private volatile long logEpoch = 0L;
+	private volatile long logVersion = -1L;
+	// この情報のアドレスと、IPv4アドレスの場合のint値.
+	private String addr = null;
+	private int ip = 0;
+	// 接続先一覧のチェックサムに加算する、この接続先のハッシュ値.
+	private long hash = 0L;
+	// 接続先一覧に表示されているか.
+	private volatile boolean visible = false;
+	// 最後に変更通知したCPU負荷情報.
+	private int eventCpuLoad = 0;
+	// 期限管理に登録されている期限(登録されていない場合は0).
+	private long deadline = 0L;
 	
 	public ConnectElement(SpiderWebElement em) {
 		set(em);
+		update();
 	}
 	
 	public ConnectElement update() {
@@ -27,14 +47,19 @@ public class ConnectElement {
 	}
 	
 	public ConnectElement set(SpiderWebElement em) {
-		return set(em.getStatus(), em.getCpuLoad(), em.getMachineNo(), em.getMachineNoTime());
+		return set(em.getStatus(), em.getCpuLoad(), em.getMachineNo(), em.getMachineNoTime(), em.getLoad());
 	}
 	
 	public ConnectElement set(int status, int cpuLoad, int machineNo, long machineNoTime) {
+		return set(status, cpuLoad, machineNo, machineNoTime, null);
+	}
+	
+	public ConnectElement set(int status, int cpuLoad, int machineNo, long machineNoTime, SpiderWebLoad load) {
 		this.status = status;
 		this.cpuLoad = cpuLoad;
 		this.machineNo = machineNo;
 		this.machineNoTime = machineNoTime;
+		this.load = load;
 		return this;
 	}
 	
@@ -66,6 +91,10 @@ public class ConnectElement {
 		return machineNo;
 	}
 	
+	public SpiderWebLoad getLoad() {
+		return load;
+	}
+	
 	public long getMachineNoTime() {
 		return machineNoTime;
 	}
@@ -78,4 +107,81 @@ public class ConnectElement {
 	public long getTime() {
 		return time;
 	}
+	
+	// ステータスやマシンNoが変更されるかチェック.
+	// CPU負荷情報は常に変動するので、変更扱いにしない.
+	final boolean isChange(SpiderWebElement em) {
+		return status != em.getStatus() || machineNo != em.getMachineNo() ||
+			machineNoTime != em.getMachineNoTime();
+	}
+	
+	public ConnectElement setLeaveTime(long leaveTime) {
+		this.leaveTime = leaveTime;
+		return this;
+	}
+	
+	public long getLeaveTime() {
+		return leaveTime;
+	}
+	
+	public ConnectElement setLogVersion(long epoch, long version) {
+		this.logEpoch = epoch;
+		this.logVersion = version;
+		return this;
+	}
+	
+	public long getLogEpoch() {
+		return logEpoch;
+	}
+	
+	public long getLogVersion() {
+		return logVersion;
+	}
+	
+	final ConnectElement setAddress(String addr, int ip) {
+		this.addr = addr;
+		this.ip = ip;
+		return this;
+	}
+	
+	public String getAddress() {
+		return addr;
+	}
+	
+	final int getIp() {
+		return ip;
+	}
+	
+	final ConnectElement setHash(long hash) {
+		this.hash = hash;
+		return this;
+	}
+	
+	final long getHash() {
+		return hash;
+	}
+	
+	final void setVisible(boolean visible) {
+		this.visible = visible;
+	}
+	
+	public boolean isVisible() {
+		return visible;
+	}
+	
+	final void setEventCpuLoad(int cpuLoad) {
+		this.eventCpuLoad = cpuLoad;
+	}
+	
+	final int getEventCpuLoad() {
+		return eventCpuLoad;
+	}
+	
+	final void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	
+	final long getDeadline() {
+		return deadline;
+	}
 }
@@ -1,16 +1,22 @@
 package spiderweb.net;
 
 import java.io.IOException;
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import spiderweb.SpiderWebElement;
+import spiderweb.SpiderWebEvent;
+import spiderweb.SpiderWebLoad;
+import spiderweb.SpiderWebSnapshot;
 import spiderweb.utils.CRC64;
 import spiderweb.utils.ConvIp4;
 import spiderweb.utils.Flag;
@@ -20,15 +26,92 @@ import spiderweb.utils.Flag;
  */
 public class ConnectList {
 	private static final double REMOVE_LIST = 2d;
+	
+	// ゴシップの1変更あたりの送信回数の係数.
+	// 送信回数の上限は、係数 * log2(接続先数 + 1) となる.
+	private static final int RETRANSMIT = 3;
+	
 	private String groupName;
-	private final Map<String, ConnectElement> list = new ConcurrentHashMap<String, ConnectElement>();
-	private final AtomicReference<String[]> connetAddrs = new AtomicReference<String[]>();
+	
+	// IPv4アドレスの接続先は32ビットのアドレスをキーに管理し、
+	// それ以外のホスト名などの接続先は文字列をキーに管理する.
+	private final ConnectTable ips = new ConnectTable();
+	private final Map<String, ConnectElement> names = new ConcurrentHashMap<String, ConnectElement>();
+	private final AtomicReference<Snapshot> connetAddrs = new AtomicReference<Snapshot>();
+	
+	// 接続先一覧のチェックサム.
+	// 表示される接続先のハッシュ値の合計なので、並び順に依存せず追加、削除時に差分で更新できる.
 	private final AtomicLong connectSync = new AtomicLong(0L);
 	private long expireTime = -1L;
 	private long removeTime = -1L;
 	
+	// ゴシップモードの場合は、一定時間での削除を行わず、削除された接続先のみを削除する.
+	private final boolean gossip;
+	
 	// createConnectAddrs再生性フラグ.
-	private final Flag updateFlag = new Flag(true);
+	// 接続先の表示、非表示が変わった場合のみ設定され、更新時間や要素の更新では設定しない.
+	private final Flag updateFlag = new Flag(false);
+	
+	// 一括更新の数.
+	// 一括更新中は、スナップショットを作成せずに終了時にまとめて作成する.
+	private int batch = 0;
+	
+	// 接続先変更の通知処理.
+	private volatile ConnectNotify connectNotify = null;
+	
+	// アドレス解決のキャッシュ.
+	private volatile AddressResolver resolver = null;
+	
+	// 表示される接続先のハッシュリング.
+	private final ConnectRing ring = new ConnectRing();
+	
+	// 表示期限、削除期限の管理.
+	private final ExpireWheel wheel;
+	
+	// 接続情報の変更履歴.
+	private final ConnectLog log = new ConnectLog(ConnectLog.DEF_SIZE);
+	
+	// 接続先一覧の階層チェックサム.
+	private volatile ConnectTree tree = null;
+	
+	// チェックサム不一致数、接続管理一覧の送信数、期限切れ数.
+	// 受信処理の各スレッドから更新されるので、LongAdderで集計する.
+	private final LongAdder checksumMismatches = new LongAdder();
+	private final LongAdder fullLists = new LongAdder();
+	private final LongAdder expires = new LongAdder();
+	
+	// スナップショットの、CPU負荷情報や存在確認最終時間を更新する間隔.
+	private static final long VIEW_REFRESH_TIME = 1000L;
+	
+	// 表示される接続先一覧.
+	// 全接続先のソート済み一覧と、IPv4アドレス、ホスト名それぞれのソート済み一覧と、
+	// 同じ時点の参照用スナップショットを保持する.
+	private static final class Snapshot {
+		final ConnectElement[] elements;
+		final String[] addrs;
+		final int[] ips;
+		final String[] names;
+		final SpiderWebSnapshot view;
+		
+		Snapshot(ConnectElement[] elements, String[] addrs, int[] ips, String[] names, SpiderWebSnapshot view) {
+			this.elements = elements;
+			this.addrs = addrs;
+			this.ips = ips;
+			this.names = names;
+			this.view = view;
+		}
+	}
+	
+	// アドレス順の比較.
+	private static final Comparator<ConnectElement> ADDRESS_ORDER = new Comparator<ConnectElement>() {
+		@Override
+		public int compare(ConnectElement a, ConnectElement b) {
+			return a.getAddress().compareTo(b.getAddress());
+		}
+	};
+	
+	// ステータスやマシンNoが変更された場合の、参照用スナップショット再作成フラグ.
+	private final Flag viewFlag = new Flag(false);
 	
 	/**
 	 * コンストラクタ.
@@ -36,9 +119,48 @@ public class ConnectList {
 	 * @param time
 	 */
 	public ConnectList(String name, long time) {
+		this(name, time, false);
+	}
+	
+	/**
+	 * コンストラクタ.
+	 * @param name
+	 * @param time
+	 * @param gossip [true]の場合は、ゴシップモードで管理します.
+	 */
+	public ConnectList(String name, long time, boolean gossip) {
 		this.groupName = name;
 		this.expireTime = time;
 		this.removeTime = (long)((double)time * REMOVE_LIST);
+		this.gossip = gossip;
+		this.wheel = new ExpireWheel(time);
+		this.connetAddrs.set(new Snapshot(new ConnectElement[0], new String[0], new int[0], new String[0],
+			SpiderWebSnapshot.empty(name)));
+	}
+	
+	/**
+	 * 接続先変更の通知処理を設定.
+	 * @param connectNotify
+	 */
+	public void setNotify(ConnectNotify connectNotify) {
+		this.connectNotify = connectNotify;
+	}
+	
+	/**
+	 * アドレス解決のキャッシュを設定.
+	 * 設定されている場合は、inetAddressのホスト名をキャッシュから取得します.
+	 * @param resolver
+	 */
+	public void setResolver(AddressResolver resolver) {
+		this.resolver = resolver;
+	}
+	
+	/**
+	 * ゴシップモードかチェック.
+	 * @return
+	 */
+	public boolean isGossip() {
+		return gossip;
 	}
 	
 	/**
@@ -63,8 +185,13 @@ public class ConnectList {
 	 * @param em
 	 */
 	public void put(String addr, SpiderWebElement em) {
-		list.put(addr, new ConnectElement(em));
-		updateFlag.set(true);
+		final ConnectElement e = find(addr);
+		if(e == null) {
+			putToNoUpdate(addr, em);
+			return;
+		}
+		// 既に存在する場合は、差分同期のバージョン情報を残すため要素を更新する.
+		_update(e, em);
 	}
 	
 	/**
@@ -73,10 +200,40 @@ public class ConnectList {
 	 * @param em
 	 */
 	public void putToNoUpdate(String addr, SpiderWebElement em) {
-		if(!list.containsKey(addr)) {
-			list.put(addr, new ConnectElement(em));
+		if(ConvIp4.isIp(addr)) {
+			final int ip = ConvIp4.ipToInt(addr);
+			if(ips.get(ip) == null) {
+				_put(ip, addr, em);
+			}
+			return;
+		}
+		if(!names.containsKey(addr)) {
+			final ConnectElement e = new ConnectElement(em).setAddress(addr, 0).setHash(hash(addr));
+			if(names.putIfAbsent(addr, e) == null) {
+				log.append(ConnectLog.OP_JOIN, addr, e);
+				show(e);
+			}
+		}
+	}
+	
+	/**
+	 * IPv4アドレスを指定して、存在しない場合だけ更新時間を更新.
+	 * @param ip
+	 * @param em
+	 */
+	public void putToNoUpdate(int ip, SpiderWebElement em) {
+		if(ips.get(ip) == null) {
+			_put(ip, ConvIp4.ipToString(ip), em);
+		}
+	}
+	
+	// IPv4アドレスの接続先を追加.
+	private final void _put(int ip, String addr, SpiderWebElement em) {
+		final ConnectElement e = new ConnectElement(em).setAddress(addr, ip).setHash(hash(ip));
+		if(ips.putIfAbsent(ip, e) == null) {
+			log.append(ConnectLog.OP_JOIN, addr, e);
+			show(e);
 		}
-		updateFlag.set(true);
 	}
 	
 	/**
@@ -86,14 +243,163 @@ public class ConnectList {
 	 * @return
 	 */
 	public boolean update(String addr, SpiderWebElement em) {
-		if(list.containsKey(addr)) {
-			list.get(addr).set(em).update();
-			updateFlag.set(true);
+		final ConnectElement e = find(addr);
+		if(e != null) {
+			_update(e, em);
 			return true;
 		}
 		return false;
 	}
 	
+	// 要素と更新時間を更新.
+	// 論理削除されていた場合は、再追加として変更履歴に残す.
+	private final void _update(ConnectElement e, SpiderWebElement em) {
+		final boolean leave = isLeave(e);
+		final boolean change = e.isChange(em);
+		e.set(em).update().setLeaveTime(0L);
+		if(leave) {
+			log.append(ConnectLog.OP_JOIN, e.getAddress(), e);
+		} else if(change) {
+			log.append(ConnectLog.OP_UPDATE, e.getAddress(), e);
+			viewFlag.set(true);
+			publish();
+			fire(SpiderWebEvent.TYPE_STATUS, e);
+		} else {
+			final ConnectNotify n = connectNotify;
+			if(n != null && n.isCpuChange(e)) {
+				fire(SpiderWebEvent.TYPE_CPU, e);
+			}
+		}
+		if(!e.isVisible()) {
+			show(e);
+		}
+	}
+	
+	// 接続先を表示して、チェックサムに加算.
+	private final synchronized void show(ConnectElement e) {
+		if(!e.isVisible()) {
+			e.setVisible(true);
+			connectSync.addAndGet(e.getHash());
+			ring.add(e.getAddress(), e.getHash());
+			updateFlag.set(true);
+			publish();
+			schedule(e);
+			fire(SpiderWebEvent.TYPE_JOIN, e);
+		}
+	}
+	
+	// 接続先を非表示にして、チェックサムから減算.
+	private final synchronized void hide(ConnectElement e, int type) {
+		if(e.isVisible()) {
+			e.setVisible(false);
+			connectSync.addAndGet(-e.getHash());
+			ring.remove(e.getAddress(), e.getHash());
+			updateFlag.set(true);
+			publish();
+			if(type == SpiderWebEvent.TYPE_EXPIRE) {
+				expires.increment();
+			}
+			fire(type, e);
+		}
+	}
+	
+	// 接続先の変更を通知.
+	private final void fire(int type, ConnectElement e) {
+		final ConnectNotify n = connectNotify;
+		if(n != null) {
+			n.fire(type, groupName, e);
+		}
+	}
+	
+	// IPv4アドレスの接続先のハッシュ値を取得.
+	private static final long hash(int ip) {
+		final byte[] b = new byte[4];
+		final CRC64 crc = new CRC64();
+		ConvIp4.ipToBin(b, ip);
+		crc.update(b);
+		return crc.getValue();
+	}
+	
+	// ホスト名の接続先のハッシュ値を取得.
+	private static final long hash(String addr) {
+		final CRC64 crc = new CRC64();
+		try {
+			crc.update(addr.getBytes("UTF8"));
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return crc.getValue();
+	}
+	
+	// アドレスの要素を取得.
+	private final ConnectElement find(String addr) {
+		if(ConvIp4.isIp(addr)) {
+			return ips.get(ConvIp4.ipToInt(addr));
+		}
+		return names.get(addr);
+	}
+	
+	// inetAddressの要素を取得.
+	// IPv4アドレスの場合は、文字列に変換せずに取得する.
+	// ホスト名での登録が無い場合は、ホスト名の解決を行わない.
+	// アドレス解決のキャッシュが設定されている場合は、解決済みのホスト名のみで取得する.
+	// ホスト名に置き換えられて非表示となったアドレスの要素より、ホスト名の要素を優先する.
+	private final ConnectElement find(InetAddress addr) {
+		ConnectElement e;
+		if(addr instanceof Inet4Address) {
+			e = ips.get(ConvIp4.binToInt(addr.getAddress()));
+		} else {
+			e = names.get(addr.getHostAddress());
+		}
+		if((e == null || !e.isVisible()) && !names.isEmpty()) {
+			final AddressResolver r = resolver;
+			final String name = r == null ? addr.getHostName() : r.getHostName(addr.getHostAddress());
+			final ConnectElement n;
+			if(name != null && (n = names.get(name)) != null) {
+				e = n;
+			}
+		}
+		return e;
+	}
+	
+	// 接続先数を取得.
+	private final int count() {
+		return ips.size() + names.size();
+	}
+	
+	// 現在の状態から、次の期限を登録.
+	// 表示中は非表示にする期限、非表示は物理削除する期限となる.
+	// 更新時間が更新されても期限は登録し直さず、期限を迎えた時点で次の期限を求める.
+	private final void schedule(ConnectElement e) {
+		final long deadline;
+		if(gossip) {
+			final long n = e.getLeaveTime();
+			if(n == 0L) {
+				return;
+			}
+			deadline = n + expireTime + 1L;
+		} else if(e.isVisible()) {
+			deadline = e.getTime() + expireTime + 1L;
+		} else {
+			deadline = e.getTime() + removeTime + 1L;
+		}
+		wheel.schedule(e, deadline);
+	}
+	
+	// 論理削除されているかチェック.
+	private final boolean isLeave(ConnectElement e) {
+		return isLeave(e, System.currentTimeMillis() - expireTime);
+	}
+	
+	// 論理削除されているかチェック.
+	// ゴシップモードの場合は、削除されたかのみで判別する.
+	private final boolean isLeave(ConnectElement e, long target) {
+		if(gossip) {
+			return e.getLeaveTime() != 0L;
+		}
+		return e.getTime() < target;
+	}
+	
 	/**
 	 * inetAddressの情報で既に一致する情報が存在するかチェック.
 	 * IPアドレスか、ホスト名か存在する場合は[true]返却.
@@ -102,19 +408,23 @@ public class ConnectList {
 	 * @return
 	 */
 	public boolean isInetAddressByUpdate(InetAddress addr, SpiderWebElement em) {
-		String haddr = addr.getHostAddress();
-		if(list.containsKey(haddr)) {
-			list.get(haddr).set(em).update();
-			updateFlag.set(true);
-			return true;
-		} else if(list.containsKey(haddr)) {
-			list.get(addr.getHostName()).set(em).update();
-			updateFlag.set(true);
+		final ConnectElement e = find(addr);
+		if(e != null) {
+			_update(e, em);
 			return true;
 		}
 		return false;
 	}
 	
+	/**
+	 * inetAddressの情報で一致する要素を取得.
+	 * @param addr
+	 * @return
+	 */
+	public ConnectElement getElement(InetAddress addr) {
+		return find(addr);
+	}
+	
 	/**
 	 * inetAddressの情報で既に一致する情報が存在するかチェック.
 	 * IPアドレスか、ホスト名か存在する場合は[true]返却.
@@ -122,7 +432,7 @@ public class ConnectList {
 	 * @return
 	 */
 	public boolean isInetAddress(InetAddress addr) {
-		return (list.containsKey(addr.getHostAddress()) || list.containsKey(addr.getHostName()));
+		return find(addr) != null;
 	}
 	
 	/**
@@ -130,87 +440,295 @@ public class ConnectList {
 	 * @param addr
 	 */
 	public void remove(String addr) {
-		if(list.containsKey(addr)) {
+		final ConnectElement e = find(addr);
+		if(e != null && !isLeave(e)) {
 			// 物理削除せず、論理削除のみとする.
-			ConnectElement e = list.get(addr);
-			e.setTime(System.currentTimeMillis() - expireTime);
-			updateFlag.set(true);
+			final long now = System.currentTimeMillis();
+			e.setTime(now - expireTime - 1L).setLeaveTime(now);
+			log.append(ConnectLog.OP_LEAVE, addr, e);
+			hide(e, SpiderWebEvent.TYPE_REMOVE);
+			schedule(e);
+		}
+	}
+	
+	/**
+	 * 接続先のアドレスを変更.
+	 * アドレス解決により、解決前のアドレスで登録されていた接続先を解決後のアドレスに置き換えます.
+	 * 変更先が既に存在する場合は、変更元の削除のみ行います.
+	 * @param from
+	 * @param to
+	 */
+	public void rename(String from, String to) {
+		final ConnectElement e = find(from);
+		if(e == null || !e.isVisible()) {
+			return;
+		}
+		if(find(to) == null) {
+			putToNoUpdate(to, new SpiderWebElement(e.getStatus(), e.getCpuLoad(), e.getMachineNo(),
+				e.getMachineNoTime(), e.getLoad()));
+		}
+		remove(from);
+	}
+	
+	/**
+	 * 差分同期で受信した変更を反映.
+	 * 追加は putToNoUpdate と同様に、存在しない場合のみ登録します.
+	 * 要素更新は、更新時間を変更せずに要素のみ更新します.
+	 * @param op
+	 * @param addr
+	 * @param em
+	 */
+	public void apply(byte op, String addr, SpiderWebElement em) {
+		switch(op) {
+		case ConnectLog.OP_JOIN:
+			putToNoUpdate(addr, em);
+			break;
+		case ConnectLog.OP_UPDATE:
+			final ConnectElement e = find(addr);
+			if(e == null) {
+				putToNoUpdate(addr, em);
+			} else if(e.isChange(em)) {
+				e.set(em);
+				log.append(ConnectLog.OP_UPDATE, addr, e);
+				viewFlag.set(true);
+				publish();
+				fire(SpiderWebEvent.TYPE_STATUS, e);
+			}
+			break;
+		case ConnectLog.OP_LEAVE:
+			remove(addr);
+			break;
+		}
+	}
+	
+	/**
+	 * 自マシンの削除を否定するため、存在を変更履歴に追加.
+	 * @param addr
+	 * @param em
+	 */
+	public void rejoin(String addr, SpiderWebElement em) {
+		final ConnectElement e = find(addr);
+		if(e == null) {
+			putToNoUpdate(addr, em);
+			return;
+		}
+		e.set(em).update().setLeaveTime(0L);
+		log.append(ConnectLog.OP_JOIN, addr, e);
+		show(e);
+	}
+	
+	/**
+	 * ゴシップで付加する、最近の変更を取得.
+	 * @param max
+	 * @return
+	 */
+	public List<ConnectLog.Entry> getPiggyback(int max) {
+		int n = 0;
+		for(int s = count() + 1; s > 1; s >>= 1) {
+			n ++;
 		}
+		return log.piggyback(max, RETRANSMIT * Math.max(1, n));
+	}
+	
+	/**
+	 * ゴシップで送信した変更の送信回数を更新.
+	 * @param piggyback
+	 * @param len
+	 */
+	public void sentPiggyback(List<ConnectLog.Entry> piggyback, int len) {
+		log.sent(piggyback, len);
+	}
+	
+	/**
+	 * 変更履歴の世代を取得.
+	 * @return
+	 */
+	public long getLogEpoch() {
+		return log.getEpoch();
+	}
+	
+	/**
+	 * 変更履歴の現在のバージョンを取得.
+	 * @return
+	 */
+	public long getLogVersion() {
+		return log.getVersion();
+	}
+	
+	/**
+	 * 指定バージョン以降の変更差分を取得.
+	 * 差分の件数が接続先数を超える場合は、一覧を送った方が小さいので[null]を返却します.
+	 * @param epoch
+	 * @param from
+	 * @return List<ConnectLog.Entry> 差分で同期できない場合は[null]が返却されます.
+	 */
+	public List<ConnectLog.Entry> getDelta(long epoch, long from) {
+		return log.since(epoch, from, count());
 	}
 	
 	/**
 	 * 一定時間が超えている情報を削除.
+	 * expire時間を超えた情報は非表示にし、さらに一定時間が超えた情報を物理削除します.
+	 * 期限を迎えた情報のみが対象となるので、全件の確認は行いません.
 	 * @return
 	 */
 	public int removeExpire() {
-		Long n;
-		Entry<String, ConnectElement> e;
+		final long now = System.currentTimeMillis();
+		final List<ConnectElement> list = wheel.expire(now);
+		if(list == null) {
+			return 0;
+		}
+		beginUpdate();
+		try {
+			return removeExpire(list, now, now - expireTime);
+		} finally {
+			endUpdate();
+		}
+	}
+	
+	// 期限を迎えた情報を、非表示か物理削除.
+	private final int removeExpire(List<ConnectElement> list, long now, long target) {
+		ConnectElement v;
 		int ret = 0;
-		// 物理削除する.
-		final long target = System.currentTimeMillis() - removeTime;
-		final Iterator<Entry<String, ConnectElement>> it = list.entrySet().iterator();
-		while(it.hasNext()) {
-			e = it.next();
-			if((n = e.getValue().getTime()) != null && n < target) {
-				list.remove(e.getKey());
-				updateFlag.set(true);
-				ret ++;
+		final int len = list.size();
+		for(int i = 0; i < len; i ++) {
+			v = list.get(i);
+			if(isRemove(v, now)) {
+				// 物理削除する.
+				if(ConvIp4.isIp(v.getAddress()) ? ips.remove(v.getIp(), v) : names.remove(v.getAddress(), v)) {
+					hide(v, SpiderWebEvent.TYPE_EXPIRE);
+					ret ++;
+				}
+			} else {
+				if(v.isVisible() && isLeave(v, target)) {
+					hide(v, SpiderWebEvent.TYPE_EXPIRE);
+				}
+				schedule(v);
 			}
 		}
 		return ret;
 	}
 	
-	// コネクションアドレスリスト、チェックサムを取得.
-	private final String[] createConnectAddrs() throws IOException {
-		updateFlag.set(false);
-		// 接続先一覧をリスト化して、ソート.
-		int len, cnt;
-		long oldSync;
-		String[] tmp;
-		String[] old;
-		String[] addrs;
-		Entry<String, ConnectElement> e;
-		Iterator<Entry<String, ConnectElement>> it;
-		final byte[] b = new byte[4];
-		final CRC64 crc = new CRC64();
-		// 論理削除された条件は非表示.
-		final long target = System.currentTimeMillis() - expireTime;
-		while(true) {
-			old = connetAddrs.get();
-			oldSync = connectSync.get();
-			len = list.size();
-			it = list.entrySet().iterator();
-			cnt = 0;
-			addrs = new String[len];
-			while(it.hasNext()) {
-				if((e = it.next()).getValue().getTime() >= target) {
-					addrs[cnt++] = e.getKey();
-				}
-			}
-			it = null; e = null;
-			if(len != cnt) {
-				tmp = addrs;
-				addrs = new String[cnt];
-				System.arraycopy(tmp, 0, addrs, 0, cnt);
-				tmp = null;
-				len = cnt;
-			}
-			Arrays.sort(addrs);
-			for(int i = 0; i < len ; i++) {
-				if(ConvIp4.isIp(addrs[i])) {
-					ConvIp4.ipToBin(b, addrs[i]);
-					crc.update(b);
-				} else {
-					crc.update(addrs[i].getBytes("UTF8"));
-				}
+	// 物理削除対象かチェック.
+	// ゴシップモードの場合は、削除されてから一定時間が過ぎた情報のみを対象とする.
+	private final boolean isRemove(ConnectElement e, long now) {
+		if(gossip) {
+			final long n = e.getLeaveTime();
+			return n != 0L && n < now - expireTime;
+		}
+		return e.getTime() < now - removeTime;
+	}
+	
+	/**
+	 * 一括更新を開始.
+	 * 一括更新中の接続先の変更は、endUpdate の呼び出しでまとめてスナップショットに反映されます.
+	 * 複数の接続先をまとめて変更する場合に、変更毎にスナップショットを作り直さないために利用します.
+	 */
+	public synchronized void beginUpdate() {
+		batch ++;
+	}
+	
+	/**
+	 * 一括更新を終了.
+	 * 全ての一括更新が終了した場合は、スナップショットを作成して公開します.
+	 */
+	public synchronized void endUpdate() {
+		if(batch > 0) {
+			batch --;
+		}
+		publish();
+	}
+	
+	/**
+	 * CPU負荷情報と存在確認最終時間を反映するため、スナップショットを作り直す.
+	 * 前回の作成から一定時間経過していない場合は、作り直しません.
+	 * @param now
+	 */
+	public synchronized void refreshSnapshot(long now) {
+		if(batch == 0 && connetAddrs.get().view.getCreateTime() + VIEW_REFRESH_TIME <= now) {
+			viewFlag.set(true);
+			publish();
+		}
+	}
+	
+	// 接続先一覧と参照用のスナップショットを作成して公開.
+	// 接続先の変更時に変更したスレッドで作成し、参照側は公開済みのスナップショットを取得するだけとする.
+	// 接続先の変更と同じロック内で作成するので、チェックサムと接続先一覧は一致する.
+	private final synchronized void publish() {
+		if(batch > 0) {
+			return;
+		}
+		Snapshot s = connetAddrs.get();
+		if(updateFlag.get()) {
+			updateFlag.set(false);
+			s = createConnectAddrs();
+		} else if(!viewFlag.get()) {
+			return;
+		}
+		viewFlag.set(false);
+		connetAddrs.set(new Snapshot(s.elements, s.addrs, s.ips, s.names, createView(s)));
+	}
+	
+	// コネクションアドレスリストを再作成.
+	// 表示されている接続先のみをソートする.
+	private final Snapshot createConnectAddrs() {
+		int ipCnt, cnt;
+		ConnectElement v;
+		final ConnectElement[] list = ips.elements();
+		final int[] ipList = new int[list.length];
+		final ConnectElement[] elements = new ConnectElement[list.length + names.size()];
+		ipCnt = 0;
+		for(int i = 0; i < list.length; i ++) {
+			if((v = list[i]).isVisible()) {
+				ipList[ipCnt] = v.getIp();
+				elements[ipCnt ++] = v;
 			}
-			if(connetAddrs.compareAndSet(old, addrs) &&
-				connectSync.compareAndSet(oldSync, crc.getValue())) {
-				break;
+		}
+		cnt = ipCnt;
+		final Iterator<ConnectElement> it = names.values().iterator();
+		while(it.hasNext() && cnt < elements.length) {
+			if((v = it.next()).isVisible()) {
+				elements[cnt ++] = v;
 			}
-			crc.reset();
 		}
-		return addrs;
+		final String[] nameList = new String[cnt - ipCnt];
+		for(int i = ipCnt; i < cnt; i ++) {
+			nameList[i - ipCnt] = elements[i].getAddress();
+		}
+		final Snapshot ret = new Snapshot(resize(elements, cnt), new String[cnt], resize(ipList, ipCnt),
+			nameList, null);
+		Arrays.sort(ret.elements, ADDRESS_ORDER);
+		for(int i = 0; i < cnt; i ++) {
+			ret.addrs[i] = ret.elements[i].getAddress();
+		}
+		Arrays.sort(ret.ips);
+		Arrays.sort(ret.names);
+		return ret;
+	}
+	
+	// 配列を指定長に縮小.
+	private static final ConnectElement[] resize(ConnectElement[] list, int len) {
+		if(list.length == len) {
+			return list;
+		}
+		final ConnectElement[] ret = new ConnectElement[len];
+		System.arraycopy(list, 0, ret, 0, len);
+		return ret;
+	}
+	
+	// 配列を指定長に縮小.
+	private static final int[] resize(int[] list, int len) {
+		if(list.length == len) {
+			return list;
+		}
+		final int[] ret = new int[len];
+		System.arraycopy(list, 0, ret, 0, len);
+		return ret;
+	}
+	
+	// 現状のコネクションアドレス一覧を取得.
+	private final Snapshot snapshot() {
+		return connetAddrs.get();
 	}
 	
 	/**
@@ -219,8 +737,9 @@ public class ConnectList {
 	 * @return
 	 */
 	public Long getUpdateTime(String addr) {
-		if(list.containsKey(addr)) {
-			return list.get(addr).getTime();
+		final ConnectElement e = find(addr);
+		if(e != null) {
+			return e.getTime();
 		}
 		return null;
 	}
@@ -231,8 +750,9 @@ public class ConnectList {
 	 * @return
 	 */
 	public Integer getStatus(String addr) {
-		if(list.containsKey(addr)) {
-			return list.get(addr).getStatus();
+		final ConnectElement e = find(addr);
+		if(e != null) {
+			return e.getStatus();
 		}
 		return null;
 	}
@@ -243,8 +763,9 @@ public class ConnectList {
 	 * @return
 	 */
 	public Integer getCpuLoad(String addr) {
-		if(list.containsKey(addr)) {
-			return list.get(addr).getCpuLoad();
+		final ConnectElement e = find(addr);
+		if(e != null) {
+			return e.getCpuLoad();
 		}
 		return null;
 	}
@@ -255,8 +776,9 @@ public class ConnectList {
 	 * @return
 	 */
 	public Integer getMachineNo(String addr) {
-		if(list.containsKey(addr)) {
-			return list.get(addr).getMachineNo();
+		final ConnectElement e = find(addr);
+		if(e != null) {
+			return e.getMachineNo();
 		}
 		return null;
 	}
@@ -267,8 +789,9 @@ public class ConnectList {
 	 * @return
 	 */
 	public Long getMachineNoTime(String addr) {
-		if(list.containsKey(addr)) {
-			return list.get(addr).getMachineNoTime();
+		final ConnectElement e = find(addr);
+		if(e != null) {
+			return e.getMachineNoTime();
 		}
 		return null;
 	}
@@ -279,10 +802,7 @@ public class ConnectList {
 	 * @return
 	 */
 	public ConnectElement getElement(String addr) {
-		if(list.containsKey(addr)) {
-			return list.get(addr);
-		}
-		return null;
+		return find(addr);
 	}
 	
 	/**
@@ -291,22 +811,147 @@ public class ConnectList {
 	 * @throws IOException
 	 */
 	public long getConnectChecksum() throws IOException {
-		if(updateFlag.get()) {
-			createConnectAddrs();
-		}
 		return connectSync.get();
 	}
 	
+	/**
+	 * コネクションアドレスのチェックサムが一致するかチェック.
+	 * 一致しない場合は、チェックサム不一致数に集計されます.
+	 * @param checksum 比較するチェックサムを設定します.
+	 * @return boolean [true]の場合は一致しています.
+	 */
+	public boolean isConnectChecksum(long checksum) {
+		if(connectSync.get() == checksum) {
+			return true;
+		}
+		checksumMismatches.increment();
+		return false;
+	}
+	
+	/**
+	 * 接続管理一覧の送信数に集計.
+	 */
+	public void countFullList() {
+		fullLists.increment();
+	}
+	
+	/**
+	 * チェックサム不一致数を取得.
+	 * @return
+	 */
+	public long getChecksumMismatchCount() {
+		return checksumMismatches.sum();
+	}
+	
+	/**
+	 * 接続管理一覧の送信数を取得.
+	 * @return
+	 */
+	public long getFullListCount() {
+		return fullLists.sum();
+	}
+	
+	/**
+	 * 期限切れで非表示になった接続先数を取得.
+	 * @return
+	 */
+	public long getExpireCount() {
+		return expires.sum();
+	}
+	
+	/**
+	 * 現状のコネクションアドレス一覧の階層チェックサムを取得.
+	 * @return
+	 * @throws IOException
+	 */
+	public ConnectTree getConnectTree() throws IOException {
+		final String[] addrs = getConnectAddress();
+		ConnectTree ret = tree;
+		if(ret == null || !ret.isSource(addrs)) {
+			ret = new ConnectTree(addrs);
+			tree = ret;
+		}
+		return ret;
+	}
+	
 	/**
 	 * 現状のコネクションアドレス一覧を取得.
 	 * @return
 	 * @throws IOException
 	 */
 	public String[] getConnectAddress() throws IOException {
-		if(updateFlag.get()) {
-			return createConnectAddrs();
+		return snapshot().addrs;
+	}
+	
+	/**
+	 * 現状の接続先一覧のスナップショットを取得.
+	 * スナップショットは、接続先が変更された場合、ステータスやマシンNoが変更された場合に、
+	 * 変更したスレッドで作り直されて公開されるので、取得時に作成は行いません.
+	 * CPU負荷情報と存在確認最終時間は、refreshSnapshot の呼び出しで一定間隔で更新されます.
+	 * @return
+	 */
+	public SpiderWebSnapshot getSnapshot() {
+		return connetAddrs.get().view;
+	}
+	
+	// 参照用のスナップショットを作成.
+	// チェックサムは、接続先一覧と同じロック内で取得する.
+	private final SpiderWebSnapshot createView(Snapshot s) {
+		ConnectElement e;
+		final ConnectElement[] list = s.elements;
+		final int len = list.length;
+		final int[] status = new int[len];
+		final int[] cpuLoad = new int[len];
+		final int[] machineNo = new int[len];
+		final long[] machineNoTime = new long[len];
+		final long[] updateTime = new long[len];
+		final SpiderWebLoad[] load = new SpiderWebLoad[len];
+		for(int i = 0; i < len; i ++) {
+			e = list[i];
+			status[i] = e.getStatus();
+			cpuLoad[i] = e.getCpuLoad();
+			machineNo[i] = e.getMachineNo();
+			machineNoTime[i] = e.getMachineNoTime();
+			updateTime[i] = e.getTime();
+			load[i] = e.getLoad();
 		}
-		return connetAddrs.get();
+		return new SpiderWebSnapshot(groupName, connectSync.get(),
+			System.currentTimeMillis(), s.addrs, status, cpuLoad, machineNo, machineNoTime, updateTime, load);
+	}
+	
+	/**
+	 * キーを担当する接続先を取得.
+	 * @param key
+	 * @return String 接続先が存在しない場合は[null]が返却されます.
+	 */
+	public String owner(String key) {
+		return ring.owner(key);
+	}
+	
+	/**
+	 * キーを担当する接続先を、優先順に指定数取得.
+	 * @param key
+	 * @param n
+	 * @return
+	 */
+	public String[] owners(String key, int n) {
+		return ring.owners(key, n);
+	}
+	
+	/**
+	 * 現状のコネクションアドレス一覧の、IPv4アドレスのみをソート済みで取得.
+	 * @return
+	 */
+	public int[] getConnectIps() {
+		return snapshot().ips;
+	}
+	
+	/**
+	 * 現状のコネクションアドレス一覧の、IPv4アドレス以外のホスト名などをソート済みで取得.
+	 * @return
+	 */
+	public String[] getConnectNames() {
+		return snapshot().names;
 	}
 	
 	/**
@@ -337,6 +982,6 @@ public class ConnectList {
 	 * @return
 	 */
 	public boolean isEmpty() {
-		return list.isEmpty();
+		return ips.isEmpty() && names.isEmpty();
 	}
 }
@@ -0,0 +1,195 @@
+package spiderweb.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import spiderweb.SpiderWebLoad;
+
+/**
+ * 接続情報の変更履歴.
+ * 接続先の追加、更新、削除をバージョン付きで保持し、
+ * 指定バージョン以降の差分を取得します.
+ */
+public class ConnectLog {
+	/** デフォルトの履歴保持数. **/
+	public static final int DEF_SIZE = 1024;
+
+	/** 接続先の追加. **/
+	public static final byte OP_JOIN = 1;
+
+	/** 接続先の要素更新. **/
+	public static final byte OP_UPDATE = 2;
+
+	/** 接続先の削除. **/
+	public static final byte OP_LEAVE = 3;
+
+	// 履歴の世代.
+	// 再起動などで履歴が作り直された場合に、受信側の保持バージョンを無効にする.
+	private final long epoch;
+	private final Entry[] ring;
+	private long version = 0L;
+
+	/**
+	 * 変更履歴の要素.
+	 */
+	public static final class Entry {
+		private final long version;
+		private final byte op;
+		private final String addr;
+		private final int status;
+		private final int cpuLoad;
+		private final int machineNo;
+		private final long machineNoTime;
+		private final SpiderWebLoad load;
+		// ゴシップでの送信回数.
+		private int sent = 0;
+
+		Entry(long version, byte op, String addr, ConnectElement e) {
+			this.version = version;
+			this.op = op;
+			this.addr = addr;
+			this.status = e.getStatus();
+			this.cpuLoad = e.getCpuLoad();
+			this.machineNo = e.getMachineNo();
+			this.machineNoTime = e.getMachineNoTime();
+			this.load = e.getLoad();
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public byte getOp() {
+			return op;
+		}
+
+		public String getAddress() {
+			return addr;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public int getCpuLoad() {
+			return cpuLoad;
+		}
+
+		public int getMachineNo() {
+			return machineNo;
+		}
+
+		public long getMachineNoTime() {
+			return machineNoTime;
+		}
+
+		public SpiderWebLoad getLoad() {
+			return load;
+		}
+	}
+
+	/**
+	 * コンストラクタ.
+	 * @param size 履歴保持数を設定します.
+	 */
+	public ConnectLog(int size) {
+		if(size <= 0) {
+			size = DEF_SIZE;
+		}
+		this.ring = new Entry[size];
+		this.epoch = System.currentTimeMillis();
+	}
+
+	/**
+	 * 変更を追加.
+	 * @param op
+	 * @param addr
+	 * @param e
+	 * @return long 追加後のバージョンが返却されます.
+	 */
+	public synchronized long append(byte op, String addr, ConnectElement e) {
+		final long v = ++ version;
+		ring[(int)(v % ring.length)] = new Entry(v, op, addr, e);
+		return v;
+	}
+
+	/**
+	 * 履歴の世代を取得.
+	 * @return
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * 現在のバージョンを取得.
+	 * @return
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * ゴシップで付加する、最近の変更を取得.
+	 * 新しい変更から順に、送信回数が上限に達していないものを取得します.
+	 * 同一アドレスの変更は、最新の1件のみが対象となります.
+	 * @param max 取得する最大件数を設定します.
+	 * @param limit 1件あたりの送信回数の上限を設定します.
+	 * @return
+	 */
+	public synchronized List<Entry> piggyback(int max, int limit) {
+		final List<Entry> ret = new ArrayList<Entry>(max);
+		final Map<String, Boolean> used = new HashMap<String, Boolean>();
+		final long end = Math.max(0L, version - ring.length);
+		for(long v = version; v > end && ret.size() < max; v --) {
+			final Entry e = ring[(int)(v % ring.length)];
+			if(used.put(e.addr, Boolean.TRUE) == null && e.sent < limit) {
+				ret.add(e);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * ゴシップで送信した変更の送信回数を更新.
+	 * @param list piggyback で取得した変更を設定します.
+	 * @param len 実際に送信した件数を設定します.
+	 */
+	public synchronized void sent(List<Entry> list, int len) {
+		for(int i = 0; i < len; i ++) {
+			list.get(i).sent ++;
+		}
+	}
+
+	/**
+	 * 指定バージョン以降の差分を取得.
+	 * 同一アドレスの変更は、最新の1件にまとめられます.
+	 * 返却リストはバージョン順で、最後の要素のバージョンが差分適用後のバージョンとなります.
+	 * @param epoch 受信側が保持する履歴の世代を設定します.
+	 * @param from 受信側が保持するバージョンを設定します.
+	 * @param max 差分の最大件数を設定します.
+	 * @return List<Entry> 差分で同期できない場合は[null]が返却されます.
+	 */
+	public synchronized List<Entry> since(long epoch, long from, int max) {
+		if(epoch != this.epoch || from < 0L || from > version) {
+			return null;
+		}
+		// 履歴が上書きされている場合は、差分では同期できない.
+		if(version - from > ring.length) {
+			return null;
+		}
+		final Map<String, Entry> m = new LinkedHashMap<String, Entry>();
+		for(long v = from + 1; v <= version; v ++) {
+			final Entry e = ring[(int)(v % ring.length)];
+			m.remove(e.addr);
+			m.put(e.addr, e);
+			if(m.size() > max) {
+				return null;
+			}
+		}
+		return new ArrayList<Entry>(m.values());
+	}
+}
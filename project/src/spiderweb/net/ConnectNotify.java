@@ -0,0 +1,173 @@
+package spiderweb.net;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import spiderweb.SpiderWebConstants;
+import spiderweb.SpiderWebEvent;
+import spiderweb.SpiderWebListener;
+
+/**
+ * 接続先変更の通知処理.
+ * 接続先一覧の変更をイベント化して、登録された通知先に実行処理経由で通知します.
+ * 通知待ちの間に同一接続先の変更が続いた場合は、最新の状態にまとめます.
+ */
+public class ConnectNotify {
+	/** デフォルトのCPU利用率の通知閾値. **/
+	public static final int DEF_CPU_THRESHOLD = 10;
+	
+	private final List<SpiderWebListener> listeners = new CopyOnWriteArrayList<SpiderWebListener>();
+	private final int cpuThreshold;
+	private Executor executor;
+	// 自身で作成した実行処理.
+	private ExecutorService ownExecutor = null;
+	
+	// 通知待ちのイベント(ノードグループ名 + アドレス単位).
+	private Map<String, SpiderWebEvent> pending = new LinkedHashMap<String, SpiderWebEvent>();
+	private boolean running = false;
+	
+	// 通知待ちイベントを通知する処理.
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			Map<String, SpiderWebEvent> events;
+			while(true) {
+				synchronized(ConnectNotify.this) {
+					if(pending.isEmpty()) {
+						running = false;
+						return;
+					}
+					events = pending;
+					pending = new LinkedHashMap<String, SpiderWebEvent>();
+				}
+				final Iterator<SpiderWebEvent> it = events.values().iterator();
+				while(it.hasNext()) {
+					call(it.next());
+				}
+			}
+		}
+	};
+	
+	/**
+	 * コンストラクタ.
+	 * @param executor 通知を実行する処理を設定します. [null]の場合は、専用スレッドで通知します.
+	 * @param cpuThreshold CPU利用率の変化を通知する閾値を設定します.
+	 */
+	public ConnectNotify(Executor executor, int cpuThreshold) {
+		if(cpuThreshold <= 0) {
+			cpuThreshold = DEF_CPU_THRESHOLD;
+		}
+		this.executor = executor;
+		this.cpuThreshold = cpuThreshold;
+	}
+	
+	/**
+	 * 通知先を追加.
+	 * @param l
+	 */
+	public synchronized void addListener(SpiderWebListener l) {
+		if(executor == null) {
+			ownExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "spiderweb-notify");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor = ownExecutor;
+		}
+		listeners.add(l);
+	}
+	
+	/**
+	 * 通知先を削除.
+	 * @param l
+	 */
+	public void removeListener(SpiderWebListener l) {
+		listeners.remove(l);
+	}
+	
+	/**
+	 * 通知先が存在するかチェック.
+	 * @return
+	 */
+	public boolean isListener() {
+		return !listeners.isEmpty();
+	}
+	
+	/**
+	 * クローズ処理.
+	 */
+	public synchronized void close() {
+		listeners.clear();
+		if(ownExecutor != null) {
+			ownExecutor.shutdown();
+			ownExecutor = null;
+			executor = null;
+		}
+	}
+	
+	// CPU利用率の変化を通知するかチェック.
+	final boolean isCpuChange(ConnectElement e) {
+		return Math.abs(e.getCpuLoad() - e.getEventCpuLoad()) >= cpuThreshold;
+	}
+	
+	// イベントを追加.
+	// 通知待ちのイベントが追加、期限切れ、削除の場合に、ステータス、CPU利用率の変更が続いた場合は
+	// 通知待ちのイベントタイプのまま、最新の要素に置き換える.
+	final void fire(int type, String nodeGroupName, ConnectElement e) {
+		if(listeners.isEmpty()) {
+			return;
+		}
+		e.setEventCpuLoad(e.getCpuLoad());
+		final String addr = e.getAddress();
+		final String key = nodeGroupName + "\t" + addr;
+		synchronized(this) {
+			final SpiderWebEvent p = pending.get(key);
+			if(p != null && p.isMembership() &&
+				(type == SpiderWebEvent.TYPE_STATUS || type == SpiderWebEvent.TYPE_CPU)) {
+				type = p.getType();
+			}
+			pending.put(key, new SpiderWebEvent(type, nodeGroupName, addr, e.getStatus(), e.getCpuLoad(),
+				e.getMachineNo(), e.getMachineNoTime(), System.currentTimeMillis()));
+			if(running || executor == null) {
+				return;
+			}
+			running = true;
+		}
+		try {
+			executor.execute(drain);
+		} catch(RuntimeException re) {
+			synchronized(this) {
+				running = false;
+			}
+			if(SpiderWebConstants.DEBUG_FLAG) {
+				re.printStackTrace();
+				System.out.println();
+			}
+		}
+	}
+	
+	// 通知先を呼び出す.
+	private final void call(SpiderWebEvent event) {
+		final Iterator<SpiderWebListener> it = listeners.iterator();
+		while(it.hasNext()) {
+			try {
+				it.next().onEvent(event);
+			} catch(Throwable t) {
+				if(SpiderWebConstants.DEBUG_FLAG) {
+					t.printStackTrace();
+					System.out.println();
+				}
+			}
+		}
+	}
+}
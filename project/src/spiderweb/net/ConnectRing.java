@@ -0,0 +1,140 @@
+package spiderweb.net;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 接続先のコンシステントハッシュリング.
+ * 接続先毎に仮想ノードをリング上に配置し、キーのハッシュ値から担当する接続先を求めます.
+ * 接続先の追加、削除はその接続先の仮想ノードのみを更新し、参照はロックせずに行えます.
+ * 仮想ノードの位置は接続先アドレスのみから求めるので、全マシンで同じ担当先となります.
+ */
+public final class ConnectRing {
+	/** 1接続先あたりの仮想ノード数. **/
+	public static final int VIRTUAL_NODES = 64;
+
+	private final ConcurrentSkipListMap<Long, String> ring = new ConcurrentSkipListMap<Long, String>();
+	private final AtomicInteger size = new AtomicInteger(0);
+
+	/**
+	 * 接続先を追加.
+	 * @param addr 接続先アドレスを設定します.
+	 * @param hash 接続先アドレスのハッシュ値を設定します.
+	 */
+	public void add(String addr, long hash) {
+		for(int i = 0; i < VIRTUAL_NODES; i ++) {
+			ring.put(point(hash, i), addr);
+		}
+		size.incrementAndGet();
+	}
+
+	/**
+	 * 接続先を削除.
+	 * @param addr 接続先アドレスを設定します.
+	 * @param hash 接続先アドレスのハッシュ値を設定します.
+	 */
+	public void remove(String addr, long hash) {
+		for(int i = 0; i < VIRTUAL_NODES; i ++) {
+			ring.remove(point(hash, i), addr);
+		}
+		size.decrementAndGet();
+	}
+
+	/**
+	 * 接続先数を取得.
+	 * @return
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * キーを担当する接続先を取得.
+	 * @param key
+	 * @return String 接続先が存在しない場合は[null]が返却されます.
+	 */
+	public String owner(String key) {
+		Map.Entry<Long, String> e = ring.ceilingEntry(hash(key));
+		if(e == null && (e = ring.firstEntry()) == null) {
+			return null;
+		}
+		return e.getValue();
+	}
+
+	/**
+	 * キーを担当する接続先を、優先順に指定数取得.
+	 * リング上でキーの位置から順に、重複しない接続先を取得します.
+	 * @param key
+	 * @param n
+	 * @return String[] 接続先数が指定数より少ない場合は、全接続先が返却されます.
+	 */
+	public String[] owners(String key, int n) {
+		n = Math.max(0, Math.min(n, size.get()));
+		final String[] ret = new String[n];
+		if(n == 0) {
+			return ret;
+		}
+		final Long h = hash(key);
+		int cnt = collect(ring.tailMap(h, true).values().iterator(), ret, 0);
+		if(cnt < n) {
+			cnt = collect(ring.headMap(h, false).values().iterator(), ret, cnt);
+		}
+		if(cnt < n) {
+			final String[] tmp = new String[cnt];
+			System.arraycopy(ret, 0, tmp, 0, cnt);
+			return tmp;
+		}
+		return ret;
+	}
+
+	// 重複しない接続先を取得.
+	private static final int collect(Iterator<String> it, String[] out, int cnt) {
+		String a;
+		while(cnt < out.length && it.hasNext()) {
+			a = it.next();
+			boolean dup = false;
+			for(int i = 0; i < cnt; i ++) {
+				if(out[i].equals(a)) {
+					dup = true;
+					break;
+				}
+			}
+			if(!dup) {
+				out[cnt ++] = a;
+			}
+		}
+		return cnt;
+	}
+
+	// 仮想ノードの位置を取得.
+	private static final long point(long hash, int no) {
+		return mix(hash + (no + 1) * 0x9e3779b97f4a7c15L);
+	}
+
+	/**
+	 * キーのハッシュ値を取得.
+	 * @param key
+	 * @return
+	 */
+	public static final long hash(String key) {
+		// FNV-1a.
+		long h = 0xcbf29ce484222325L;
+		final int len = key.length();
+		for(int i = 0; i < len; i ++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	// ハッシュ値の攪拌.
+	private static final long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+}
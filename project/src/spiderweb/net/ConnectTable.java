@@ -0,0 +1,181 @@
+package spiderweb.net;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import spiderweb.SpiderWebElement;
+
+/**
+ * IPv4アドレスをキーにした接続要素テーブル.
+ * 32ビットのアドレスをそのままキーにしたオープンアドレス法のハッシュテーブルで、
+ * 取得はロックせずに行い、追加、削除のみ同期して行います.
+ * 削除は位置に削除済みを設定するだけで、削除済みはテーブルの作り直しで取り除きます.
+ */
+final class ConnectTable {
+	private static final int DEF_LENGTH = 16;
+
+	// 削除済みの位置に設定する要素.
+	// 取得時は読み飛ばして、後続の位置を探索する.
+	private static final ConnectElement REMOVED = new ConnectElement(new SpiderWebElement());
+
+	// キーと要素の配列.
+	// 要素が[null]の位置は空き、REMOVEDの位置は削除済みとなる.
+	private static final class Slots {
+		final int[] keys;
+		final AtomicReferenceArray<ConnectElement> values;
+		final int mask;
+
+		Slots(int length) {
+			keys = new int[length];
+			values = new AtomicReferenceArray<ConnectElement>(length);
+			mask = length - 1;
+		}
+	}
+
+	private volatile Slots slots = new Slots(DEF_LENGTH);
+	private volatile int size = 0;
+	private int removed = 0;
+
+	// キーの格納開始位置を取得.
+	private static final int index(int key, int mask) {
+		final int h = key * 0x9e3779b9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * 要素を取得.
+	 * @param key
+	 * @return
+	 */
+	public ConnectElement get(int key) {
+		ConnectElement v;
+		final Slots s = slots;
+		for(int i = index(key, s.mask); (v = s.values.get(i)) != null; i = (i + 1) & s.mask) {
+			if(v != REMOVED && s.keys[i] == key) {
+				return v;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 存在しない場合のみ要素を追加.
+	 * @param key
+	 * @param value
+	 * @return ConnectElement 既に存在する場合は、その要素が返却されます.
+	 */
+	public synchronized ConnectElement putIfAbsent(int key, ConnectElement value) {
+		final ConnectElement ret = get(key);
+		if(ret != null) {
+			return ret;
+		}
+		// 削除済みを含めた使用率が半分を超える場合は、テーブルを作り直す.
+		// 要素数で使用率が半分を超える場合のみ拡張し、それ以外は削除済みを取り除くだけとする.
+		Slots s = slots;
+		if((size + removed + 1) << 1 > s.keys.length) {
+			s = copy(s, ((size + 1) << 1 > s.keys.length) ? s.keys.length << 1 : s.keys.length);
+			slots = s;
+			removed = 0;
+		}
+		put(s, key, value);
+		size ++;
+		return null;
+	}
+
+	/**
+	 * 要素を削除.
+	 * 取得中の参照に影響しないよう、位置に削除済みを設定します.
+	 * @param key
+	 * @return ConnectElement 削除された要素が返却されます.
+	 */
+	public synchronized ConnectElement remove(int key) {
+		ConnectElement v;
+		final Slots s = slots;
+		for(int i = index(key, s.mask); (v = s.values.get(i)) != null; i = (i + 1) & s.mask) {
+			if(v != REMOVED && s.keys[i] == key) {
+				s.values.set(i, REMOVED);
+				size --;
+				removed ++;
+				return v;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 指定要素が格納されている場合のみ削除.
+	 * @param key
+	 * @param value
+	 * @return boolean [true]の場合、削除されました.
+	 */
+	public synchronized boolean remove(int key, ConnectElement value) {
+		if(get(key) == value) {
+			remove(key);
+			return true;
+		}
+		return false;
+	}
+	
+	// キーを格納.
+	// キーを設定してから要素を設定するので、要素が取得できた位置のキーは確定している.
+	// 取得中の参照が削除前の要素と書き換えたキーを組み合わせないよう、削除済みの位置は再利用しない.
+	private static final void put(Slots s, int key, ConnectElement value) {
+		int i = index(key, s.mask);
+		while(s.values.get(i) != null) {
+			i = (i + 1) & s.mask;
+		}
+		s.keys[i] = key;
+		s.values.set(i, value);
+	}
+
+	// 新しい長さのテーブルに、削除済み以外をコピー.
+	private static final Slots copy(Slots s, int length) {
+		ConnectElement v;
+		final Slots ret = new Slots(length);
+		final int len = s.keys.length;
+		for(int i = 0; i < len; i ++) {
+			if((v = s.values.get(i)) != null && v != REMOVED) {
+				put(ret, s.keys[i], v);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 要素数を取得.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 空かチェック.
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * 全要素を取得.
+	 * @return
+	 */
+	public ConnectElement[] elements() {
+		ConnectElement v;
+		final Slots s = slots;
+		final int len = s.keys.length;
+		ConnectElement[] ret = new ConnectElement[len];
+		int cnt = 0;
+		for(int i = 0; i < len; i ++) {
+			if((v = s.values.get(i)) != null && v != REMOVED) {
+				ret[cnt ++] = v;
+			}
+		}
+		if(cnt != len) {
+			final ConnectElement[] tmp = ret;
+			ret = new ConnectElement[cnt];
+			System.arraycopy(tmp, 0, ret, 0, cnt);
+		}
+		return ret;
+	}
+}
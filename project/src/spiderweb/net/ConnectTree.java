@@ -0,0 +1,156 @@
+package spiderweb.net;
+
+import java.io.IOException;
+
+import spiderweb.utils.CRC64;
+import spiderweb.utils.ConvIp4;
+
+/**
+ * 接続先一覧の階層チェックサム.
+ * 接続先を256個のバケットに振り分け、バケット毎のチェックサムと、
+ * 16バケット毎にまとめたノードのチェックサムを保持します.
+ * 一致しないノード、バケットを辿ることで、差分のある接続先のみを特定できます.
+ */
+public class ConnectTree {
+	/** バケット数. **/
+	public static final int BUCKETS = 256;
+
+	/** 1ノードあたりのバケット数. **/
+	public static final int WIDTH = 16;
+
+	/** ノード数. **/
+	public static final int NODES = BUCKETS / WIDTH;
+
+	// 作成元の接続先一覧.
+	private final String[] source;
+
+	// バケット順に並べた接続先一覧と、各バケットの開始位置.
+	private final String[] addrs;
+	private final int[] starts = new int[BUCKETS + 1];
+
+	private final long[] leaves = new long[BUCKETS];
+	private final long[] nodes = new long[NODES];
+	private final long root;
+
+	/**
+	 * コンストラクタ.
+	 * @param sortAddrs ソート済みの接続先一覧を設定します.
+	 * @throws IOException
+	 */
+	public ConnectTree(String[] sortAddrs) throws IOException {
+		final int len = sortAddrs.length;
+		this.source = sortAddrs;
+		this.addrs = new String[len];
+		// バケット毎に振り分ける. バケット内はソート順を維持する.
+		final int[] bs = new int[len];
+		for(int i = 0; i < len; i ++) {
+			bs[i] = bucket(sortAddrs[i]);
+			starts[bs[i] + 1] ++;
+		}
+		for(int i = 0; i < BUCKETS; i ++) {
+			starts[i + 1] += starts[i];
+		}
+		final int[] pos = new int[BUCKETS];
+		System.arraycopy(starts, 0, pos, 0, BUCKETS);
+		for(int i = 0; i < len; i ++) {
+			addrs[pos[bs[i]] ++] = sortAddrs[i];
+		}
+		// バケット毎のチェックサム.
+		// 接続先が存在しないバケットは[0]とする.
+		final byte[] b = new byte[8];
+		final CRC64 crc = new CRC64();
+		for(int i = 0; i < BUCKETS; i ++) {
+			if(starts[i] == starts[i + 1]) {
+				continue;
+			}
+			crc.reset();
+			for(int j = starts[i]; j < starts[i + 1]; j ++) {
+				if(ConvIp4.isIp(addrs[j])) {
+					ConvIp4.ipToBin(b, addrs[j]);
+					crc.update(b, 0, 4);
+				} else {
+					crc.update(addrs[j].getBytes("UTF8"));
+				}
+			}
+			leaves[i] = crc.getValue();
+		}
+		// ノード毎のチェックサムと、全体のチェックサム.
+		for(int i = 0; i < NODES; i ++) {
+			nodes[i] = hash(crc, b, leaves, i * WIDTH, WIDTH);
+		}
+		this.root = hash(crc, b, nodes, 0, NODES);
+	}
+
+	// チェックサム群のチェックサムを取得.
+	private static final long hash(CRC64 crc, byte[] b, long[] list, int off, int len) {
+		crc.reset();
+		for(int i = 0; i < len; i ++) {
+			final long v = list[off + i];
+			for(int j = 0; j < 8; j ++) {
+				b[j] = (byte)((v >> (j << 3)) & 0x00000000000000ffL);
+			}
+			crc.update(b, 0, 8);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * 接続先のバケット項番を取得.
+	 * @param addr
+	 * @return
+	 */
+	public static final int bucket(String addr) {
+		final int h = addr.hashCode();
+		return (h ^ (h >>> 8) ^ (h >>> 16) ^ (h >>> 24)) & (BUCKETS - 1);
+	}
+
+	// 指定した接続先一覧から作成されたかチェック.
+	final boolean isSource(String[] sortAddrs) {
+		return source == sortAddrs;
+	}
+
+	/**
+	 * 全体のチェックサムを取得.
+	 * @return
+	 */
+	public long getRoot() {
+		return root;
+	}
+
+	/**
+	 * ノードのチェックサムを取得.
+	 * @param no
+	 * @return
+	 */
+	public long getNode(int no) {
+		return nodes[no];
+	}
+
+	/**
+	 * バケットのチェックサムを取得.
+	 * @param no
+	 * @return
+	 */
+	public long getLeaf(int no) {
+		return leaves[no];
+	}
+
+	/**
+	 * バケット内の接続先数を取得.
+	 * @param no
+	 * @return
+	 */
+	public int getBucketSize(int no) {
+		return starts[no + 1] - starts[no];
+	}
+
+	/**
+	 * バケット内の接続先を取得.
+	 * @param no バケット項番を設定します.
+	 * @param n バケット内の項番を設定します.
+	 * @return
+	 */
+	public String getBucket(int no, int n) {
+		return addrs[starts[no] + n];
+	}
+}
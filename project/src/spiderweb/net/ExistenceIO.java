@@ -2,21 +2,31 @@ package spiderweb.net;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.SocketTimeoutException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import spiderweb.SpiderWebConstants;
 import spiderweb.SpiderWebElement;
+import spiderweb.SpiderWebLoad;
 
 /**
  * UDPによる、spiderweb生存I/O.
  * spiderwebの通信プロトコル関連の実装がまとめられています.
  */
 public class ExistenceIO {
-	private static final int TIMEOUT = 250;
+	// 受信待ちの最大待機時間.
+	// 停止時はwakeupで即時に抜けるので、この値はアイドル時の定期処理間隔となる.
+	private static final int TIMEOUT = 1000;
 	private static final byte[] ZERO_BIN = new byte[0];
 	
 	// spiderweb通信ヘッダ.
@@ -24,26 +34,102 @@ public class ExistenceIO {
 		(byte)'h', (byte)0x08, (byte)'h', (byte)0x0a, (byte)'k', (byte)0x0e
 	};
 	
+	// クラスタIDを付加する場合のspiderweb通信ヘッダ.
+	// ヘッダの後にクラスタID(4バイト)が続く.
+	private static final byte[] CLUSTER_HEAD = new byte[] {
+		(byte)'h', (byte)0x08, (byte)'h', (byte)0x0a, (byte)'k', (byte)0x0f
+	};
+	
+	// クラスタIDの長さ.
+	private static final int CLUSTER_LENGTH = 4;
+	
 	// spiderweb通信ヘッダとノード名長、データ長のオフセット値.
 	private static final int OFFSET = HEAD.length + 8;
 	
+	// 1メッセージのタイプ開始位置(ヘッダ + チェックコード).
+	private static final int FRAME_OFFSET = HEAD.length + 1;
+	
+	// 複数メッセージのメッセージ開始位置(タイプ + メッセージ数).
+	private static final int MULTI_OFFSET = FRAME_OFFSET + 3;
+	
+	/** デフォルトの1パケットの最大長(Ethernet MTU - IPヘッダ - UDPヘッダ). **/
+	public static final int DEF_MTU = 1500 - 20 - 8;
+	
+	// ページ分割された一覧のページ項番とページ数の長さ.
+	static final int PAGE_HEAD = 4;
+	
+	// 変更差分の、ページ情報と世代、差分元と差分先バージョンの長さ.
+	static final int DELTA_HEAD = PAGE_HEAD + 24;
+	
+	// 変更履歴のバージョン付きチェックサムの長さ.
+	static final int CHECKSUM_VERSION_LENGTH = 24;
+	
+	// 階層チェックサムの長さ.
+	static final int TREE_LENGTH = 2 + (ConnectTree.WIDTH << 3);
+	
+	// ゴシップの、シーケンス番号と間接探査先の長さ(間接探査先のバイナリ長は含まない).
+	static final int GOSSIP_HEAD = 6;
+	
+	// 変更差分の1件あたりの要素の最大長.
+	private static final int ENTRY_ELEMENT = 21 + SpiderWebLoad.MAX_LENGTH;
+	
 	public static final byte TYPE_BINARY = 0;			// バイナリ通信.
 	public static final byte TYPE_STRING = 1;			// 文字通信.
 	public static final byte TYPE_CONNECT = 10;			// [NodeGroup]コネクションパケット.
 	public static final byte TYPE_IPLIST = 11;			// [NodeGroup]IPアドレス一覧.
 	public static final byte TYPE_MACHINE_LIST = 12;	// [NodeGroup]マシン名一覧.
 	public static final byte TYPE_CHECKSUM = 13;		// [NodeGroup]チェックサム値.
+	public static final byte TYPE_MULTI = 14;			// 複数メッセージ.
+	public static final byte TYPE_IPLIST_PAGE = 15;		// [NodeGroup]IPアドレス一覧(ページ分割).
+	public static final byte TYPE_MACHINE_LIST_PAGE = 16;	// [NodeGroup]マシン名一覧(ページ分割).
+	public static final byte TYPE_DELTA = 17;			// [NodeGroup]接続情報の変更差分.
+	public static final byte TYPE_TREE = 18;			// [NodeGroup]階層チェックサム.
+	public static final byte TYPE_PING = 19;			// [NodeGroup]ゴシップの探査.
 	public static final byte TYPE_SUCCESS = 20;			// [NodeGroup]正常返信.
+	public static final byte TYPE_ACK = 21;				// [NodeGroup]ゴシップの探査応答.
 	public static final byte TYPE_ERROR = 29;			// [NodeGroup]異常返信.
 	
 	public static final byte TYPE_APPS = 30;			// アプリ実行タイプ.
 	
 	private boolean notReuseAddress = false;
-	private DatagramSocket receiveUdp = null;
+	private DatagramChannel receiveUdp = null;
+	private Selector selector = null;
+	private volatile DatagramChannel sendUdp = null;
 	private byte[] recvBuffer = null;
+	private ByteBuffer recvByteBuffer = null;
 	private int port = -1;
 	private InetAddress bindAddr = null;
 	private ExistenceReceiveCall call = null;
+	private ExistenceReceiveBufferCall bufferCall = null;
+	private boolean deferCall = false;
+	private ExistenceMessage legacyMessage = null;
+	private int mtu = DEF_MTU;
+	
+	// クラスタID.
+	// 0の場合は、クラスタIDを付加しない従来のヘッダで送信する.
+	private int cluster = 0;
+	
+	// 送信ヘッダ長(チェックコードの位置)と、1メッセージ、複数メッセージの開始位置.
+	private int headLength = HEAD.length;
+	private int frameOffset = FRAME_OFFSET;
+	private int packOffset = MULTI_OFFSET;
+	
+	// 送信チャネルを共有する場合の共有元.
+	private volatile ExistenceIO base = null;
+	
+	// 共有トランスポートの場合の、クラスタID毎の受信先.
+	private Map<Integer, ExistenceIO> members = null;
+	
+	// 送受信メトリクス.
+	private ExistenceMetrics metrics = null;
+	
+	// 受信中の複数メッセージの読み込み位置.
+	private int multiCount = 0;
+	private int multiOffset = 0;
+	private int multiLength = 0;
+	private SocketAddress multiFrom = null;
+	private ExistenceIO multiTarget = null;
+	private int multiCluster = 0;
 	
 	/**
 	 * コンストラクタ.
@@ -84,40 +170,52 @@ public class ExistenceIO {
 	public ExistenceIO bind(int port, InetAddress addr) throws IOException {
 		_bind(port, addr);
 		this.recvBuffer = new byte[65535];
+		this.recvByteBuffer = ByteBuffer.wrap(recvBuffer);
 		return this.setPort(port, addr);
 	}
 	
 	// バインド処理.
+	// 受信はノンブロッキングのチャネルをSelectorで監視する.
 	private final void _bind(int port, InetAddress addr) throws IOException {
-		DatagramSocket udp = null;
+		DatagramChannel udp = null;
+		Selector sel = null;
 		try {
-			udp = new DatagramSocket(null);
+			udp = DatagramChannel.open(StandardProtocolFamily.INET);
 			if(!notReuseAddress) {
 				try {
 					// このオプションで「無効な引数です」とエラーが出る場合もある.
-					udp.setReuseAddress(true);
+					udp.setOption(StandardSocketOptions.SO_REUSEADDR, true);
 				} catch(Exception e) {
 					notReuseAddress = true;
 					udp.close();
 					udp = null;
-					udp = new DatagramSocket(null);
+					udp = DatagramChannel.open(StandardProtocolFamily.INET);
 				}
 			}
-			udp.setSoTimeout(TIMEOUT);
-			udp.setBroadcast(false);
+			udp.setOption(StandardSocketOptions.SO_BROADCAST, false);
 			if(addr == null) {
 				udp.bind(new InetSocketAddress("0.0.0.0", port));
 			} else {
 				udp.bind(new InetSocketAddress(addr, port));
 			}
+			udp.configureBlocking(false);
+			sel = Selector.open();
+			udp.register(sel, SelectionKey.OP_READ);
 			this.receiveUdp = udp;
+			this.selector = sel;
 			udp = null;
+			sel = null;
 		} finally {
 			if(udp != null) {
 				try {
 					udp.close();
 				} catch(Exception e) {}
 			}
+			if(sel != null) {
+				try {
+					sel.close();
+				} catch(Exception e) {}
+			}
 		}
 	}
 	
@@ -125,11 +223,37 @@ public class ExistenceIO {
 	 * UDP受信用のバインドクローズ.
 	 */
 	public void close() {
+		if(selector != null) {
+			try {
+				selector.close();
+			} catch(Exception e) {}
+			selector = null;
+		}
 		if(receiveUdp != null) {
-			receiveUdp.close();
+			try {
+				receiveUdp.close();
+			} catch(Exception e) {}
 			receiveUdp = null;
 		}
+		if(sendUdp != null) {
+			try {
+				sendUdp.close();
+			} catch(Exception e) {}
+			sendUdp = null;
+		}
 		recvBuffer = null;
+		recvByteBuffer = null;
+	}
+	
+	/**
+	 * 受信待ちを解除.
+	 * 受信待機中のスレッドを即時に復帰させます.
+	 */
+	public void wakeup() {
+		final Selector sel = selector;
+		if(sel != null) {
+			sel.wakeup();
+		}
 	}
 	
 	/**
@@ -150,6 +274,90 @@ public class ExistenceIO {
 		return this.call;
 	}
 	
+	/**
+	 * ByteBufferで受け取るカスタム受信処理を設定.
+	 * ExistenceReceiveCallと両方設定されている場合は、こちらが優先されます.
+	 * @param call
+	 * @return
+	 */
+	public ExistenceIO setExistenceReceiveBufferCall(ExistenceReceiveBufferCall call) {
+		this.bufferCall = call;
+		return this;
+	}
+	
+	/**
+	 * ByteBufferで受け取るカスタム受信処理を取得.
+	 * @return
+	 */
+	public ExistenceReceiveBufferCall getExistenceReceiveBufferCall() {
+		return this.bufferCall;
+	}
+	
+	/**
+	 * カスタム受信処理の呼び出しを、受信時に行わないように設定.
+	 * [true]の場合、カスタムデータは受信時に検証のみ行い、
+	 * 呼び出し元が receiveCall でカスタム受信処理を呼び出します.
+	 * @param deferCall
+	 * @return
+	 */
+	public ExistenceIO setDeferCall(boolean deferCall) {
+		this.deferCall = deferCall;
+		return this;
+	}
+	
+	/**
+	 * カスタム受信処理の呼び出しを、受信時に行わない設定かチェック.
+	 * @return
+	 */
+	public boolean isDeferCall() {
+		return deferCall;
+	}
+	
+	/**
+	 * 受信パケットから複製したメッセージを、受信メッセージに設定.
+	 * setDeferCall で受信時の呼び出しを行わない場合に、受信スレッドで検証済みのメッセージを
+	 * 別スレッドの受信メッセージに設定します.
+	 * @param msg 受信内容を設定する受信メッセージを設定します.
+	 * @param b 複製したバイナリを設定します.
+	 * @param off メッセージの開始位置を設定します.
+	 * @param end メッセージの終了位置を設定します.
+	 * @param packetLength 受信パケット全体を複製している場合はその長さ、メッセージのみの場合は[end]を設定します.
+	 * @param from 受信元を設定します.
+	 * @param cluster 受信したクラスタIDを設定します.
+	 * @return boolean [true]の場合は、メッセージが設定されました.
+	 */
+	public boolean decode(ExistenceMessage msg, byte[] b, int off, int end, int packetLength,
+		InetSocketAddress from, int cluster) {
+		if(!msg.set(b, off, end, packetLength, from)) {
+			return false;
+		}
+		msg.setCluster(cluster);
+		return true;
+	}
+	
+	/**
+	 * カスタム受信処理を呼び出す.
+	 * setDeferCall で受信時の呼び出しを行わない場合に、受信スレッド以外で呼び出します.
+	 * ExistenceReceiveCallに渡すパケットは、受信時の呼び出しと同じく参照先の先頭から受信パケット全体の長さとなるので、
+	 * 受信パケット全体を複製した受信メッセージに対して呼び出してください.
+	 * @param msg 対象の受信メッセージを設定します.
+	 * @return Object カスタム受信処理の結果が返却されます.
+	 * @throws IOException
+	 */
+	public Object receiveCall(ExistenceMessage msg) throws IOException {
+		final int t = msg.getType();
+		if(t <= TYPE_APPS) {
+			return null;
+		} else if(bufferCall != null) {
+			msg.setAppData(bufferCall.get(t, msg.getSocketAddress(), msg.getData()));
+		} else if(call != null) {
+			final byte[] b = msg.getBuffer();
+			msg.setAppData(call.get(t, new DatagramPacket(b, 0, msg.getPacketLength(), msg.getSocketAddress()),
+				b, msg.getDataOffset(), msg.getDataLength()));
+		}
+		return msg.getAppData();
+	}
+	
 	/**
 	 * ポート番号を設定.
 	 * (bindしない場合のデフォルトポート番号を設定します)
@@ -179,6 +387,113 @@ public class ExistenceIO {
 		return bindAddr;
 	}
 	
+	/**
+	 * クラスタIDを設定.
+	 * 0以外の場合は送信ヘッダにクラスタIDを付加し、受信時はクラスタIDが一致するメッセージのみ受け取ります.
+	 * @param cluster クラスタIDを設定します. 0の場合は、クラスタIDを付加しない従来のヘッダで送信します.
+	 * @return
+	 */
+	public ExistenceIO setCluster(int cluster) {
+		if(cluster < 0) {
+			cluster = 0;
+		}
+		this.cluster = cluster;
+		this.headLength = (cluster == 0) ? HEAD.length : CLUSTER_HEAD.length + CLUSTER_LENGTH;
+		this.frameOffset = headLength + 1;
+		this.packOffset = frameOffset + 3;
+		return this;
+	}
+	
+	/**
+	 * クラスタIDを取得.
+	 * @return
+	 */
+	public int getCluster() {
+		return cluster;
+	}
+	
+	/**
+	 * 送信チャネルを共有.
+	 * 指定したExistenceIOの送信チャネルとポート番号で送信します.
+	 * @param base 共有元のExistenceIOを設定します.
+	 * @return
+	 */
+	public ExistenceIO share(ExistenceIO base) {
+		this.base = base;
+		return setPort(base.port, base.bindAddr);
+	}
+	
+	/**
+	 * 共有トランスポートに、クラスタIDの受信先を登録.
+	 * バインドしたこのExistenceIOで受信したメッセージを、ヘッダのクラスタID毎に振り分けます.
+	 * 受信先のカスタム受信処理は、受信先に設定されたものが呼び出されます.
+	 * 受信先は、このExistenceIOの送信チャネルを共有します.
+	 * @param member 受信先を設定します.
+	 * @return boolean [false]の場合は、同じクラスタIDの受信先が既に登録されています.
+	 */
+	public synchronized boolean attach(ExistenceIO member) {
+		if(members == null) {
+			members = new ConcurrentHashMap<Integer, ExistenceIO>();
+		}
+		if(members.putIfAbsent(member.cluster, member) != null) {
+			return false;
+		}
+		member.share(this);
+		return true;
+	}
+	
+	/**
+	 * 共有トランスポートから、受信先の登録を解除.
+	 * @param member 受信先を設定します.
+	 */
+	public synchronized void detach(ExistenceIO member) {
+		if(members != null) {
+			members.remove(member.cluster, member);
+		}
+	}
+	
+	/**
+	 * 送受信メトリクスを設定.
+	 * 共有トランスポートの場合、メッセージ単位の受信は受信先のメトリクスに、
+	 * パケット単位の受信は共有トランスポートのメトリクスに集計されます.
+	 * @param metrics 集計先を設定します. [null]の場合は集計しません.
+	 * @return
+	 */
+	public ExistenceIO setMetrics(ExistenceMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+	
+	/**
+	 * 送受信メトリクスを取得.
+	 * @return
+	 */
+	public ExistenceMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * 1パケットの最大長を設定.
+	 * 複数メッセージをまとめて送信する場合に、この長さを超えないようにまとめます.
+	 * @param mtu
+	 * @return
+	 */
+	public ExistenceIO setMtu(int mtu) {
+		if(mtu <= 0) {
+			mtu = DEF_MTU;
+		}
+		this.mtu = mtu;
+		return this;
+	}
+	
+	/**
+	 * 1パケットの最大長を取得.
+	 * @return
+	 */
+	public int getMtu() {
+		return mtu;
+	}
+	
 	/**
 	 * TYPE_CONNECTのデータ設定.
 	 * @param sendBuf
@@ -258,15 +573,28 @@ public class ExistenceIO {
 	 * @throws IOException
 	 */
 	public ExistenceIO sendIPListData(SendBuffer sendBuf, String nodeGroupName, SpiderWebElement em, List<Integer> ipList)
+		throws IOException {
+		return sendIPListData(sendBuf, nodeGroupName, em, toArray(ipList));
+	}
+	
+	/**
+	 * IPリストデータの設定.
+	 * @param sendBuf
+	 * @param nodeGroupName
+	 * @param em
+	 * @param ipList
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceIO sendIPListData(SendBuffer sendBuf, String nodeGroupName, SpiderWebElement em, int[] ipList)
 		throws IOException {
 		int ip;
 		int off;
 		byte[] nodeGroupBin = nodeGroupName.getBytes("UTF8");
 		int nodeLen = nodeGroupBin.length;
-		int len = ipList.size();
+		int len = ipList.length;
 		final byte[] sendBuffer = sendBuf.sendBuffer;
-		System.arraycopy(HEAD, 0, sendBuffer, 0, HEAD.length);
-		off = HEAD.length;
+		off = putHead(sendBuffer);
 		sendBuffer[off++] = 0;
 		sendBuffer[off++] = TYPE_IPLIST;
 		sendBuffer[off++] = (byte)(nodeLen & 0x000000ff);
@@ -279,14 +607,15 @@ public class ExistenceIO {
 		sendBuffer[off++] = (byte)(len & 0x000000ff);
 		sendBuffer[off++] = (byte)((len & 0x0000ff00) >> 8);
 		for(int i = 0; i < len; i ++) {
-			ip = ipList.get(i);
+			ip = ipList[i];
 			sendBuffer[off++] = (byte)(ip & 0x000000ff);
 			sendBuffer[off++] = (byte)((ip & 0x0000ff00) >> 8);
 			sendBuffer[off++] = (byte)((ip & 0x00ff0000) >> 16);
 			sendBuffer[off++] = (byte)((ip & 0xff000000) >> 24);
 		}
 		sendBuf.sendBufferLength = off;
-		sendBuffer[HEAD.length] = checkSendCode(sendBuffer, off);
+		sendBuffer[headLength] = checkSendCode(sendBuffer, off);
+		sendBuf.updateSend();
 		return this;
 	}
 	
@@ -330,6 +659,314 @@ public class ExistenceIO {
 		return sendMachineListData(sendBuf, nodeGroupName, em, list);
 	}
 	
+	/**
+	 * IPリストを、1パケットの最大長に収まるページに分割してまとめて送信.
+	 * 1ページに収まる場合は、TYPE_IPLISTとして送信します.
+	 * まとめたメッセージは、最後に flush を呼び出して送信する必要があります.
+	 * @param sendBuf
+	 * @param nodeGroupName
+	 * @param em
+	 * @param ipList
+	 * @param addr
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceIO packIPList(SendBuffer sendBuf, String nodeGroupName, SpiderWebElement em,
+		List<Integer> ipList, Object addr) throws IOException {
+		return packIPList(sendBuf, nodeGroupName, em, toArray(ipList), addr);
+	}
+	
+	/**
+	 * IPリストを、1パケットの最大長に収まるページに分割してまとめて送信.
+	 * 1ページに収まる場合は、TYPE_IPLISTとして送信します.
+	 * まとめたメッセージは、最後に flush を呼び出して送信する必要があります.
+	 * @param sendBuf
+	 * @param nodeGroupName
+	 * @param em
+	 * @param ipList
+	 * @param addr
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceIO packIPList(SendBuffer sendBuf, String nodeGroupName, SpiderWebElement em,
+		int[] ipList, Object addr) throws IOException {
+		final int len = ipList.length;
+		final int head = _listHead(sendBuf, TYPE_IPLIST_PAGE, nodeGroupName, em);
+		final int limit = pageDataLength(head);
+		final int max = (limit - PAGE_HEAD) >> 2;
+		if(max <= 0) {
+			throw new IOException("The node group name is too long for mtu(" + mtu + ").");
+		}
+		if((len << 2) <= limit) {
+			return sendIPListData(sendBuf, nodeGroupName, em, ipList).pack(sendBuf, addr);
+		}
+		int ip, off, n;
+		final int pageCount = (len + max - 1) / max;
+		final byte[] b = sendBuf.sendBuffer;
+		for(int p = 0, i = 0; p < pageCount; p ++) {
+			n = Math.min(max, len - i);
+			off = putPageHead(b, head + 2, p, pageCount);
+			for(int j = 0; j < n; j ++, i ++) {
+				ip = ipList[i];
+				b[off++] = (byte)(ip & 0x000000ff);
+				b[off++] = (byte)((ip & 0x0000ff00) >> 8);
+				b[off++] = (byte)((ip & 0x00ff0000) >> 16);
+				b[off++] = (byte)((ip & 0xff000000) >> 24);
+			}
+			_listEnd(sendBuf, head, off);
+			pack(sendBuf, addr);
+		}
+		return this;
+	}
+	
+	// IPリストをint配列に変換.
+	private static final int[] toArray(List<Integer> ipList) {
+		final int len = ipList.size();
+		final int[] ret = new int[len];
+		for(int i = 0; i < len; i ++) {
+			ret[i] = ipList.get(i);
+		}
+		return ret;
+	}
+	
+	/**
+	 * マシン名リストを、1パケットの最大長に収まるページに分割してまとめて送信.
+	 * 1ページに収まる場合は、TYPE_MACHINE_LISTとして送信します.
+	 * まとめたメッセージは、最後に flush を呼び出して送信する必要があります.
+	 * @param sendBuf
+	 * @param nodeGroupName
+	 * @param em
+	 * @param data
+	 * @param addr
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceIO packMachineList(SendBuffer sendBuf, String nodeGroupName, SpiderWebElement em,
+		List<String> data, Object addr) throws IOException {
+		final int len = data.size();
+		final int head = _listHead(sendBuf, TYPE_MACHINE_LIST_PAGE, nodeGroupName, em);
+		final int limit = pageDataLength(head);
+		final int max = limit - PAGE_HEAD;
+		// 各マシン名のバイナリ化と、ページ数の算出.
+		// allはカンマ区切りで1メッセージにした場合のデータ長.
+		int all = -1, page = 0, pageCount = 1;
+		final byte[][] names = new byte[len][];
+		for(int i = 0; i < len; i ++) {
+			names[i] = data.get(i).getBytes("UTF8");
+			if(names[i].length + 2 > max) {
+				throw new IOException("The machine name is too long for mtu(" + mtu + "): " + data.get(i));
+			}
+			all += names[i].length + 1;
+			if(page + names[i].length + 2 > max) {
+				pageCount ++;
+				page = 0;
+			}
+			page += names[i].length + 2;
+		}
+		if(all <= limit) {
+			return sendMachineListData(sendBuf, nodeGroupName, em, data).pack(sendBuf, addr);
+		}
+		int off, n;
+		final byte[] b = sendBuf.sendBuffer;
+		for(int p = 0, i = 0; p < pageCount; p ++) {
+			off = putPageHead(b, head + 2, p, pageCount);
+			page = 0;
+			for(; i < len && page + names[i].length + 2 <= max; i ++) {
+				n = names[i].length;
+				b[off++] = (byte)(n & 0x000000ff);
+				b[off++] = (byte)((n & 0x0000ff00) >> 8);
+				System.arraycopy(names[i], 0, b, off, n);
+				off += n;
+				page += n + 2;
+			}
+			_listEnd(sendBuf, head, off);
+			pack(sendBuf, addr);
+		}
+		return this;
+	}
+	
+	/**
+	 * 接続情報の変更差分を、1パケットの最大長に収まるページに分割してまとめて送信.
+	 * 差分が0件の場合も、バージョン通知として1ページ送信します.
+	 * まとめたメッセージは、最後に flush を呼び出して送信する必要があります.
+	 * @param sendBuf
+	 * @param nodeGroupName
+	 * @param em
+	 * @param epoch 変更履歴の世代を設定します.
+	 * @param from 差分元のバージョンを設定します. [-1]の場合は、接続管理一覧を送信済みである事を示します.
+	 * @param to 差分適用後のバージョンを設定します.
+	 * @param delta
+	 * @param addr
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceIO packDelta(SendBuffer sendBuf, String nodeGroupName, SpiderWebElement em,
+		long epoch, long from, long to, List<ConnectLog.Entry> delta, Object addr) throws IOException {
+		final int len = (delta == null) ? 0 : delta.size();
+		final int head = _listHead(sendBuf, TYPE_DELTA, nodeGroupName, em);
+		final int max = pageDataLength(head) - DELTA_HEAD;
+		// 各変更のバイナリ化と、ページ数の算出.
+		int off = 0, page = 0, pageCount = 1, n;
+		byte[] addrBin;
+		// 各変更は、操作種別とアドレス長の3バイト、アドレス、最大[ENTRY_ELEMENT]バイトの要素情報となる.
+		// 初期サイズはIPv4アドレス(最大15バイト)で見積もり、長いアドレスの場合は拡張する.
+		byte[] body = new byte[len * (3 + 15 + ENTRY_ELEMENT)];
+		final int[] ends = new int[len];
+		final SpiderWebElement e = new SpiderWebElement();
+		for(int i = 0; i < len; i ++) {
+			final ConnectLog.Entry d = delta.get(i);
+			addrBin = d.getAddress().getBytes("UTF8");
+			n = addrBin.length;
+			if(off + 3 + n + ENTRY_ELEMENT > body.length) {
+				final byte[] t = new byte[(off + 3 + n + ENTRY_ELEMENT) << 1];
+				System.arraycopy(body, 0, t, 0, off);
+				body = t;
+			}
+			final int start = off;
+			off = putEntry(body, off, d, addrBin, e);
+			ends[i] = off;
+			if(off - start > max) {
+				throw new IOException("The address is too long for mtu(" + mtu + "): " + d.getAddress());
+			}
+			if(page + (off - start) > max) {
+				pageCount ++;
+				page = 0;
+			}
+			page += off - start;
+		}
+		final byte[] b = sendBuf.sendBuffer;
+		for(int p = 0, i = 0, start = 0; p < pageCount; p ++) {
+			off = putPageHead(b, head + 2, p, pageCount);
+			putLong(b, off, epoch);
+			putLong(b, off + 8, from);
+			putLong(b, off + 16, to);
+			off += 24;
+			// ページに収まる変更までを書き込む.
+			while(i < len && ends[i] - start <= max) {
+				i ++;
+			}
+			n = ((i == 0) ? 0 : ends[i - 1]) - start;
+			System.arraycopy(body, start, b, off, n);
+			off += n;
+			start += n;
+			_listEnd(sendBuf, head, off);
+			pack(sendBuf, addr);
+		}
+		return this;
+	}
+	
+	/**
+	 * ゴシップの探査、探査応答を、最近の変更を付加してまとめて送信.
+	 * 1パケットの最大長に収まる分だけ変更を付加します.
+	 * まとめたメッセージは、最後に flush を呼び出して送信する必要があります.
+	 * @param sendBuf
+	 * @param type TYPE_PING か TYPE_ACK を設定します.
+	 * @param nodeGroupName
+	 * @param em
+	 * @param seq 探査のシーケンス番号を設定します.
+	 * @param target 間接探査の場合は、探査先のアドレスを設定します.
+	 * @param piggyback 付加する変更を設定します.
+	 * @param addr
+	 * @return int 付加した変更数が返却されます.
+	 * @throws IOException
+	 */
+	public int packGossip(SendBuffer sendBuf, byte type, String nodeGroupName, SpiderWebElement em,
+		int seq, String target, List<ConnectLog.Entry> piggyback, Object addr) throws IOException {
+		final int head = _listHead(sendBuf, type, nodeGroupName, em);
+		final int limit = head + 2 + pageDataLength(head);
+		final byte[] targetBin = (target == null) ? ZERO_BIN : target.getBytes("UTF8");
+		final byte[] b = sendBuf.sendBuffer;
+		int off = head + 2;
+		b[off++] = (byte)(seq & 0x000000ff);
+		b[off++] = (byte)((seq & 0x0000ff00) >> 8);
+		b[off++] = (byte)((seq & 0x00ff0000) >> 16);
+		b[off++] = (byte)((seq & 0xff000000) >> 24);
+		b[off++] = (byte)(targetBin.length & 0x000000ff);
+		b[off++] = (byte)((targetBin.length & 0x0000ff00) >> 8);
+		System.arraycopy(targetBin, 0, b, off, targetBin.length);
+		off += targetBin.length;
+		int ret = 0;
+		if(piggyback != null) {
+			byte[] addrBin;
+			final SpiderWebElement e = new SpiderWebElement();
+			final int len = piggyback.size();
+			for(; ret < len; ret ++) {
+				final ConnectLog.Entry d = piggyback.get(ret);
+				addrBin = d.getAddress().getBytes("UTF8");
+				if(off + 3 + addrBin.length + ENTRY_ELEMENT > limit) {
+					break;
+				}
+				off = putEntry(b, off, d, addrBin, e);
+			}
+		}
+		_listEnd(sendBuf, head, off);
+		pack(sendBuf, addr);
+		return ret;
+	}
+	
+	// 変更差分の1件を設定.
+	// [種別][2バイトのアドレス長][アドレス][要素]の形式で設定する.
+	private static final int putEntry(byte[] b, int off, ConnectLog.Entry d, byte[] addrBin, SpiderWebElement work) {
+		final int n = addrBin.length;
+		b[off++] = d.getOp();
+		b[off++] = (byte)(n & 0x000000ff);
+		b[off++] = (byte)((n & 0x0000ff00) >> 8);
+		System.arraycopy(addrBin, 0, b, off, n);
+		off += n;
+		work.set(d.getStatus(), d.getCpuLoad(), d.getMachineNo(), d.getMachineNoTime(), d.getLoad());
+		return off + SpiderWebElement.encodeBinary(b, off, work);
+	}
+	
+	// ページ分割用のヘッダを送信データ用バッファに作成.
+	// データ長の設定位置を返却する.
+	private final int _listHead(SendBuffer sendBuf, byte type, String nodeGroupName, SpiderWebElement em)
+		throws IOException {
+		final byte[] nodeGroupBin = nodeGroupName.getBytes("UTF8");
+		final int nodeLen = nodeGroupBin.length;
+		final byte[] b = sendBuf.sendBuffer;
+		int off = putHead(b);
+		b[off++] = 0;
+		b[off++] = type;
+		b[off++] = (byte)(nodeLen & 0x000000ff);
+		b[off++] = (byte)((nodeLen & 0x0000ff00) >> 8);
+		System.arraycopy(nodeGroupBin, 0, b, off, nodeLen);
+		off += nodeLen;
+		return off + SpiderWebElement.encodeBinary(b, off, em);
+	}
+	
+	// ページ分割用のデータ長とチェックコードを設定.
+	private final void _listEnd(SendBuffer sendBuf, int head, int end) {
+		final byte[] b = sendBuf.sendBuffer;
+		final int dataLen = end - (head + 2);
+		b[head] = (byte)(dataLen & 0x000000ff);
+		b[head + 1] = (byte)((dataLen & 0x0000ff00) >> 8);
+		b[headLength] = 0;
+		b[headLength] = checkSendCode(b, end);
+		sendBuf.sendBufferLength = end;
+		sendBuf.updateSend();
+	}
+	
+	// 複数メッセージにまとめた場合でも、1パケットの最大長に収まるデータ長を取得.
+	private final int pageDataLength(int head) {
+		return mtu - (packOffset + 2) - (head + 2 - frameOffset);
+	}
+	
+	// long値を設定.
+	private static final void putLong(byte[] b, int off, long v) {
+		for(int i = 0; i < 8; i ++) {
+			b[off + i] = (byte)((v >> (i << 3)) & 0x00000000000000ffL);
+		}
+	}
+	
+	// ページ項番とページ数を設定.
+	private static final int putPageHead(byte[] b, int off, int pageNo, int pageCount) {
+		b[off++] = (byte)(pageNo & 0x000000ff);
+		b[off++] = (byte)((pageNo & 0x0000ff00) >> 8);
+		b[off++] = (byte)(pageCount & 0x000000ff);
+		b[off++] = (byte)((pageCount & 0x0000ff00) >> 8);
+		return off;
+	}
+	
 	/**
 	 * チェックサムデータの設定.
 	 * @param sendBuf
@@ -354,6 +991,50 @@ public class ExistenceIO {
 		});
 	}
 	
+	/**
+	 * 変更履歴のバージョン付きチェックサムデータの設定.
+	 * 受信側は、チェックサムが一致しない場合に指定バージョン以降の変更差分を返信します.
+	 * @param sendBuf
+	 * @param nodeGroupName
+	 * @param em
+	 * @param code
+	 * @param epoch 送信先の変更履歴で、反映済みの世代を設定します.
+	 * @param version 送信先の変更履歴で、反映済みのバージョンを設定します.
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceIO sendChecksumData(SendBuffer sendBuf, String nodeGroupName, SpiderWebElement em, long code,
+		long epoch, long version) throws IOException {
+		final byte[] b = new byte[CHECKSUM_VERSION_LENGTH];
+		putLong(b, 0, code);
+		putLong(b, 8, epoch);
+		putLong(b, 16, version);
+		return _sendData(sendBuf, TYPE_CHECKSUM, nodeGroupName, em, b);
+	}
+	
+	/**
+	 * 階層チェックサムデータの設定.
+	 * level=1の場合は全ノードのチェックサム、level=2の場合は指定ノード内のバケットのチェックサムを設定します.
+	 * @param sendBuf
+	 * @param nodeGroupName
+	 * @param em
+	 * @param tree
+	 * @param level
+	 * @param no level=2の場合のノード項番を設定します.
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceIO sendTreeData(SendBuffer sendBuf, String nodeGroupName, SpiderWebElement em,
+		ConnectTree tree, int level, int no) throws IOException {
+		final byte[] b = new byte[TREE_LENGTH];
+		b[0] = (byte)level;
+		b[1] = (byte)no;
+		for(int i = 0; i < ConnectTree.WIDTH; i ++) {
+			putLong(b, 2 + (i << 3), (level == 1) ? tree.getNode(i) : tree.getLeaf(no * ConnectTree.WIDTH + i));
+		}
+		return _sendData(sendBuf, TYPE_TREE, nodeGroupName, em, b);
+	}
+	
 	/**
 	 * 正常データの設定.
 	 * @param sendBuf
@@ -463,8 +1144,7 @@ public class ExistenceIO {
 		} else {
 			buf = sendBuf.sendBuffer;
 		}
-		System.arraycopy(HEAD, 0, buf, 0, HEAD.length);
-		off = HEAD.length;
+		off = putHead(buf);
 		buf[off++] = 0;
 		buf[off++] = type;
 		buf[off++] = (byte)(nodeLen & 0x000000ff);
@@ -481,13 +1161,30 @@ public class ExistenceIO {
 		}
 		if(type == TYPE_CONNECT && sendBuf.connectBuffer != null) {
 			sendBuf.connectBufferLength = off + bLen;
+			sendBuf.updateConnect();
 		} else {
 			sendBuf.sendBufferLength = off + bLen;
+			sendBuf.updateSend();
 		}
-		buf[HEAD.length] = checkSendCode(buf, off + bLen);
+		buf[headLength] = checkSendCode(buf, off + bLen);
 		return this;
 	}
 	
+	// 送信ヘッダを設定して、チェックコードの位置を返却.
+	private final int putHead(byte[] b) {
+		if(cluster == 0) {
+			System.arraycopy(HEAD, 0, b, 0, HEAD.length);
+		} else {
+			System.arraycopy(CLUSTER_HEAD, 0, b, 0, CLUSTER_HEAD.length);
+			final int off = CLUSTER_HEAD.length;
+			b[off] = (byte)(cluster & 0x000000ff);
+			b[off + 1] = (byte)((cluster & 0x0000ff00) >> 8);
+			b[off + 2] = (byte)((cluster & 0x00ff0000) >> 16);
+			b[off + 3] = (byte)((cluster & 0xff000000) >> 24);
+		}
+		return headLength;
+	}
+	
 	// チェックコードを生成.
 	private static final byte checkSendCode(byte[] b, int len) {
 		int ret = 99;
@@ -504,11 +1201,7 @@ public class ExistenceIO {
 	 * @throws IOException
 	 */
 	public void connect(SendBuffer sendBuf, Object addr) throws IOException {
-		if(sendBuf.connectBuffer != null) {
-			_send(addr, this.port, sendBuf.connectBuffer, sendBuf.connectBufferLength);
-		} else {
-			_send(addr, this.port, sendBuf.sendBuffer, sendBuf.sendBufferLength);
-		}
+		connect(sendBuf, addr, this.port);
 	}
 	
 	/**
@@ -520,9 +1213,11 @@ public class ExistenceIO {
 	 */
 	public void connect(SendBuffer sendBuf, Object addr, int port) throws IOException {
 		if(sendBuf.connectBuffer != null) {
-			_send(addr, port, sendBuf.connectBuffer, sendBuf.connectBufferLength);
+			countSent(sendBuf.connectBuffer, sendBuf.connectBufferLength);
+			_send(addr, port, sendBuf.connectDirect());
 		} else {
-			_send(addr, port, sendBuf.sendBuffer, sendBuf.sendBufferLength);
+			countSent(sendBuf.sendBuffer, sendBuf.sendBufferLength);
+			_send(addr, port, sendBuf.sendDirect());
 		}
 	}
 	
@@ -533,7 +1228,7 @@ public class ExistenceIO {
 	 * @throws IOException
 	 */
 	public void send(SendBuffer sendBuf, Object addr) throws IOException {
-		_send(addr, this.port, sendBuf.sendBuffer, sendBuf.sendBufferLength);
+		send(sendBuf, addr, this.port);
 	}
 	
 	/**
@@ -544,34 +1239,145 @@ public class ExistenceIO {
 	 * @throws IOException
 	 */
 	public void send(SendBuffer sendBuf, Object addr, int port) throws IOException {
-		_send(addr, port, sendBuf.sendBuffer, sendBuf.sendBufferLength);
+		countSent(sendBuf.sendBuffer, sendBuf.sendBufferLength);
+		_send(addr, port, sendBuf.sendDirect());
+	}
+	
+	// 送信メッセージを集計.
+	private final void countSent(byte[] b, int len) {
+		final ExistenceMetrics m = metrics;
+		if(m != null) {
+			m.sent(b[frameOffset] & 0x000000ff, len - frameOffset);
+		}
+	}
+	
+	/**
+	 * 送信バッファデータを、複数メッセージとしてまとめて送信.
+	 * 送信先が前回と異なる場合や、まとめたメッセージ長が1パケットの最大長を超える場合は
+	 * それまでにまとめたメッセージを送信します.
+	 * まとめたメッセージは、最後に flush を呼び出して送信する必要があります.
+	 * @param sendBuf
+	 * @param addr
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceIO pack(SendBuffer sendBuf, Object addr) throws IOException {
+		if(sendBuf.packCount > 0 && !addr.equals(sendBuf.packAddr)) {
+			flush(sendBuf);
+		}
+		final int frameLen = sendBuf.sendBufferLength - frameOffset;
+		// 単体で1パケットの最大長を超える場合は、まとめずに送信.
+		if(packOffset + 2 + frameLen > mtu) {
+			flush(sendBuf);
+			send(sendBuf, addr);
+			return this;
+		}
+		if(sendBuf.packCount > 0 && sendBuf.packBufferLength + 2 + frameLen > mtu) {
+			flush(sendBuf);
+		}
+		if(sendBuf.packBuffer == null) {
+			sendBuf.packBuffer = new byte[65535];
+		}
+		final byte[] b = sendBuf.packBuffer;
+		int off = (sendBuf.packCount == 0) ? packOffset : sendBuf.packBufferLength;
+		b[off++] = (byte)(frameLen & 0x000000ff);
+		b[off++] = (byte)((frameLen & 0x0000ff00) >> 8);
+		System.arraycopy(sendBuf.sendBuffer, frameOffset, b, off, frameLen);
+		sendBuf.packBufferLength = off + frameLen;
+		sendBuf.packCount ++;
+		countSent(sendBuf.sendBuffer, sendBuf.sendBufferLength);
+		sendBuf.packAddr = addr;
+		return this;
+	}
+	
+	/**
+	 * まとめたメッセージを送信.
+	 * まとめたメッセージが1件の場合は、通常の1メッセージとして送信します.
+	 * @param sendBuf
+	 * @throws IOException
+	 */
+	public void flush(SendBuffer sendBuf) throws IOException {
+		final int cnt = sendBuf.packCount;
+		if(cnt == 0) {
+			return;
+		}
+		final Object addr = sendBuf.packAddr;
+		final byte[] b = sendBuf.packBuffer;
+		sendBuf.packCount = 0;
+		sendBuf.packAddr = null;
+		if(cnt == 1) {
+			// 1件の場合は、複数メッセージに対応していない受信先でも受け取れる形式で送信.
+			final int frameLen = sendBuf.packBufferLength - (packOffset + 2);
+			System.arraycopy(b, packOffset + 2, b, frameOffset, frameLen);
+			sendBuf.packBufferLength = frameOffset + frameLen;
+		} else {
+			b[frameOffset] = TYPE_MULTI;
+			b[frameOffset + 1] = (byte)(cnt & 0x000000ff);
+			b[frameOffset + 2] = (byte)((cnt & 0x0000ff00) >> 8);
+		}
+		putHead(b);
+		b[headLength] = 0;
+		b[headLength] = checkSendCode(b, sendBuf.packBufferLength);
+		_send(addr, this.port, sendBuf.packDirect());
 	}
 	
 	// 汎用送信処理.
-	private final void _send(Object addr, int port, byte[] b, int len)
+	// 送信用のUDPチャネルは、送信毎に作成せず使い回す.
+	// 送信チャネルを共有している場合は、共有元の送信チャネルで送信する.
+	private final void _send(Object addr, int port, ByteBuffer b)
 		throws IOException {
 		InetAddress inetAddr = (addr instanceof InetAddress) ? (InetAddress)addr : InetAddress.getByName(""+addr);
-		DatagramSocket s = null;
+		final ExistenceIO io = (base != null) ? base : this;
+		final ExistenceMetrics m = metrics;
+		DatagramChannel s = io.sendUdp;
+		if(s == null) {
+			s = io._openSend();
+		}
 		try {
-			s = new DatagramSocket(null);
+			if(m != null) {
+				m.sentPacket(b.remaining());
+			}
+			s.send(b, new InetSocketAddress(inetAddr, port));
+		} catch(IOException e) {
+			if(m != null) {
+				m.sendError();
+			}
+			// 送信チャネルに問題がある場合は、次回送信時に再作成する.
+			if(!s.isOpen()) {
+				io.sendUdp = null;
+			}
+			throw e;
+		}
+	}
+	
+	// 送信用のUDPチャネルを作成.
+	// 複数のスレッドから送信される場合があるので、作成は同期して行う.
+	private final synchronized DatagramChannel _openSend() throws IOException {
+		if(sendUdp != null) {
+			return sendUdp;
+		}
+		DatagramChannel s = null;
+		try {
+			s = DatagramChannel.open(StandardProtocolFamily.INET);
 			if(!notReuseAddress) {
 				try {
 					// このオプションで「無効な引数です」とエラーが出る場合もある.
-					s.setReuseAddress(true);
+					s.setOption(StandardSocketOptions.SO_REUSEADDR, true);
 				} catch(Exception e) {
 					notReuseAddress = true;
 					s.close(); s = null;
-					s = new DatagramSocket(null);
+					s = DatagramChannel.open(StandardProtocolFamily.INET);
 				}
 			}
-			s.setBroadcast(false);
+			s.setOption(StandardSocketOptions.SO_BROADCAST, false);
 			if(this.bindAddr == null) {
 				s.bind(new InetSocketAddress("0.0.0.0", 0));
 			} else {
 				s.bind(new InetSocketAddress(this.bindAddr, 0));
 			}
-			s.send(new DatagramPacket(b, 0, len, inetAddr, port));
-			s.close(); s = null;
+			sendUdp = s;
+			s = null;
+			return sendUdp;
 		} finally {
 			if(s != null) {
 				try {
@@ -583,6 +1389,98 @@ public class ExistenceIO {
 	
 	/**
 	 * 受信処理.
+	 * 受信待ちのデータが存在する場合は待機せずに取得し、存在しない場合は
+	 * Selectorで受信可能になるまで待機します.
+	 * 複数メッセージを受信した場合は、呼び出し毎に1メッセージずつ取得します.
+	 * 受信内容は、受信バッファを参照する形で受信メッセージに設定されます.
+	 * @param msg 受信内容を設定する受信メッセージを設定します.
+	 * @return boolean [true]の場合は、メッセージを受信しました.
+	 */
+	public boolean receive(ExistenceMessage msg) {
+		final byte[] b = recvBuffer;
+		try {
+			// 受信済みの複数メッセージが残っている場合は、次のメッセージを取得.
+			if(multiCount > 0) {
+				return receiveMulti(b, msg);
+			}
+			final ByteBuffer bb = recvByteBuffer;
+			bb.clear();
+			SocketAddress from = receiveUdp.receive(bb);
+			if(from == null) {
+				// 受信データが存在しない場合は、受信可能になるまで待機.
+				if(selector.select(TIMEOUT) != 0) {
+					selector.selectedKeys().clear();
+				}
+				bb.clear();
+				if((from = receiveUdp.receive(bb)) == null) {
+					return false;
+				}
+			}
+			final int packetLength = bb.position();
+			final ExistenceMetrics m = metrics;
+			if(m != null) {
+				m.receivedPacket(packetLength);
+			}
+			final int hl = headLength(b, packetLength);
+			if(hl == -1 || packetLength < OFFSET + (hl - HEAD.length)) {
+				if(m != null) {
+					m.badHeader();
+				}
+				return false;
+			}
+			byte checkCode = b[hl]; b[hl] = 0;
+			if(checkSendCode(b, packetLength) != checkCode) {
+				if(m != null) {
+					m.badCheckCode();
+				}
+				return false;
+			}
+			// クラスタIDの受信先が存在しない場合は破棄.
+			final int c = (hl == HEAD.length) ? 0 : (b[HEAD.length] & 0x000000ff) |
+				((b[HEAD.length + 1] & 0x000000ff) << 8) |
+				((b[HEAD.length + 2] & 0x000000ff) << 16) |
+				((b[HEAD.length + 3] & 0x000000ff) << 24);
+			final ExistenceIO target = target(c);
+			if(target == null) {
+				if(m != null) {
+					m.unknownCluster();
+				}
+				return false;
+			}
+			// 複数メッセージの場合.
+			final int fo = hl + 1;
+			if(b[fo] == TYPE_MULTI) {
+				multiCount = (b[fo + 1] & 0x000000ff) | ((b[fo + 2] & 0x000000ff) << 8);
+				multiOffset = fo + 3;
+				multiLength = packetLength;
+				multiFrom = from;
+				multiTarget = target;
+				multiCluster = c;
+				return receiveMulti(b, msg);
+			}
+			return decodeFrame(target, c, b, fo, packetLength, packetLength, from, msg);
+		} catch(IOException io) {
+			if(SpiderWebConstants.DEBUG_FLAG) {
+				io.printStackTrace();
+				System.out.println();
+			}
+		} catch(RuntimeException re) {
+			// 不正なメッセージ長などで解析に失敗した場合.
+			multiCount = 0;
+			if(metrics != null) {
+				metrics.decodeError();
+			}
+			if(SpiderWebConstants.DEBUG_FLAG) {
+				re.printStackTrace();
+				System.out.println();
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * 受信処理.
+	 * 受信内容を、メッセージタイプ毎のオブジェクトに変換して取得します.
 	 * @param recvAddr
 	 * @param recvPort
 	 * @param type
@@ -592,56 +1490,44 @@ public class ExistenceIO {
 	 */
 	public boolean receive(InetAddress[] recvAddr, int[] recvPort, int[] type,
 		String[] nodeGroupName, SpiderWebElement em, Object[] data) {
-		final byte[] b = recvBuffer;
-		final DatagramPacket packet = new DatagramPacket(b, b.length);
+		if(legacyMessage == null) {
+			legacyMessage = new ExistenceMessage();
+		}
+		final ExistenceMessage msg = legacyMessage;
+		if(!receive(msg)) {
+			return false;
+		}
 		try {
-			receiveUdp.receive(packet);
-			if(packet.getLength() < OFFSET ||
-				b[0] != HEAD[0] || b[1] != HEAD[1] || b[2] != HEAD[2] ||
-				b[3] != HEAD[3] || b[4] != HEAD[4] || b[5] != HEAD[5]) {
-				return false;
-			}
-			byte checkCode = b[6]; b[6] = 0;
-			if(checkSendCode(b, packet.getLength()) != checkCode) {
-				return false;
-			}
-			int t = b[7] & 0x000000ff;
-			int groupLen = (b[8] & 0x000000ff) | ((b[9] & 0x000000ff) << 8);
-			int off = 10;
-			String groupName = new String(b, off, groupLen, "UTF8");
-			off += groupLen;
-			int[] eOff = new int[] {off};
-			SpiderWebElement.decodeBinary(em, b, eOff);
-			off = eOff[0];
-			int len = (b[off] & 0x000000ff) | ((b[off+1] & 0x000000ff) << 8);
-			off += 2;
+			final byte[] b = msg.getBuffer();
+			final int off = msg.getDataOffset();
+			final int len = msg.getDataLength();
+			final int t = msg.getType();
 			Object d = null;
-			if(t > TYPE_APPS) {
-				if(call == null) {
-					return false;
-				}
-				d = call.get(t, packet, b, off, len);
-			} else {
-				switch(t) {
-				case TYPE_BINARY: d = recvBinary(packet, b, off, len); break;
-				case TYPE_STRING: d = recvString(packet, b, off, len); break;
-				case TYPE_CONNECT : d = recvConnect(packet, b, off, len); break;
-				case TYPE_IPLIST: d = recvIpList(packet, b, off, len); break;
-				case TYPE_MACHINE_LIST: d = recvMachineList(packet, b, off, len); break;
-				case TYPE_CHECKSUM: d = recvChecksum(packet, b, off, len); break;
-				case TYPE_SUCCESS: d = recvString(packet, b, off, len); break;
-				case TYPE_ERROR: d = recvString(packet, b, off, len); break;
-				default : return false;
-				}
+			switch(t) {
+			case TYPE_BINARY: d = recvBinary(b, off, len); break;
+			case TYPE_STRING: d = recvString(b, off, len); break;
+			case TYPE_CONNECT : d = recvConnect(b, off, len); break;
+			case TYPE_IPLIST: d = recvIpList(b, off, len); break;
+			case TYPE_MACHINE_LIST: d = recvMachineList(b, off, len); break;
+			case TYPE_IPLIST_PAGE: d = recvIpList(b, off + PAGE_HEAD, msg.getIpCount()); break;
+			case TYPE_MACHINE_LIST_PAGE: d = recvPageList(msg); break;
+			case TYPE_DELTA: d = recvBinary(b, off, len); break;
+			case TYPE_TREE: d = recvBinary(b, off, len); break;
+			case TYPE_PING: d = recvBinary(b, off, len); break;
+			case TYPE_ACK: d = recvBinary(b, off, len); break;
+			case TYPE_CHECKSUM: d = msg.getChecksum(); break;
+			case TYPE_SUCCESS: d = recvString(b, off, len); break;
+			case TYPE_ERROR: d = recvString(b, off, len); break;
+			default : d = msg.getAppData(); break;
 			}
-			recvAddr[0] = packet.getAddress();
-			recvPort[0] = packet.getPort();
+			final SpiderWebElement e = msg.getElement();
+			em.set(e.getStatus(), e.getCpuLoad(), e.getMachineNo(), e.getMachineNoTime(), e.getLoad());
+			recvAddr[0] = msg.getAddress();
+			recvPort[0] = msg.getPort();
 			type[0] = t;
-			nodeGroupName[0] = groupName;
+			nodeGroupName[0] = msg.getNodeGroupName();
 			data[0] = d;
 			return true;
-		} catch(SocketTimeoutException st) {
-			// タイムアウトは無視.
 		} catch(IOException io) {
 			if(SpiderWebConstants.DEBUG_FLAG) {
 				io.printStackTrace();
@@ -651,8 +1537,124 @@ public class ExistenceIO {
 		return false;
 	}
 	
+	// 受信済みの複数メッセージから、次のメッセージを取得.
+	private final boolean receiveMulti(byte[] b, ExistenceMessage msg) throws IOException {
+		int off = multiOffset;
+		final int frameLen = (off + 2 > multiLength) ? -1 :
+			(b[off] & 0x000000ff) | ((b[off+1] & 0x000000ff) << 8);
+		off += 2;
+		if(frameLen == -1 || off + frameLen > multiLength) {
+			multiCount = 0;
+			if(multiTarget.metrics != null) {
+				multiTarget.metrics.decodeError();
+			}
+			return false;
+		}
+		multiOffset = off + frameLen;
+		multiCount --;
+		return decodeFrame(multiTarget, multiCluster, b, off, off + frameLen, multiLength, multiFrom, msg);
+	}
+	
+	// 受信ヘッダ長(チェックコードの位置)を取得.
+	// spiderweb通信ヘッダでない場合は[-1]を返却.
+	private static final int headLength(byte[] b, int len) {
+		if(len < HEAD.length || b[0] != HEAD[0] || b[1] != HEAD[1] || b[2] != HEAD[2] ||
+			b[3] != HEAD[3] || b[4] != HEAD[4]) {
+			return -1;
+		} else if(b[5] == HEAD[5]) {
+			return HEAD.length;
+		} else if(b[5] == CLUSTER_HEAD[5]) {
+			return CLUSTER_HEAD.length + CLUSTER_LENGTH;
+		}
+		return -1;
+	}
+	
+	// 受信したクラスタIDの受信先を取得.
+	// 共有トランスポートの場合は登録された受信先、それ以外はクラスタIDが一致する場合のみ自身とする.
+	private final ExistenceIO target(int c) {
+		final Map<Integer, ExistenceIO> m = members;
+		if(m != null) {
+			return m.get(c);
+		}
+		return (c == cluster) ? this : null;
+	}
+	
+	/**
+	 * 受信済みの複数メッセージが残っているかチェック.
+	 * @return boolean [true]の場合は、次の receive 呼び出しで残りのメッセージが取得されます.
+	 */
+	public boolean isReceiveRemaining() {
+		return multiCount > 0;
+	}
+	
+	// 1メッセージを解析して、受信先のメトリクスに集計.
+	private final boolean decodeFrame(ExistenceIO target, int c, byte[] b, int off, int end, int packetLength,
+		SocketAddress from, ExistenceMessage msg) throws IOException {
+		final boolean ret = _decodeFrame(target, c, b, off, end, packetLength, from, msg);
+		final ExistenceMetrics m = target.metrics;
+		if(m != null) {
+			if(ret) {
+				m.received(msg.getType(), end - off);
+			} else {
+				m.decodeError();
+			}
+		}
+		return ret;
+	}
+	
+	// 1メッセージを解析.
+	// カスタム受信処理は、クラスタIDの受信先に設定されたものを呼び出す.
+	private final boolean _decodeFrame(ExistenceIO target, int c, byte[] b, int off, int end, int packetLength,
+		SocketAddress from, ExistenceMessage msg) throws IOException {
+		if(!msg.set(b, off, end, packetLength, (InetSocketAddress)from)) {
+			return false;
+		}
+		msg.setCluster(c);
+		final int t = msg.getType();
+		if(t > TYPE_APPS) {
+			final ExistenceReceiveBufferCall bufferCall = target.bufferCall;
+			final ExistenceReceiveCall call = target.call;
+			if(bufferCall == null && call == null) {
+				return false;
+			} else if(target.deferCall) {
+				// 呼び出しは受信先で行う.
+				return true;
+			} else if(bufferCall != null) {
+				msg.setAppData(bufferCall.get(t, msg.getSocketAddress(), msg.getData()));
+			} else {
+				msg.setAppData(call.get(t, new DatagramPacket(b, 0, packetLength, from),
+					b, msg.getDataOffset(), msg.getDataLength()));
+			}
+			return true;
+		}
+		switch(t) {
+		case TYPE_CHECKSUM:
+			return msg.getDataLength() == 8 || msg.getDataLength() == CHECKSUM_VERSION_LENGTH;
+		case TYPE_DELTA:
+			return msg.getDataLength() >= DELTA_HEAD;
+		case TYPE_PING:
+		case TYPE_ACK:
+			return msg.getDataLength() >= GOSSIP_HEAD &&
+				msg.getDataLength() >= GOSSIP_HEAD + msg.getGossipTargetLength();
+		case TYPE_TREE:
+			return msg.getDataLength() == TREE_LENGTH &&
+				(msg.getTreeLevel() == 1 || (msg.getTreeLevel() == 2 && msg.getTreeIndex() < ConnectTree.NODES));
+		case TYPE_BINARY:
+		case TYPE_STRING:
+		case TYPE_CONNECT:
+		case TYPE_IPLIST:
+		case TYPE_MACHINE_LIST:
+		case TYPE_IPLIST_PAGE:
+		case TYPE_MACHINE_LIST_PAGE:
+		case TYPE_SUCCESS:
+		case TYPE_ERROR:
+			return true;
+		}
+		return false;
+	}
+	
 	// [TYPE_BINARY]の受信Bodyデータを取得.
-	private static final Object recvBinary(DatagramPacket packet, byte[] bin, int off, int len)
+	private static final Object recvBinary(byte[] bin, int off, int len)
 		throws IOException {
 		final byte[] ret = new byte[len];
 		System.arraycopy(bin, off, ret, 0, len);
@@ -660,19 +1662,19 @@ public class ExistenceIO {
 	}
 	
 	// [TYPE_STRING]の受信Bodyデータを取得.
-	private static final Object recvString(DatagramPacket packet, byte[] bin, int off, int len)
+	private static final Object recvString(byte[] bin, int off, int len)
 		throws IOException {
 		return new String(bin, off, len, "UTF8");
 	}
 	
 	// [TYPE_CONNECT]の受信Bodyデータを取得.
-	private static final Object recvConnect(DatagramPacket packet, byte[] bin, int off, int len)
+	private static final Object recvConnect(byte[] bin, int off, int len)
 		throws IOException {
 		return new String(bin, off, len, "UTF8").split(",");
 	}
 	
 	// [TYPE_IPLIST]の受信Bodyデータを取得.
-	private static final Object recvIpList(DatagramPacket packet, byte[] bin, int off, int len)
+	private static final Object recvIpList(byte[] bin, int off, int len)
 		throws IOException {
 		int[] ret = new int[len];
 		for(int i = 0; i < len; i ++) {
@@ -685,24 +1687,19 @@ public class ExistenceIO {
 	}
 	
 	// [TYPE_MACHINE_LIST]の受信Bodyデータを取得.
-	private static final Object recvMachineList(DatagramPacket packet, byte[] bin, int off, int len)
+	private static final Object recvMachineList(byte[] bin, int off, int len)
 		throws IOException {
 		return new String(bin, off, len, "UTF8").split(",");
 	}
 	
-	// [TYPE_CHECKSUM]の受信Bodyデータを取得.
-	private static final Object recvChecksum(DatagramPacket packet, byte[] bin, int off, int len)
+	// [TYPE_MACHINE_LIST_PAGE]の受信Bodyデータを取得.
+	private static final Object recvPageList(ExistenceMessage msg)
 		throws IOException {
-		if(len != 8) {
-			throw new IOException("Not the checksum data length.");
-		}
-		return (bin[off] & 0x00000000000000ffL) |
-				((bin[off+1] & 0x00000000000000ffL) << 8L) |
-				((bin[off+2] & 0x00000000000000ffL) << 16L) |
-				((bin[off+3] & 0x00000000000000ffL) << 24L) |
-				((bin[off+4] & 0x00000000000000ffL) << 32L) |
-				((bin[off+5] & 0x00000000000000ffL) << 40L) |
-				((bin[off+6] & 0x00000000000000ffL) << 48L) |
-				((bin[off+7] & 0x00000000000000ffL) << 56L);
+		final int len = msg.getListCount();
+		final String[] ret = new String[len];
+		for(int i = 0; i < len; i ++) {
+			ret[i] = msg.getList(i);
+		}
+		return ret;
 	}
 }
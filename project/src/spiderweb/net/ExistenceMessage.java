@@ -0,0 +1,788 @@
+package spiderweb.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import spiderweb.SpiderWebElement;
+
+/**
+ * 受信メッセージ.
+ * 受信バッファ上の1メッセージを参照するビューです.
+ * 受信毎に同じオブジェクトを使い回すので、定常的な受信処理でオブジェクトを生成しません.
+ * 受信処理の外で保持する場合は copy で複製してください.
+ */
+public class ExistenceMessage {
+	// ノードグループ名キャッシュの最大数.
+	private static final int NAME_CACHE = 64;
+
+	// 参照先の受信バッファ.
+	private byte[] buf = null;
+	private ByteBuffer readOnly = null;
+
+	// 受信元.
+	private InetSocketAddress from = null;
+
+	// 受信バッファ上のメッセージの開始位置、終了位置と、受信パケット全体の長さ.
+	private int frameOff = 0;
+	private int frameEnd = 0;
+	private int packetLength = 0;
+
+	// メッセージ内容.
+	private int type = -1;
+	private int groupOff = 0;
+	private int groupLen = 0;
+	private int dataOff = 0;
+	private int dataLen = 0;
+	private Object appData = null;
+	private int cluster = 0;
+	private final SpiderWebElement em = new SpiderWebElement();
+	private final SpiderWebElement work = new SpiderWebElement();
+	private final int[] offHolder = new int[1];
+
+	// 一覧の各項目の開始位置.
+	private int[] listPos = new int[16];
+	private int listCount = -1;
+
+	// ノードグループ名のキャッシュ.
+	// 複製されたメッセージの場合は、ノードグループ名を直接保持する.
+	private final NameCache names;
+	private String groupName = null;
+	private String[] listNames = null;
+
+	/**
+	 * コンストラクタ.
+	 */
+	public ExistenceMessage() {
+		this.names = new NameCache(NAME_CACHE);
+	}
+
+	// 複製用コンストラクタ.
+	private ExistenceMessage(NameCache names) {
+		this.names = names;
+	}
+
+	// 受信内容をセット.
+	// 正しくないメッセージの場合は[false]を返却.
+	final boolean set(byte[] b, int off, int end, int packetLength, InetSocketAddress from) {
+		if(off + 3 > end) {
+			return false;
+		}
+		if(buf != b) {
+			buf = b;
+			readOnly = null;
+		}
+		this.from = from;
+		this.frameOff = off;
+		this.frameEnd = end;
+		this.packetLength = packetLength;
+		this.type = b[off] & 0x000000ff;
+		this.groupLen = (b[off+1] & 0x000000ff) | ((b[off+2] & 0x000000ff) << 8);
+		off += 3;
+		this.groupOff = off;
+		off += groupLen;
+		if(off >= end) {
+			return false;
+		}
+		offHolder[0] = off;
+		SpiderWebElement.decodeBinary(em, b, offHolder);
+		off = offHolder[0];
+		if(off + 2 > end) {
+			return false;
+		}
+		this.dataLen = (b[off] & 0x000000ff) | ((b[off+1] & 0x000000ff) << 8);
+		this.dataOff = off + 2;
+		this.appData = null;
+		this.listCount = -1;
+		// IPアドレス一覧の場合は、データ長がIPアドレス数となる.
+		if(dataOff + ((type == ExistenceIO.TYPE_IPLIST) ? dataLen << 2 : dataLen) > end) {
+			return false;
+		}
+		// ページ分割された一覧の場合は、ページ項番とページ数が必要.
+		if(isPage() && dataLen < ExistenceIO.PAGE_HEAD) {
+			return false;
+		}
+		return true;
+	}
+
+	// 受信したクラスタIDをセット.
+	final void setCluster(int c) {
+		this.cluster = c;
+	}
+
+	// アプリ受信データをセット.
+	final void setAppData(Object o) {
+		this.appData = o;
+	}
+
+	/**
+	 * メッセージタイプを取得.
+	 * @return
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * 受信したクラスタIDを取得.
+	 * @return int クラスタIDが付加されていない場合は[0]が返却されます.
+	 */
+	public int getCluster() {
+		return cluster;
+	}
+
+	/**
+	 * 受信元のアドレスを取得.
+	 * @return
+	 */
+	public InetSocketAddress getSocketAddress() {
+		return from;
+	}
+
+	/**
+	 * 受信元のIPアドレスを取得.
+	 * @return
+	 */
+	public InetAddress getAddress() {
+		return from.getAddress();
+	}
+
+	/**
+	 * 受信元のポート番号を取得.
+	 * @return
+	 */
+	public int getPort() {
+		return from.getPort();
+	}
+
+	/**
+	 * 受信元の要素を取得.
+	 * 返却される要素は次の受信で上書きされます.
+	 * @return
+	 */
+	public SpiderWebElement getElement() {
+		return em;
+	}
+
+	/**
+	 * 参照先のバイナリを取得.
+	 * @return
+	 */
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * ノードグループ名のバイナリ開始位置を取得.
+	 * @return
+	 */
+	public int getNodeGroupOffset() {
+		return groupOff;
+	}
+
+	/**
+	 * ノードグループ名のバイナリ長を取得.
+	 * @return
+	 */
+	public int getNodeGroupLength() {
+		return groupLen;
+	}
+
+	/**
+	 * ノードグループ名を取得.
+	 * 同じノードグループ名は、同じ文字列オブジェクトが返却されます.
+	 * @return
+	 */
+	public String getNodeGroupName() {
+		if(groupName != null) {
+			return groupName;
+		}
+		return names.get(buf, groupOff, groupLen);
+	}
+
+	/**
+	 * ノードグループIDを取得.
+	 * このメッセージオブジェクト内で、ノードグループ名毎に一意の番号が返却されます.
+	 * @return int キャッシュできない場合は[-1]が返却されます.
+	 */
+	public int getNodeGroupId() {
+		return names.getId(buf, groupOff, groupLen);
+	}
+
+	/**
+	 * データの開始位置を取得.
+	 * @return
+	 */
+	public int getDataOffset() {
+		return dataOff;
+	}
+
+	/**
+	 * データ長を取得.
+	 * TYPE_IPLISTの場合は、IPアドレス数が返却されます.
+	 * @return
+	 */
+	public int getDataLength() {
+		return dataLen;
+	}
+
+	/**
+	 * メッセージの開始位置を取得.
+	 * 複数メッセージの場合も、このメッセージの開始位置が返却されます.
+	 * @return
+	 */
+	public int getFrameOffset() {
+		return frameOff;
+	}
+
+	/**
+	 * メッセージの終了位置を取得.
+	 * @return
+	 */
+	public int getFrameEnd() {
+		return frameEnd;
+	}
+
+	/**
+	 * 受信パケット全体の長さを取得.
+	 * 受信パケットは、参照先のバイナリの先頭から格納されています.
+	 * @return
+	 */
+	public int getPacketLength() {
+		return packetLength;
+	}
+
+	/**
+	 * データを読み込み専用のByteBufferで取得.
+	 * positionがデータの開始位置、limitがデータの終端に設定されます.
+	 * 返却されるByteBufferは次の受信で再設定されます.
+	 * @return
+	 */
+	public ByteBuffer getData() {
+		ByteBuffer ret = readOnly;
+		if(ret == null) {
+			ret = ByteBuffer.wrap(buf).asReadOnlyBuffer();
+			readOnly = ret;
+		}
+		ret.clear();
+		ret.limit(dataOff + dataLen);
+		ret.position(dataOff);
+		return ret;
+	}
+
+	/**
+	 * ページ分割された一覧かチェック.
+	 * @return boolean [true]の場合は、[TYPE_IPLIST_PAGE][TYPE_MACHINE_LIST_PAGE][TYPE_DELTA]です.
+	 */
+	public boolean isPage() {
+		return type == ExistenceIO.TYPE_IPLIST_PAGE || type == ExistenceIO.TYPE_MACHINE_LIST_PAGE ||
+			type == ExistenceIO.TYPE_DELTA;
+	}
+
+	/**
+	 * ページ項番を取得.
+	 * ページ分割されていない一覧の場合は[0]が返却されます.
+	 * @return
+	 */
+	public int getPageNo() {
+		if(!isPage()) {
+			return 0;
+		}
+		return (buf[dataOff] & 0x000000ff) | ((buf[dataOff+1] & 0x000000ff) << 8);
+	}
+
+	/**
+	 * ページ数を取得.
+	 * ページ分割されていない一覧の場合は[1]が返却されます.
+	 * @return
+	 */
+	public int getPageCount() {
+		if(!isPage()) {
+			return 1;
+		}
+		return (buf[dataOff+2] & 0x000000ff) | ((buf[dataOff+3] & 0x000000ff) << 8);
+	}
+
+	/**
+	 * [TYPE_IPLIST][TYPE_IPLIST_PAGE]のIPアドレス数を取得.
+	 * @return
+	 */
+	public int getIpCount() {
+		if(type == ExistenceIO.TYPE_IPLIST_PAGE) {
+			return (dataLen - ExistenceIO.PAGE_HEAD) >> 2;
+		}
+		return dataLen;
+	}
+
+	/**
+	 * [TYPE_IPLIST][TYPE_IPLIST_PAGE]のIPアドレスを取得.
+	 * @param no
+	 * @return
+	 */
+	public int getIp(int no) {
+		final byte[] b = buf;
+		final int off = dataOff + (no << 2) +
+			((type == ExistenceIO.TYPE_IPLIST_PAGE) ? ExistenceIO.PAGE_HEAD : 0);
+		return (b[off] & 0x000000ff) |
+			((b[off+1] & 0x000000ff) << 8) |
+			((b[off+2] & 0x000000ff) << 16) |
+			((b[off+3] & 0x000000ff) << 24);
+	}
+
+	/**
+	 * [TYPE_CHECKSUM]のチェックサムを取得.
+	 * @return
+	 * @throws IOException
+	 */
+	public long getChecksum() throws IOException {
+		if(dataLen != 8 && dataLen != ExistenceIO.CHECKSUM_VERSION_LENGTH) {
+			throw new IOException("Not the checksum data length.");
+		}
+		return getLong(buf, dataOff);
+	}
+
+	/**
+	 * [TYPE_CHECKSUM]に変更履歴のバージョンが含まれているかチェック.
+	 * @return
+	 */
+	public boolean isChecksumVersion() {
+		return dataLen == ExistenceIO.CHECKSUM_VERSION_LENGTH;
+	}
+
+	/**
+	 * [TYPE_CHECKSUM]の、送信元が反映済みの変更履歴の世代を取得.
+	 * @return
+	 */
+	public long getChecksumEpoch() {
+		return isChecksumVersion() ? getLong(buf, dataOff + 8) : 0L;
+	}
+
+	/**
+	 * [TYPE_CHECKSUM]の、送信元が反映済みの変更履歴のバージョンを取得.
+	 * @return long バージョンが含まれない場合は[-1]が返却されます.
+	 */
+	public long getChecksumVersion() {
+		return isChecksumVersion() ? getLong(buf, dataOff + 16) : -1L;
+	}
+
+	/**
+	 * [TYPE_TREE]の階層を取得.
+	 * @return int [1]の場合はノードのチェックサム、[2]の場合はバケットのチェックサムです.
+	 */
+	public int getTreeLevel() {
+		return buf[dataOff] & 0x000000ff;
+	}
+
+	/**
+	 * [TYPE_TREE]のノード項番を取得.
+	 * @return
+	 */
+	public int getTreeIndex() {
+		return buf[dataOff+1] & 0x000000ff;
+	}
+
+	/**
+	 * [TYPE_TREE]のチェックサムを取得.
+	 * @param no 0から ConnectTree.WIDTH-1 までの項番を設定します.
+	 * @return
+	 */
+	public long getTreeHash(int no) {
+		return getLong(buf, dataOff + 2 + (no << 3));
+	}
+
+	/**
+	 * [TYPE_DELTA]の変更履歴の世代を取得.
+	 * @return
+	 */
+	public long getDeltaEpoch() {
+		return getLong(buf, dataOff + ExistenceIO.PAGE_HEAD);
+	}
+
+	/**
+	 * [TYPE_DELTA]の差分元のバージョンを取得.
+	 * @return long 接続管理一覧を送信済みの場合は[-1]が返却されます.
+	 */
+	public long getDeltaFrom() {
+		return getLong(buf, dataOff + ExistenceIO.PAGE_HEAD + 8);
+	}
+
+	/**
+	 * [TYPE_DELTA]の差分適用後のバージョンを取得.
+	 * @return
+	 */
+	public long getDeltaTo() {
+		return getLong(buf, dataOff + ExistenceIO.PAGE_HEAD + 16);
+	}
+
+	/**
+	 * [TYPE_PING][TYPE_ACK]の探査シーケンス番号を取得.
+	 * @return
+	 */
+	public int getGossipSeq() {
+		final byte[] b = buf;
+		final int off = dataOff;
+		return (b[off] & 0x000000ff) |
+			((b[off+1] & 0x000000ff) << 8) |
+			((b[off+2] & 0x000000ff) << 16) |
+			((b[off+3] & 0x000000ff) << 24);
+	}
+
+	/**
+	 * [TYPE_PING][TYPE_ACK]の間接探査先のバイナリ長を取得.
+	 * @return
+	 */
+	public int getGossipTargetLength() {
+		return (buf[dataOff+4] & 0x000000ff) | ((buf[dataOff+5] & 0x000000ff) << 8);
+	}
+
+	/**
+	 * [TYPE_PING]の間接探査先を取得.
+	 * @return String 直接探査の場合は[null]が返却されます.
+	 * @throws IOException
+	 */
+	public String getGossipTarget() throws IOException {
+		final int len = getGossipTargetLength();
+		if(len == 0) {
+			return null;
+		}
+		return new String(buf, dataOff + ExistenceIO.GOSSIP_HEAD, len, "UTF8");
+	}
+
+	/**
+	 * [TYPE_DELTA][TYPE_PING][TYPE_ACK]の変更数を取得.
+	 * @return
+	 */
+	public int getDeltaCount() {
+		if(listCount == -1) {
+			parseList();
+		}
+		return listCount;
+	}
+
+	/**
+	 * [TYPE_DELTA][TYPE_PING][TYPE_ACK]の変更種別を取得.
+	 * @param no
+	 * @return byte ConnectLog.OP_JOIN, OP_UPDATE, OP_LEAVE のいずれかが返却されます.
+	 */
+	public byte getDeltaOp(int no) {
+		if(listCount == -1) {
+			parseList();
+		}
+		return buf[listPos[no]];
+	}
+
+	/**
+	 * [TYPE_DELTA][TYPE_PING][TYPE_ACK]の変更対象のアドレスを取得.
+	 * @param no
+	 * @return
+	 * @throws IOException
+	 */
+	public String getDeltaAddress(int no) throws IOException {
+		if(listCount == -1) {
+			parseList();
+		}
+		final int off = listPos[no];
+		final int len = (buf[off+1] & 0x000000ff) | ((buf[off+2] & 0x000000ff) << 8);
+		return new String(buf, off + 3, len, "UTF8");
+	}
+
+	/**
+	 * [TYPE_DELTA][TYPE_PING][TYPE_ACK]の変更対象の要素を取得.
+	 * @param no
+	 * @param out 取得先の要素を設定します.
+	 * @return
+	 */
+	public SpiderWebElement getDeltaElement(int no, SpiderWebElement out) {
+		if(listCount == -1) {
+			parseList();
+		}
+		final int off = listPos[no];
+		offHolder[0] = off + 3 + ((buf[off+1] & 0x000000ff) | ((buf[off+2] & 0x000000ff) << 8));
+		SpiderWebElement.decodeBinary(out, buf, offHolder);
+		return out;
+	}
+
+	/**
+	 * [TYPE_CONNECT][TYPE_MACHINE_LIST][TYPE_MACHINE_LIST_PAGE]の一覧数を取得.
+	 * @return
+	 */
+	public int getListCount() {
+		if(listCount == -1) {
+			parseList();
+		}
+		return listCount;
+	}
+
+	/**
+	 * [TYPE_MACHINE_LIST][TYPE_MACHINE_LIST_PAGE]の一覧の項目を取得.
+	 * @param no
+	 * @return
+	 * @throws IOException
+	 */
+	public String getList(int no) throws IOException {
+		if(listNames != null) {
+			return listNames[no];
+		}
+		if(listCount == -1) {
+			parseList();
+		}
+		final int off = listPos[no];
+		return new String(buf, off, listPos[no + 1] - off - listSeparator(), "UTF8");
+	}
+
+	/**
+	 * [TYPE_CONNECT]のノードグループ名一覧の項目を取得.
+	 * 同じノードグループ名は、同じ文字列オブジェクトが返却されます.
+	 * @param no
+	 * @return
+	 */
+	public String getNodeGroupNameList(int no) {
+		if(listNames != null) {
+			return listNames[no];
+		}
+		if(listCount == -1) {
+			parseList();
+		}
+		final int off = listPos[no];
+		return names.get(buf, off, listPos[no + 1] - off - 1);
+	}
+
+	/**
+	 * アプリ受信データを取得.
+	 * カスタム受信処理の返却値が返却されます.
+	 * @return
+	 */
+	public Object getAppData() {
+		return appData;
+	}
+
+	/**
+	 * メッセージを複製.
+	 * 受信バッファから切り離されたメッセージが返却されます.
+	 * @return
+	 * @throws IOException
+	 */
+	public ExistenceMessage copy() throws IOException {
+		final ExistenceMessage ret = new ExistenceMessage(names);
+		final int start = groupOff;
+		final int end = dataOff + ((type == ExistenceIO.TYPE_IPLIST) ? dataLen << 2 : dataLen);
+		final byte[] b = new byte[end - start];
+		System.arraycopy(buf, start, b, 0, end - start);
+		ret.buf = b;
+		ret.from = from;
+		ret.type = type;
+		ret.frameOff = 0;
+		ret.frameEnd = end - start;
+		ret.packetLength = end - start;
+		ret.groupOff = 0;
+		ret.groupLen = groupLen;
+		ret.dataOff = dataOff - start;
+		ret.dataLen = dataLen;
+		ret.appData = appData;
+		ret.cluster = cluster;
+		ret.em.set(em.getStatus(), em.getCpuLoad(), em.getMachineNo(), em.getMachineNoTime(), em.getLoad());
+		// 複製先は複数スレッドから参照されるので、文字列は生成済みにしておく.
+		ret.groupName = getNodeGroupName();
+		if(type == ExistenceIO.TYPE_CONNECT || type == ExistenceIO.TYPE_MACHINE_LIST ||
+			type == ExistenceIO.TYPE_MACHINE_LIST_PAGE) {
+			final int len = getListCount();
+			final String[] list = new String[len];
+			for(int i = 0; i < len; i ++) {
+				list[i] = (type == ExistenceIO.TYPE_CONNECT) ? getNodeGroupNameList(i) : getList(i);
+			}
+			ret.listNames = list;
+			ret.listCount = len;
+		}
+		return ret;
+	}
+
+	// 一覧の位置を解析.
+	// listPos[n]に開始位置、listPos[n+1]に次の項目の開始位置(終端+区切り長)をセットする.
+	private final void parseList() {
+		if(type == ExistenceIO.TYPE_MACHINE_LIST_PAGE) {
+			parsePageList();
+			return;
+		} else if(type == ExistenceIO.TYPE_DELTA || type == ExistenceIO.TYPE_PING ||
+			type == ExistenceIO.TYPE_ACK) {
+			parseDeltaList();
+			return;
+		}
+		final byte[] b = buf;
+		final int end = dataOff + dataLen;
+		int cnt = 0;
+		int[] pos = listPos;
+		if(dataLen > 0) {
+			pos[cnt++] = dataOff;
+			for(int i = dataOff; i < end; i ++) {
+				if(b[i] == ',') {
+					if(cnt + 1 >= pos.length) {
+						pos = grow(pos);
+					}
+					pos[cnt++] = i + 1;
+				}
+			}
+			if(cnt + 1 >= pos.length) {
+				pos = grow(pos);
+			}
+			pos[cnt] = end + 1;
+		} else {
+			pos[0] = dataOff;
+		}
+		listPos = pos;
+		listCount = cnt;
+	}
+
+	// 長さ付き一覧の位置を解析.
+	// 各項目は[2バイトの長さ][UTF8]の形式で、ページ項番とページ数の後に続く.
+	private final void parsePageList() {
+		final byte[] b = buf;
+		final int end = dataOff + dataLen;
+		int cnt = 0;
+		int len;
+		int[] pos = listPos;
+		int i = dataOff + ExistenceIO.PAGE_HEAD;
+		while(i + 2 <= end) {
+			len = (b[i] & 0x000000ff) | ((b[i+1] & 0x000000ff) << 8);
+			if(i + 2 + len > end) {
+				break;
+			}
+			if(cnt + 1 >= pos.length) {
+				pos = grow(pos);
+			}
+			pos[cnt++] = i + 2;
+			i += 2 + len;
+		}
+		pos[cnt] = i + 2;
+		listPos = pos;
+		listCount = cnt;
+	}
+
+	// 変更差分の位置を解析.
+	// [TYPE_PING][TYPE_ACK]に付加された変更も同じ形式となる.
+	// 各変更は[種別][2バイトの長さ][アドレス][要素]の形式で、listPos[n]に種別の位置をセットする.
+	private final void parseDeltaList() {
+		final byte[] b = buf;
+		final int end = dataOff + dataLen;
+		int cnt = 0;
+		int[] pos = listPos;
+		int i = dataOff + ((type == ExistenceIO.TYPE_DELTA) ? ExistenceIO.DELTA_HEAD :
+			ExistenceIO.GOSSIP_HEAD + getGossipTargetLength());
+		while(i + 3 < end) {
+			offHolder[0] = i + 3 + ((b[i+1] & 0x000000ff) | ((b[i+2] & 0x000000ff) << 8));
+			if(offHolder[0] >= end) {
+				break;
+			}
+			SpiderWebElement.decodeBinary(work, b, offHolder);
+			if(offHolder[0] > end) {
+				break;
+			}
+			if(cnt + 1 >= pos.length) {
+				pos = grow(pos);
+			}
+			pos[cnt++] = i;
+			i = offHolder[0];
+		}
+		listPos = pos;
+		listCount = cnt;
+	}
+
+	// long値を取得.
+	private static final long getLong(byte[] b, int off) {
+		return (b[off] & 0x00000000000000ffL) |
+			((b[off+1] & 0x00000000000000ffL) << 8L) |
+			((b[off+2] & 0x00000000000000ffL) << 16L) |
+			((b[off+3] & 0x00000000000000ffL) << 24L) |
+			((b[off+4] & 0x00000000000000ffL) << 32L) |
+			((b[off+5] & 0x00000000000000ffL) << 40L) |
+			((b[off+6] & 0x00000000000000ffL) << 48L) |
+			((b[off+7] & 0x00000000000000ffL) << 56L);
+	}
+
+	// 一覧の項目間の区切り長を取得.
+	private final int listSeparator() {
+		return (type == ExistenceIO.TYPE_MACHINE_LIST_PAGE) ? 2 : 1;
+	}
+
+	// 配列の拡張.
+	private static final int[] grow(int[] pos) {
+		final int[] ret = new int[pos.length << 1];
+		System.arraycopy(pos, 0, ret, 0, pos.length);
+		return ret;
+	}
+
+	// ノードグループ名のキャッシュ.
+	// 受信スレッドからのみ更新され、バイナリから文字列を生成せずに取得する.
+	private static final class NameCache {
+		private final byte[][] keys;
+		private final String[] values;
+		private final int mask;
+		private int size = 0;
+
+		NameCache(int max) {
+			int n = 1;
+			while(n < (max << 1)) {
+				n <<= 1;
+			}
+			keys = new byte[n][];
+			values = new String[n];
+			mask = n - 1;
+		}
+
+		// 文字列を取得.
+		final String get(byte[] b, int off, int len) {
+			final int n = getId(b, off, len);
+			if(n != -1) {
+				return values[n];
+			}
+			try {
+				return new String(b, off, len, "UTF8");
+			} catch(Exception e) {
+				return "";
+			}
+		}
+
+		// 文字列の項番を取得.
+		final synchronized int getId(byte[] b, int off, int len) {
+			int h = 1;
+			for(int i = 0; i < len; i ++) {
+				h = 31 * h + b[off + i];
+			}
+			int p = (h ^ (h >>> 16)) & mask;
+			byte[] k;
+			while((k = keys[p]) != null) {
+				if(eq(k, b, off, len)) {
+					return p;
+				}
+				p = (p + 1) & mask;
+			}
+			// キャッシュが一杯の場合は登録しない.
+			if(size >= (mask + 1) >> 1) {
+				return -1;
+			}
+			k = new byte[len];
+			System.arraycopy(b, off, k, 0, len);
+			try {
+				values[p] = new String(k, 0, len, "UTF8");
+			} catch(Exception e) {
+				return -1;
+			}
+			keys[p] = k;
+			size ++;
+			return p;
+		}
+
+		// バイナリ比較.
+		private static final boolean eq(byte[] k, byte[] b, int off, int len) {
+			if(k.length != len) {
+				return false;
+			}
+			for(int i = 0; i < len; i ++) {
+				if(k[i] != b[off + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
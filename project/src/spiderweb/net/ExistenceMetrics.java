@@ -0,0 +1,233 @@
+package spiderweb.net;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * spiderweb生存I/Oの送受信メトリクス.
+ * 送受信処理の各スレッドから更新されるので、競合の少ないLongAdderで集計します.
+ * メッセージ数とバイト数はメッセージタイプ毎に、パケット数とバイト数は全体で集計します.
+ * カスタムデータは、全てのアプリ実行タイプをまとめて集計します.
+ */
+public final class ExistenceMetrics {
+	// メッセージタイプ毎の集計数(最後はカスタムデータ).
+	private static final int TYPES = 32;
+	private static final int APPS = TYPES - 1;
+
+	// メッセージタイプ名.
+	private static final String[] TYPE_NAMES = new String[TYPES];
+	static {
+		TYPE_NAMES[ExistenceIO.TYPE_BINARY] = "binary";
+		TYPE_NAMES[ExistenceIO.TYPE_STRING] = "string";
+		TYPE_NAMES[ExistenceIO.TYPE_CONNECT] = "connect";
+		TYPE_NAMES[ExistenceIO.TYPE_IPLIST] = "ipList";
+		TYPE_NAMES[ExistenceIO.TYPE_MACHINE_LIST] = "machineList";
+		TYPE_NAMES[ExistenceIO.TYPE_CHECKSUM] = "checksum";
+		TYPE_NAMES[ExistenceIO.TYPE_MULTI] = "multi";
+		TYPE_NAMES[ExistenceIO.TYPE_IPLIST_PAGE] = "ipListPage";
+		TYPE_NAMES[ExistenceIO.TYPE_MACHINE_LIST_PAGE] = "machineListPage";
+		TYPE_NAMES[ExistenceIO.TYPE_DELTA] = "delta";
+		TYPE_NAMES[ExistenceIO.TYPE_TREE] = "tree";
+		TYPE_NAMES[ExistenceIO.TYPE_PING] = "ping";
+		TYPE_NAMES[ExistenceIO.TYPE_SUCCESS] = "success";
+		TYPE_NAMES[ExistenceIO.TYPE_ACK] = "ack";
+		TYPE_NAMES[ExistenceIO.TYPE_ERROR] = "error";
+		TYPE_NAMES[APPS] = "apps";
+	}
+
+	private final LongAdder[] sentMessages = adders(TYPES);
+	private final LongAdder[] sentBytes = adders(TYPES);
+	private final LongAdder[] receivedMessages = adders(TYPES);
+	private final LongAdder[] receivedBytes = adders(TYPES);
+	private final LongAdder sentPackets = new LongAdder();
+	private final LongAdder sentPacketBytes = new LongAdder();
+	private final LongAdder sendErrors = new LongAdder();
+	private final LongAdder receivedPackets = new LongAdder();
+	private final LongAdder receivedPacketBytes = new LongAdder();
+	private final LongAdder badHeaders = new LongAdder();
+	private final LongAdder badCheckCodes = new LongAdder();
+	private final LongAdder decodeErrors = new LongAdder();
+	private final LongAdder unknownClusters = new LongAdder();
+
+	private static final LongAdder[] adders(int len) {
+		final LongAdder[] ret = new LongAdder[len];
+		for(int i = 0; i < len; i ++) {
+			ret[i] = new LongAdder();
+		}
+		return ret;
+	}
+
+	// メッセージタイプの集計位置.
+	private static final int index(int type) {
+		return (type > ExistenceIO.TYPE_APPS || type < 0) ? APPS : type;
+	}
+
+	// 送信メッセージを集計.
+	final void sent(int type, int length) {
+		final int n = index(type);
+		sentMessages[n].increment();
+		sentBytes[n].add(length);
+	}
+
+	// 送信パケットを集計.
+	final void sentPacket(int length) {
+		sentPackets.increment();
+		sentPacketBytes.add(length);
+	}
+
+	// 送信失敗を集計.
+	final void sendError() {
+		sendErrors.increment();
+	}
+
+	// 受信メッセージを集計.
+	final void received(int type, int length) {
+		final int n = index(type);
+		receivedMessages[n].increment();
+		receivedBytes[n].add(length);
+	}
+
+	// 受信パケットを集計.
+	final void receivedPacket(int length) {
+		receivedPackets.increment();
+		receivedPacketBytes.add(length);
+	}
+
+	// spiderweb通信ヘッダでないパケットを集計.
+	final void badHeader() {
+		badHeaders.increment();
+	}
+
+	// チェックコードが一致しないパケットを集計.
+	final void badCheckCode() {
+		badCheckCodes.increment();
+	}
+
+	// 解析に失敗したメッセージを集計.
+	final void decodeError() {
+		decodeErrors.increment();
+	}
+
+	// 受信先の存在しないクラスタIDのパケットを集計.
+	final void unknownCluster() {
+		unknownClusters.increment();
+	}
+
+	// メッセージタイプ毎の集計結果を取得.
+	// 集計数が0のタイプは含めない.
+	private static final Map<String, Long> toMap(LongAdder[] list) {
+		final Map<String, Long> ret = new TreeMap<String, Long>();
+		long n;
+		for(int i = 0; i < TYPES; i ++) {
+			if((n = list[i].sum()) != 0L) {
+				ret.put(TYPE_NAMES[i] == null ? String.valueOf(i) : TYPE_NAMES[i], n);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * メッセージタイプ毎の送信メッセージ数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getSentMessages() {
+		return toMap(sentMessages);
+	}
+
+	/**
+	 * メッセージタイプ毎の送信バイト数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getSentBytes() {
+		return toMap(sentBytes);
+	}
+
+	/**
+	 * メッセージタイプ毎の受信メッセージ数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getReceivedMessages() {
+		return toMap(receivedMessages);
+	}
+
+	/**
+	 * メッセージタイプ毎の受信バイト数を取得.
+	 * @return
+	 */
+	public Map<String, Long> getReceivedBytes() {
+		return toMap(receivedBytes);
+	}
+
+	/**
+	 * 送信パケット数を取得.
+	 * @return
+	 */
+	public long getSentPackets() {
+		return sentPackets.sum();
+	}
+
+	/**
+	 * 送信パケットのバイト数を取得.
+	 * @return
+	 */
+	public long getSentPacketBytes() {
+		return sentPacketBytes.sum();
+	}
+
+	/**
+	 * 送信失敗数を取得.
+	 * @return
+	 */
+	public long getSendErrors() {
+		return sendErrors.sum();
+	}
+
+	/**
+	 * 受信パケット数を取得.
+	 * @return
+	 */
+	public long getReceivedPackets() {
+		return receivedPackets.sum();
+	}
+
+	/**
+	 * 受信パケットのバイト数を取得.
+	 * @return
+	 */
+	public long getReceivedPacketBytes() {
+		return receivedPacketBytes.sum();
+	}
+
+	/**
+	 * spiderweb通信ヘッダでないパケット数を取得.
+	 * @return
+	 */
+	public long getBadHeaders() {
+		return badHeaders.sum();
+	}
+
+	/**
+	 * チェックコードが一致しないパケット数を取得.
+	 * @return
+	 */
+	public long getBadCheckCodes() {
+		return badCheckCodes.sum();
+	}
+
+	/**
+	 * 解析に失敗したメッセージ数を取得.
+	 * @return
+	 */
+	public long getDecodeErrors() {
+		return decodeErrors.sum();
+	}
+
+	/**
+	 * 受信先の存在しないクラスタIDのパケット数を取得.
+	 * @return
+	 */
+	public long getUnknownClusters() {
+		return unknownClusters.sum();
+	}
+}
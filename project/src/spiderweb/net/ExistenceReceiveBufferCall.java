@@ -0,0 +1,24 @@
+package spiderweb.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * UDPによる、spiderweb生存I/Oのカスタムデータ受信処理.
+ * 受信データを、受信バッファを参照する読み込み専用のByteBufferで受け取ります.
+ */
+public interface ExistenceReceiveBufferCall {
+	/**
+	 * 受信データ解析処理.
+	 * dataのpositionからlimitまでが受信データです.
+	 * dataは次の受信で再設定されるので、呼び出し後に保持しないでください.
+	 * @param type
+	 * @param addr
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	public Object get(int type, InetSocketAddress addr, ByteBuffer data)
+		throws IOException;
+}
@@ -0,0 +1,110 @@
+package spiderweb.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 接続要素の期限管理.
+ * 期限を一定間隔のスロットに振り分けるタイマーホイールで、
+ * 期限の過ぎたスロットの要素のみを取り出します.
+ * 期限は遅くなる方向にのみ変わる前提で、取り出された要素は呼び出し元で
+ * 現在の状態から次の期限を求めて登録し直します.
+ */
+final class ExpireWheel {
+	private static final int SLOTS = 256;
+	private static final int MASK = SLOTS - 1;
+	private static final long MIN_TICK = 10L;
+
+	// スロット内の登録情報.
+	private static final class Node {
+		final ConnectElement element;
+		final long deadline;
+
+		Node(ConnectElement element, long deadline) {
+			this.element = element;
+			this.deadline = deadline;
+		}
+	}
+
+	private final long tick;
+	private final List<List<Node>> slots = new ArrayList<List<Node>>(SLOTS);
+	private long lastTick;
+
+	/**
+	 * コンストラクタ.
+	 * @param expireTime 期限の単位となる時間を設定します.
+	 */
+	public ExpireWheel(long expireTime) {
+		this.tick = Math.max(MIN_TICK, expireTime >> 6);
+		this.lastTick = System.currentTimeMillis() / tick;
+		for(int i = 0; i < SLOTS; i ++) {
+			slots.add(new ArrayList<Node>());
+		}
+	}
+
+	/**
+	 * 期限を登録.
+	 * 既に同じか早い期限で登録されている場合は、何もしません.
+	 * @param e
+	 * @param deadline
+	 */
+	public synchronized void schedule(ConnectElement e, long deadline) {
+		final long d = e.getDeadline();
+		if(d != 0L && d <= deadline) {
+			return;
+		}
+		// 遅い期限で登録されていた情報は、取り出し時に破棄する.
+		e.setDeadline(deadline);
+		// 期限を含む区間の次のスロットに切り上げて、スロットの確認時に期限が過ぎているようにする.
+		// 切り捨てると、確認中の区間内で現在時間より後の期限が取り残され、1周後まで確認されない.
+		long t = (deadline + tick - 1L) / tick;
+		if(t <= lastTick) {
+			t = lastTick + 1L;
+		}
+		slots.get((int)(t & MASK)).add(new Node(e, deadline));
+	}
+
+	/**
+	 * 期限の過ぎた要素を取り出す.
+	 * @param now
+	 * @return List<ConnectElement> 期限の過ぎた要素が無い場合は[null]が返却されます.
+	 */
+	public synchronized List<ConnectElement> expire(long now) {
+		final long nowTick = now / tick;
+		if(nowTick <= lastTick) {
+			return null;
+		}
+		// 1周以上経過している場合は、全スロットを1度だけ確認する.
+		final long start = Math.max(lastTick + 1L, nowTick - MASK);
+		lastTick = nowTick;
+		List<ConnectElement> ret = null;
+		for(long t = start; t <= nowTick; t ++) {
+			final List<Node> slot = slots.get((int)(t & MASK));
+			for(int i = slot.size() - 1; i >= 0; i --) {
+				final Node n = slot.get(i);
+				if(n.element.getDeadline() != n.deadline) {
+					// 期限が変更された登録情報.
+					remove(slot, i);
+				} else if(n.deadline <= now) {
+					remove(slot, i);
+					n.element.setDeadline(0L);
+					if(ret == null) {
+						ret = new ArrayList<ConnectElement>();
+					}
+					ret.add(n.element);
+				}
+			}
+		}
+		return ret;
+	}
+
+	// スロットから削除.
+	// 順序は不要なので、末尾の情報と入れ替えて削除する.
+	private static final void remove(List<Node> slot, int no) {
+		final int last = slot.size() - 1;
+		if(no != last) {
+			slot.set(no, slot.get(last));
+		}
+		slot.remove(last);
+	}
+}
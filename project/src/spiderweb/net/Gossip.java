@@ -0,0 +1,266 @@
+package spiderweb.net;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ゴシップモードの状態管理.
+ * 1周期毎にノードグループ毎に一定数のランダムな接続先へ探査を送信し、
+ * 応答が無い場合は他の接続先経由で間接探査を行い、それでも応答が無い場合に削除します.
+ * (SWIM方式)
+ */
+public class Gossip {
+	/** デフォルトの1周期あたりの探査数. **/
+	public static final int DEF_FANOUT = 3;
+
+	/** デフォルトの探査周期(ミリ秒). **/
+	public static final long DEF_PROBE_TIME = 1000L;
+
+	/** 1メッセージに付加する変更の最大数. **/
+	public static final int PIGGYBACK = 8;
+
+	private final int fanout;
+	private final long probeTime;
+	private final Random random = new Random();
+	private final AtomicInteger seq = new AtomicInteger(0);
+
+	// 応答待ちの探査.
+	private final Map<Integer, Probe> probes = new ConcurrentHashMap<Integer, Probe>();
+
+	// 間接探査の中継.
+	private final Map<Integer, Relay> relays = new ConcurrentHashMap<Integer, Relay>();
+
+	/**
+	 * 応答待ちの探査.
+	 */
+	public static final class Probe {
+		private final int seq;
+		private final String nodeGroupName;
+		private final String addr;
+		private long deadline;
+		private boolean indirect = false;
+
+		Probe(int seq, String nodeGroupName, String addr, long deadline) {
+			this.seq = seq;
+			this.nodeGroupName = nodeGroupName;
+			this.addr = addr;
+			this.deadline = deadline;
+		}
+
+		public int getSeq() {
+			return seq;
+		}
+
+		public String getNodeGroupName() {
+			return nodeGroupName;
+		}
+
+		public String getAddress() {
+			return addr;
+		}
+
+		public boolean isIndirect() {
+			return indirect;
+		}
+	}
+
+	/**
+	 * 間接探査の中継元.
+	 */
+	public static final class Relay {
+		private final InetAddress from;
+		private final int seq;
+		private final long deadline;
+
+		Relay(InetAddress from, int seq, long deadline) {
+			this.from = from;
+			this.seq = seq;
+			this.deadline = deadline;
+		}
+
+		public InetAddress getFrom() {
+			return from;
+		}
+
+		public int getSeq() {
+			return seq;
+		}
+	}
+
+	/**
+	 * コンストラクタ.
+	 * @param fanout 1周期あたりの探査数を設定します.
+	 * @param probeTime 探査周期をミリ秒単位で設定します.
+	 */
+	public Gossip(int fanout, long probeTime) {
+		if(fanout <= 0) {
+			fanout = DEF_FANOUT;
+		}
+		if(probeTime <= 0L) {
+			probeTime = DEF_PROBE_TIME;
+		}
+		this.fanout = fanout;
+		this.probeTime = probeTime;
+	}
+
+	/**
+	 * 1周期あたりの探査数を取得.
+	 * @return
+	 */
+	public int getFanout() {
+		return fanout;
+	}
+
+	/**
+	 * 探査周期を取得.
+	 * @return
+	 */
+	public long getProbeTime() {
+		return probeTime;
+	}
+
+	/**
+	 * 探査を登録.
+	 * @param nodeGroupName
+	 * @param addr
+	 * @param now
+	 * @return int 探査のシーケンス番号が返却されます.
+	 */
+	public int probe(String nodeGroupName, String addr, long now) {
+		final int ret = seq.incrementAndGet();
+		probes.put(ret, new Probe(ret, nodeGroupName, addr, now + probeTime));
+		return ret;
+	}
+
+	/**
+	 * 探査の応答を受信.
+	 * @param no
+	 * @return boolean [true]の場合は、応答待ちの探査でした.
+	 */
+	public boolean ack(int no) {
+		return probes.remove(no) != null;
+	}
+
+	/**
+	 * 指定接続先の応答待ちの探査が存在するかチェック.
+	 * @param nodeGroupName
+	 * @param addr
+	 * @return
+	 */
+	public boolean isProbe(String nodeGroupName, String addr) {
+		final Iterator<Probe> it = probes.values().iterator();
+		while(it.hasNext()) {
+			final Probe p = it.next();
+			if(p.addr.equals(addr) && p.nodeGroupName.equals(nodeGroupName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 応答期限が過ぎた探査を取得.
+	 * 直接探査の場合は間接探査に切り替えて期限を延長し、
+	 * 間接探査の場合は応答待ちから削除します.
+	 * @param now
+	 * @return
+	 */
+	public List<Probe> timeout(long now) {
+		List<Probe> ret = null;
+		final Iterator<Probe> it = probes.values().iterator();
+		while(it.hasNext()) {
+			final Probe p = it.next();
+			if(p.deadline > now) {
+				continue;
+			}
+			if(ret == null) {
+				ret = new ArrayList<Probe>();
+			}
+			ret.add(p);
+			if(p.indirect) {
+				it.remove();
+			} else {
+				p.indirect = true;
+				p.deadline = now + probeTime;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 間接探査の中継を登録.
+	 * @param from 間接探査の依頼元を設定します.
+	 * @param no 依頼元の探査シーケンス番号を設定します.
+	 * @param now
+	 * @return int 中継先に送信する探査のシーケンス番号が返却されます.
+	 */
+	public int relay(InetAddress from, int no, long now) {
+		final int ret = seq.incrementAndGet();
+		relays.put(ret, new Relay(from, no, now + probeTime));
+		return ret;
+	}
+
+	/**
+	 * 間接探査の中継を取得して削除.
+	 * @param no
+	 * @return Relay 中継でない場合は[null]が返却されます.
+	 */
+	public Relay removeRelay(int no) {
+		return relays.remove(no);
+	}
+
+	/**
+	 * 期限の過ぎた中継を削除.
+	 * @param now
+	 */
+	public void removeExpireRelay(long now) {
+		final Iterator<Relay> it = relays.values().iterator();
+		while(it.hasNext()) {
+			if(it.next().deadline <= now) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * 接続先一覧からランダムに選択.
+	 * 自マシンと、除外アドレスは選択されません.
+	 * @param addrs
+	 * @param n 選択数を設定します.
+	 * @param exclude 除外するアドレスを設定します.
+	 * @return
+	 */
+	public List<String> select(String[] addrs, int n, String exclude) {
+		final int len = addrs.length;
+		final List<String> ret = new ArrayList<String>(n);
+		if(len == 0) {
+			return ret;
+		}
+		String a;
+		if(len <= (n << 1)) {
+			// 一覧が少ない場合は、ランダムな開始位置から順に選択する.
+			final int start = random.nextInt(len);
+			for(int i = 0; i < len && ret.size() < n; i ++) {
+				a = addrs[(start + i) % len];
+				if(!ThisMachineAddress.eq(a) && !a.equals(exclude) && !ret.contains(a)) {
+					ret.add(a);
+				}
+			}
+		} else {
+			// 一覧が多い場合は、ランダムに選択する.
+			for(int i = 0; i < (n << 2) && ret.size() < n; i ++) {
+				a = addrs[random.nextInt(len)];
+				if(!ThisMachineAddress.eq(a) && !a.equals(exclude) && !ret.contains(a)) {
+					ret.add(a);
+				}
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,212 @@
+package spiderweb.net;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import spiderweb.SpiderWebConstants;
+import spiderweb.SpiderWebSnapshot;
+import spiderweb.utils.AtomicNumber;
+import spiderweb.utils.AtomicNumber64;
+import spiderweb.utils.ConvIp4;
+
+/**
+ * マシンNoの割り当て.
+ * 参加している全ノードグループの接続先が使用していない最小の番号を、
+ * 現在時間をマシンNoの時間として要求し、一定時間競合が無い場合に確定します.
+ * 要求したマシンNoは、全メッセージに付加されるマシン情報で他マシンへ伝わります.
+ * 同じ番号の要求が競合した場合は、マシンNoの時間が早い方を優先し、
+ * 遅い方は別の番号を要求し直します.
+ */
+public class MachineNoAllocator {
+	/** マシンNoが割り当てられていない. **/
+	public static final int NONE = -1;
+
+	// 割り当て状態.
+	private static final int STATE_NONE = 0;
+	private static final int STATE_CLAIM = 1;
+	private static final int STATE_FIXED = 2;
+
+	private final AtomicNumber machineNo;
+	private final AtomicNumber64 machineNoTime;
+	private final int max;
+	private final long settleTime;
+	private final AddressResolver resolver;
+	private final BitSet used;
+
+	private int state = STATE_NONE;
+	private long claimTime = -1L;
+	private long nextClaimTime;
+	private volatile int fixedNo = NONE;
+	private volatile CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+	/**
+	 * コンストラクタ.
+	 * @param machineNo このマシンのマシンNoを設定します.
+	 * @param machineNoTime このマシンのマシンNoの時間を設定します.
+	 * @param max マシンNoの最大値を設定します. 0から最大値未満のマシンNoが割り当てられます.
+	 * @param waitTime 最初の要求までに、接続先を取得する時間をミリ秒単位で設定します.
+	 * @param settleTime 要求から確定までの時間をミリ秒単位で設定します.
+	 * @param resolver マシン名の接続先が自マシンかを判定する、アドレス解決のキャッシュを設定します.
+	 */
+	public MachineNoAllocator(AtomicNumber machineNo, AtomicNumber64 machineNoTime,
+		int max, long waitTime, long settleTime, AddressResolver resolver) {
+		if(max <= 0) {
+			max = SpiderWebConstants.DEF_MACHINE_NO;
+		}
+		this.machineNo = machineNo;
+		this.machineNoTime = machineNoTime;
+		this.max = max;
+		this.settleTime = settleTime;
+		this.resolver = resolver;
+		this.used = new BitSet(max);
+		this.nextClaimTime = System.currentTimeMillis() + waitTime;
+		machineNo.set(NONE);
+		machineNoTime.set(-1L);
+	}
+
+	/**
+	 * マシンNoの要求、競合確認、確定を行う.
+	 * 同期処理のスレッドから定期的に呼び出します.
+	 * @param connectNodeGroup 参加しているノードグループ一覧を設定します.
+	 * @param now 現在時間を設定します.
+	 */
+	public synchronized void execute(Map<String, ConnectList> connectNodeGroup, long now) {
+		final int no = machineNo.get();
+		final long time = machineNoTime.get();
+		boolean lose = false;
+		boolean tie = false;
+		int n;
+		long t;
+		String a;
+		SpiderWebSnapshot s;
+		used.clear();
+		final Iterator<ConnectList> it = connectNodeGroup.values().iterator();
+		while(it.hasNext()) {
+			s = it.next().getSnapshot();
+			final int len = s.size();
+			for(int i = 0; i < len; i ++) {
+				// 要求されていない番号や、自マシンは対象外.
+				if((n = s.getMachineNo(i)) < 0 || n >= max || (t = s.getMachineNoTime(i)) <= 0L ||
+					ThisMachineAddress.eq(a = s.getAddress(i))) {
+					continue;
+				}
+				// マシン名の場合は、解決済みのIPアドレスで自マシンか判定する.
+				// 解決されていない場合は、使用中の番号としてのみ扱う.
+				final boolean name = !ConvIp4.isIp(a);
+				if(name && resolver != null && (a = resolver.getHostAddress(a)) != null &&
+					ThisMachineAddress.eq(a)) {
+					continue;
+				}
+				used.set(n);
+				if(n == no && state != STATE_NONE && t <= time && (!name || a != null)) {
+					lose = true;
+					tie |= (t == time);
+				}
+			}
+		}
+		// 競合で負けた場合は、マシンNoを解放して要求し直す.
+		// 時間が同じ場合は、双方が解放するので要求時間をずらす.
+		if(lose) {
+			if(SpiderWebConstants.DEBUG_FLAG) {
+				System.out.println("machineNo " + no + " conflict (" + (state == STATE_FIXED ? "fixed" : "claim") + ")");
+			}
+			release();
+			nextClaimTime = tie ? now + ThreadLocalRandom.current().nextLong(settleTime + 1L) : now;
+		}
+		switch(state) {
+		case STATE_NONE:
+			if(now >= nextClaimTime) {
+				claim(now);
+			}
+			break;
+		case STATE_CLAIM:
+			if(now - claimTime >= settleTime) {
+				fix();
+			}
+			break;
+		}
+	}
+
+	// 未使用の最小の番号を要求.
+	private final void claim(long now) {
+		final int n = used.nextClearBit(0);
+		if(n >= max) {
+			// 空きが無い場合は、次回の確認時に要求する.
+			return;
+		}
+		machineNoTime.set(now);
+		machineNo.set(n);
+		claimTime = now;
+		state = STATE_CLAIM;
+	}
+
+	// 要求したマシンNoを確定.
+	private final void fix() {
+		state = STATE_FIXED;
+		fixedNo = machineNo.get();
+		future.complete(fixedNo);
+		notifyAll();
+	}
+
+	// マシンNoを解放.
+	// 確定済みの場合は、次の確定を待つ通知処理を作り直す.
+	private final void release() {
+		if(state == STATE_FIXED) {
+			fixedNo = NONE;
+			future = new CompletableFuture<Integer>();
+		}
+		machineNo.set(NONE);
+		machineNoTime.set(-1L);
+		claimTime = -1L;
+		state = STATE_NONE;
+	}
+
+	/**
+	 * 確定したマシンNoを取得.
+	 * @return int 確定していない場合は[NONE]が返却されます.
+	 */
+	public int getMachineNo() {
+		return fixedNo;
+	}
+
+	/**
+	 * マシンNoの最大値を取得.
+	 * @return
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	/**
+	 * マシンNoが確定するまで待機.
+	 * @param timeout 待機時間をミリ秒単位で設定します. 0以下の場合は確定するまで待機します.
+	 * @return int 時間内に確定しなかった場合は[NONE]が返却されます.
+	 * @exception InterruptedException
+	 */
+	public synchronized int await(long timeout) throws InterruptedException {
+		if(timeout <= 0L) {
+			while(fixedNo == NONE) {
+				wait();
+			}
+			return fixedNo;
+		}
+		final long end = System.currentTimeMillis() + timeout;
+		long w;
+		while(fixedNo == NONE && (w = end - System.currentTimeMillis()) > 0L) {
+			wait(w);
+		}
+		return fixedNo;
+	}
+
+	/**
+	 * マシンNoの確定を通知するFutureを取得.
+	 * 確定後に競合で解放された場合は、次の確定を通知するFutureに切り替わります.
+	 * @return
+	 */
+	public CompletableFuture<Integer> getFuture() {
+		return future;
+	}
+}
@@ -1,5 +1,7 @@
 package spiderweb.net;
 
+import java.nio.ByteBuffer;
+
 /**
  * 送信用バッファ.
  */
@@ -13,6 +15,20 @@ public class SendBuffer {
 	public int sendBufferLength = 0;
 	public byte[] sendBuffer = null;
 	
+	// 送信用ダイレクトバッファ.
+	private ByteBuffer connectDirect = null;
+	private ByteBuffer sendDirect = null;
+	
+	// ダイレクトバッファに反映済みかのフラグ.
+	private boolean connectDirectFlag = false;
+	private boolean sendDirectFlag = false;
+	
+	// 複数メッセージをまとめて送信するためのバッファ.
+	byte[] packBuffer = null;
+	int packBufferLength = 0;
+	int packCount = 0;
+	Object packAddr = null;
+	
 	/**
 	 * コンストラクタ.
 	 * @param type
@@ -20,9 +36,70 @@ public class SendBuffer {
 	public SendBuffer(int type) {
 		if((type & TYPE_CONNECT) != 0) {
 			connectBuffer = new byte[65535];
+			connectDirect = ByteBuffer.allocateDirect(65535);
 		}
 		if((type & TYPE_SEND) != 0) {
 			sendBuffer = new byte[65535];
+			sendDirect = ByteBuffer.allocateDirect(65535);
+		}
+	}
+	
+	// コネクション用バッファが更新された事を通知.
+	final void updateConnect() {
+		connectDirectFlag = false;
+	}
+	
+	// 送信データ用バッファが更新された事を通知.
+	final void updateSend() {
+		sendDirectFlag = false;
+	}
+	
+	// 複数メッセージ用のダイレクトバッファを取得.
+	// 送信データ用のダイレクトバッファを利用するので、その内容は再作成させる.
+	final ByteBuffer packDirect() {
+		final ByteBuffer ret = sendDirect;
+		ret.clear();
+		ret.put(packBuffer, 0, packBufferLength);
+		ret.flip();
+		sendDirectFlag = false;
+		return ret;
+	}
+	
+	/**
+	 * まとめて送信待ちのメッセージ数を取得.
+	 * @return
+	 */
+	public int getPackCount() {
+		return packCount;
+	}
+	
+	// コネクション用のダイレクトバッファを取得.
+	// 同じ内容を複数の送信先に送る場合は、バッファのコピーは初回のみ行われる.
+	final ByteBuffer connectDirect() {
+		final ByteBuffer ret = connectDirect;
+		if(!connectDirectFlag) {
+			ret.clear();
+			ret.put(connectBuffer, 0, connectBufferLength);
+			ret.flip();
+			connectDirectFlag = true;
+		} else {
+			ret.position(0);
+		}
+		return ret;
+	}
+	
+	// 送信データ用のダイレクトバッファを取得.
+	// 同じ内容を複数の送信先に送る場合は、バッファのコピーは初回のみ行われる.
+	final ByteBuffer sendDirect() {
+		final ByteBuffer ret = sendDirect;
+		if(!sendDirectFlag) {
+			ret.clear();
+			ret.put(sendBuffer, 0, sendBufferLength);
+			ret.flip();
+			sendDirectFlag = true;
+		} else {
+			ret.position(0);
 		}
+		return ret;
 	}
 }
@@ -0,0 +1,136 @@
+package spiderweb.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 送信ペース制御.
+ * 1秒間の送信パケット数とバースト数を指定して、送信間隔を均等に制御します.
+ * (トークンバケット方式)
+ */
+public class SendScheduler {
+	/** デフォルトの1秒間の送信パケット数. **/
+	public static final int DEF_RATE = 200;
+
+	/** デフォルトのバースト数. **/
+	public static final int DEF_BURST = 32;
+
+	private final int rate;
+	private final int burst;
+	private final double nanosPerToken;
+	private final double maxTokens;
+	private double tokens;
+	private long lastTime;
+
+	// 送信待ちが発生した回数と、その合計時間(ナノ秒).
+	private final AtomicLong waitCount = new AtomicLong(0L);
+	private final AtomicLong waitTime = new AtomicLong(0L);
+
+	/**
+	 * コンストラクタ.
+	 * @param rate 1秒間の送信パケット数を設定します.
+	 * @param burst 連続で送信可能なパケット数を設定します.
+	 */
+	public SendScheduler(int rate, int burst) {
+		if(rate <= 0) {
+			rate = DEF_RATE;
+		}
+		if(burst <= 0) {
+			burst = DEF_BURST;
+		}
+		this.rate = rate;
+		this.burst = burst;
+		this.nanosPerToken = 1000000000d / (double)rate;
+		this.maxTokens = (double)burst;
+		this.tokens = maxTokens;
+		this.lastTime = System.nanoTime();
+	}
+
+	/**
+	 * 1パケット分の送信許可を取得.
+	 * 送信可能数を超えている場合は、送信可能になるまで待機します.
+	 * 複数スレッドから呼び出された場合は、それぞれの待機時間をずらして割り当てます.
+	 */
+	public void acquire() {
+		final long w;
+		synchronized(this) {
+			final long now = System.nanoTime();
+			tokens += (double)(now - lastTime) / nanosPerToken;
+			if(tokens > maxTokens) {
+				tokens = maxTokens;
+			}
+			lastTime = now;
+			// 不足分は前借りして、その分を待機する.
+			tokens -= 1d;
+			w = (tokens < 0d) ? (long)(-tokens * nanosPerToken) : 0L;
+		}
+		if(w > 0L) {
+			waitCount.incrementAndGet();
+			waitTime.addAndGet(w);
+			final long end = System.nanoTime() + w;
+			long n = w;
+			while(n > 0L) {
+				LockSupport.parkNanos(n);
+				n = end - System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * 1パケット分の送信許可を、待機せずに取得.
+	 * 送信可能数を超えている場合は送信許可を取得せず、送信可能になるまでの時間を返却します.
+	 * スケジュール実行など、呼び出し元のスレッドを待機させられない場合に利用します.
+	 * @return long 送信許可を取得した場合は[0]、それ以外は送信可能になるまでの時間(ミリ秒)が返却されます.
+	 */
+	public long tryAcquire() {
+		final long w;
+		synchronized(this) {
+			final long now = System.nanoTime();
+			tokens += (double)(now - lastTime) / nanosPerToken;
+			if(tokens > maxTokens) {
+				tokens = maxTokens;
+			}
+			lastTime = now;
+			if(tokens >= 1d) {
+				tokens -= 1d;
+				return 0L;
+			}
+			w = (long)((1d - tokens) * nanosPerToken);
+		}
+		waitCount.incrementAndGet();
+		waitTime.addAndGet(w);
+		return Math.max(1L, (w + 999999L) / 1000000L);
+	}
+
+	/**
+	 * 1秒間の送信パケット数を取得.
+	 * @return
+	 */
+	public int getRate() {
+		return rate;
+	}
+
+	/**
+	 * バースト数を取得.
+	 * @return
+	 */
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * 送信待ちが発生した回数を取得.
+	 * @return
+	 */
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+
+	/**
+	 * 送信待ちの合計時間を取得.
+	 * @return long ミリ秒単位で返却されます.
+	 */
+	public long getWaitTime() {
+		return waitTime.get() / 1000000L;
+	}
+}
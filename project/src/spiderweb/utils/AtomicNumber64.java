@@ -104,6 +104,22 @@ public class AtomicNumber64 {
 		return r;
 	}
 
+	/**
+	 * 現在の値より大きい場合のみ設定.
+	 * 
+	 * @param n long値を設定します.
+	 * @return long 設定後の値が返されます.
+	 */
+	public long max(long n) {
+		long c;
+		while ((c = ato.get()) < n) {
+			if (ato.compareAndSet(c, n)) {
+				return n;
+			}
+		}
+		return c;
+	}
+
 	/**
 	 * 文字変換.
 	 * 
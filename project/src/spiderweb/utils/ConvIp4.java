@@ -11,12 +11,29 @@ public class ConvIp4 {
 	 * @return
 	 */
 	public static final int ipToInt(String addr) {
-		String[] list = addr.split("\\.");
-		int ret = 0;
-		ret |= (Integer.parseInt(list[3]) & 0x000000ff);
-		ret |= (Integer.parseInt(list[2]) & 0x000000ff) << 8;
-		ret |= (Integer.parseInt(list[1]) & 0x000000ff) << 16;
-		return ret | (Integer.parseInt(list[0]) & 0x000000ff) << 24;
+		// 文字列分割を行わずに、1文字ずつ数値化する.
+		char c;
+		int ret = 0, n = 0;
+		final int len = addr.length();
+		for(int i = 0; i < len; i ++) {
+			if((c = addr.charAt(i)) == '.') {
+				ret = (ret << 8) | (n & 0x000000ff);
+				n = 0;
+			} else {
+				n = (n * 10) + (c - '0');
+			}
+		}
+		return (ret << 8) | (n & 0x000000ff);
+	}
+	
+	/**
+	 * バイナリのIPアドレスをint変換.
+	 * @param addr
+	 * @return
+	 */
+	public static final int binToInt(byte[] addr) {
+		return ((addr[0] & 0x000000ff) << 24) | ((addr[1] & 0x000000ff) << 16) |
+			((addr[2] & 0x000000ff) << 8) | (addr[3] & 0x000000ff);
 	}
 	
 	/**
@@ -25,11 +42,7 @@ public class ConvIp4 {
 	 * @param addr
 	 */
 	public static final void ipToBin(byte[] out, String addr) {
-		String[] list = addr.split("\\.");
-		out[0] = (byte)(Integer.parseInt(list[0]) & 0x000000ff);
-		out[1] = (byte)(Integer.parseInt(list[1]) & 0x000000ff);
-		out[2] = (byte)(Integer.parseInt(list[2]) & 0x000000ff);
-		out[3] = (byte)(Integer.parseInt(list[3]) & 0x000000ff);
+		ipToBin(out, ipToInt(addr));
 	}
 	
 	/**
@@ -98,6 +111,17 @@ public class ConvIp4 {
 				n.startsWith("192.168.");
 	}
 	
+	/**
+	 * intのipアドレスがローカルIPかチェック.
+	 * @param n
+	 * @return
+	 */
+	public static final boolean isLocalIp(int n) {
+		return (n >>> 24) == 10 ||
+				(n >>> 16) == 0xac10 ||
+				(n >>> 16) == 0xc0a8;
+	}
+	
 	
 	/**
 	 * IPアドレスから、IDを取得.
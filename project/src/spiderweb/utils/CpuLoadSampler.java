@@ -0,0 +1,233 @@
+package spiderweb.utils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU負荷率の定期取得.
+ * 一定間隔でOSのCPU負荷率を取得し、1秒、10秒、60秒の指数移動平均を求めます.
+ * 移動平均は取得間隔の経過時間で重み付けするので、取得間隔が揺らいでも時間に対して一定となります.
+ * 拡張取得を行う場合は、システム負荷平均、ヒープ使用率、GC停止時間も取得します.
+ */
+public class CpuLoadSampler {
+	/** デフォルトの取得間隔(ミリ秒). **/
+	public static final long DEF_INTERVAL = 250L;
+
+	// 移動平均の時間(ミリ秒).
+	private static final double WINDOW_1 = 1000d;
+	private static final double WINDOW_10 = 10000d;
+	private static final double WINDOW_60 = 60000d;
+
+	private final long interval;
+	private final AtomicNumber output;
+	private volatile double load1 = -1d;
+	private volatile double load10 = -1d;
+	private volatile double load60 = -1d;
+	private long lastTime = -1L;
+	
+	// 拡張取得の情報.
+	private final boolean extended;
+	private final Runnable listener;
+	private final int processors = Runtime.getRuntime().availableProcessors();
+	private volatile int loadAverage = -1;
+	private volatile int heapUsed = -1;
+	private volatile double gcPause = -1d;
+	private long lastGcTime = -1L;
+
+	private ScheduledExecutorService ownExecutor = null;
+	private ScheduledFuture<?> future = null;
+
+	/**
+	 * コンストラクタ.
+	 * @param interval 取得間隔をミリ秒単位で設定します.
+	 * @param output 10秒の移動平均を設定する先を設定します.
+	 */
+	public CpuLoadSampler(long interval, AtomicNumber output) {
+		this(interval, output, false, null);
+	}
+	
+	/**
+	 * コンストラクタ.
+	 * @param interval 取得間隔をミリ秒単位で設定します.
+	 * @param output 10秒の移動平均を設定する先を設定します.
+	 * @param extended [true]の場合、システム負荷平均、ヒープ使用率、GC停止時間も取得します.
+	 * @param listener 取得毎に呼び出す処理を設定します.
+	 */
+	public CpuLoadSampler(long interval, AtomicNumber output, boolean extended, Runnable listener) {
+		if(interval <= 0L) {
+			interval = DEF_INTERVAL;
+		}
+		this.interval = interval;
+		this.output = output;
+		this.extended = extended;
+		this.listener = listener;
+	}
+
+	/**
+	 * 定期取得を開始.
+	 * @param executor 定期取得を実行するExecutorを設定します.
+	 *                 [null]の場合は、専用スレッドで実行します.
+	 * @param factory 専用スレッドを作成するThreadFactoryを設定します.
+	 *                [null]の場合は、デーモンスレッドを作成します.
+	 */
+	public synchronized void start(ScheduledExecutorService executor, final ThreadFactory factory) {
+		if(future != null) {
+			return;
+		}
+		if(executor == null) {
+			executor = ownExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = factory != null ? factory.newThread(r) : new Thread(r);
+					t.setName("spiderweb-cpu");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		sample();
+		future = executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 定期取得を終了.
+	 */
+	public synchronized void close() {
+		if(future != null) {
+			future.cancel(false);
+			future = null;
+		}
+		if(ownExecutor != null) {
+			ownExecutor.shutdownNow();
+			ownExecutor = null;
+		}
+	}
+
+	/**
+	 * CPU負荷率を取得して、移動平均を更新.
+	 */
+	public void sample() {
+		synchronized(this) {
+			final double cpu = OsCpuLoad.get();
+			final long now = System.nanoTime();
+			final double dt = lastTime == -1L ? -1d : (now - lastTime) / 1000000d;
+			if(dt < 0d) {
+				// 初回は取得値をそのまま平均とする.
+				load1 = load10 = load60 = cpu;
+			} else {
+				load1 = average(load1, cpu, dt, WINDOW_1);
+				load10 = average(load10, cpu, dt, WINDOW_10);
+				load60 = average(load60, cpu, dt, WINDOW_60);
+			}
+			lastTime = now;
+			if(output != null) {
+				output.set((int)Math.round(load10));
+			}
+			if(extended) {
+				sampleExtended(dt);
+			}
+		}
+		// 取得毎の処理は、ロック外で呼び出す.
+		if(listener != null) {
+			listener.run();
+		}
+	}
+	
+	// システム負荷平均、ヒープ使用率、GC停止時間を取得.
+	private final void sampleExtended(double dt) {
+		// システム負荷平均は、CPU1個あたりの100倍値とする.
+		final double la = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+		loadAverage = la < 0d ? -1 : (int)Math.round(la * 100d / processors);
+		
+		// 最大値が定義されていない場合は、確保済みの領域に対する使用率とする.
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		final long max = heap.getMax() > 0L ? heap.getMax() : heap.getCommitted();
+		heapUsed = max <= 0L ? -1 : (int)(heap.getUsed() * 100L / max);
+		
+		// GC停止時間は、1秒あたりの停止時間の10秒の移動平均とする.
+		long gc = 0L;
+		final List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+		final int len = beans.size();
+		for(int i = 0; i < len; i ++) {
+			gc += Math.max(0L, beans.get(i).getCollectionTime());
+		}
+		if(dt > 0d && lastGcTime >= 0L) {
+			final double pause = (gc - lastGcTime) * 1000d / dt;
+			gcPause = gcPause < 0d ? pause : average(gcPause, pause, dt, WINDOW_10);
+		}
+		lastGcTime = gc;
+	}
+
+	// 経過時間で重み付けした指数移動平均.
+	private static final double average(double avg, double value, double dt, double window) {
+		return avg + (1d - Math.exp(-dt / window)) * (value - avg);
+	}
+
+	/**
+	 * 取得間隔を取得.
+	 * @return
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * 1秒の移動平均を取得.
+	 * @return double 取得していない場合は[-1]が返却されます.
+	 */
+	public double getLoad1() {
+		return load1;
+	}
+
+	/**
+	 * 10秒の移動平均を取得.
+	 * @return double 取得していない場合は[-1]が返却されます.
+	 */
+	public double getLoad10() {
+		return load10;
+	}
+
+	/**
+	 * 60秒の移動平均を取得.
+	 * @return double 取得していない場合は[-1]が返却されます.
+	 */
+	public double getLoad60() {
+		return load60;
+	}
+	
+	/**
+	 * CPU1個あたりのシステム負荷平均(100倍値)を取得.
+	 * @return int 取得していない場合は[-1]が返却されます.
+	 */
+	public int getLoadAverage() {
+		return loadAverage;
+	}
+	
+	/**
+	 * ヒープ使用率を取得.
+	 * @return int 取得していない場合は[-1]が返却されます.
+	 */
+	public int getHeapUsed() {
+		return heapUsed;
+	}
+	
+	/**
+	 * 1秒あたりのGC停止時間(ミリ秒)の10秒の移動平均を取得.
+	 * @return int 取得していない場合は[-1]が返却されます.
+	 */
+	public int getGcPause() {
+		return gcPause < 0d ? -1 : (int)Math.round(gcPause);
+	}
+}
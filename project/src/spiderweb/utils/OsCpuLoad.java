@@ -17,7 +17,8 @@ public class OsCpuLoad {
 	public static final int get() {
 		try {
 			double d = osBean.getSystemCpuLoad();
-			if(d == Double.NaN) {
+			// 取得できない場合は、負の値かNaNが返却される.
+			if(Double.isNaN(d) || d < 0d) {
 				return before.get();
 			}
 			before.set((int)(d * 100));
@@ -0,0 +1,55 @@
+package spiderweb.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 仮想スレッドの作成処理.
+ * 仮想スレッドはJava21以降で利用できるので、リフレクションで呼び出します.
+ * 利用できない環境では[null]が返却されるので、呼び出し元は通常のスレッドを利用します.
+ */
+public final class VirtualThreads {
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+	static {
+		Method ofVirtual = null, name = null, factory = null;
+		try {
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+		} catch(Exception e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+	}
+
+	protected VirtualThreads() {}
+
+	/**
+	 * 仮想スレッドが利用できるかチェック.
+	 * @return
+	 */
+	public static final boolean isSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * 仮想スレッドのThreadFactoryを取得.
+	 * @param name スレッド名の接頭語を設定します.
+	 * @return ThreadFactory 仮想スレッドが利用できない場合は[null]が返却されます.
+	 */
+	public static final ThreadFactory factory(String name) {
+		if(OF_VIRTUAL == null) {
+			return null;
+		}
+		try {
+			return (ThreadFactory)FACTORY.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), name, 0L));
+		} catch(Exception e) {
+			return null;
+		}
+	}
+}